@@ -0,0 +1,65 @@
+package de.lekse.ant.typesetting.benchmarks;
+
+import de.lekse.ant.typesetting.tasks.BootstrapTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures scanning the project properties for document definitions in a
+ * project with many properties, of which a tenth describes documents. The
+ * task adds a target per document, hence every invocation gets a fresh
+ * project.
+ *
+ * @author Lekse
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BootstrapBenchmark {
+
+    private static final String[] DOCUMENT_ATTRIBUTES = {"type", "document", "language", "outputdir", "draft"};
+
+    @Param({"10000"})
+    public int properties;
+
+    private BootstrapTask task;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        Project project = new Project();
+        project.init();
+
+        for (int i = 0; i < this.properties; i++) {
+            if (i % 10 == 0) {
+                project.setProperty(String.format("documents.doc%1$d.%2$s", i / 10 / DOCUMENT_ATTRIBUTES.length, DOCUMENT_ATTRIBUTES[i / 10 % DOCUMENT_ATTRIBUTES.length]), "value");
+            }
+            else {
+                project.setProperty(String.format("unrelated.property%1$d", i), "value");
+            }
+        }
+
+        this.task = new BootstrapTask();
+        this.task.setProject(project);
+    }
+
+    @Benchmark
+    public void scanProperties() {
+        this.task.execute();
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.lekse.ant.typesetting.benchmarks;
+
+import de.lekse.ant.typesetting.build.BuildManifest;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures fingerprinting the inputs of a document in a large tree of
+ * sources, once from scratch and once reusing a recorded manifest as the up
+ * to date check does.
+ *
+ * @author Lekse
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FingerprintBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"100", "10000"})
+    public int files;
+
+    @Param({"4096"})
+    public int fileSize;
+
+    private Path root;
+
+    private List<File> inputs;
+
+    private BuildManifest recorded;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("fingerprint");
+        this.inputs = new ArrayList<>();
+
+        Random random = new Random(this.files);
+        byte[] content = new byte[this.fileSize];
+
+        for (int i = 0; i < this.files; i++) {
+            Path dir = this.root.resolve(String.format("chapter%1$d", i / FILES_PER_DIRECTORY));
+            Files.createDirectories(dir);
+
+            random.nextBytes(content);
+            this.inputs.add(Files.write(dir.resolve(String.format("section%1$d.tex", i)), content).toFile());
+        }
+
+        this.recorded = this.fingerprint();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(this.root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public BuildManifest fingerprint() {
+        BuildManifest manifest = new BuildManifest();
+
+        for (File input : this.inputs) {
+            manifest.putInput(input);
+        }
+
+        return manifest;
+    }
+
+    @Benchmark
+    public BuildManifest fingerprintReusingRecorded() {
+        BuildManifest manifest = new BuildManifest();
+
+        for (File input : this.inputs) {
+            manifest.putInput(input, this.recorded);
+        }
+
+        return manifest;
+    }
+
+    @Benchmark
+    public String compareWithRecorded() {
+        return this.fingerprintReusingRecorded().findChange(this.recorded);
+    }
+
+}
@@ -0,0 +1,102 @@
+package de.lekse.ant.typesetting.benchmarks;
+
+import de.lekse.ant.typesetting.messages.AbstractMessage;
+import de.lekse.ant.typesetting.messages.LogListener;
+import de.lekse.ant.typesetting.messages.LogParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.util.LineOrientedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing the output of pdflatex as it is streamed by the task: the
+ * bytes pass a line oriented stream which feeds the log parser. Logs larger
+ * than a chunk are produced by writing the same synthetic chunk repeatedly,
+ * so the benchmark itself runs in constant memory.
+ *
+ * @author Lekse
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogParserBenchmark {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the parsed log in bytes, from 1 KB to 200 MB.
+     */
+    @Param({"1024", "1048576", "209715200"})
+    public int size;
+
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        int line = 0;
+
+        // Typical mix of progress output, warnings and errors
+        while (log.size() < Math.min(this.size, CHUNK_SIZE)) {
+            String text;
+
+            if (line % 50 == 0) {
+                text = String.format("! Undefined control sequence.%nl.%1$d \\foo%n", line);
+            }
+            else if (line % 10 == 0) {
+                text = String.format("LaTeX Warning: Reference `fig:%1$d' on page 3 undefined on input line %1$d.%n", line);
+            }
+            else {
+                text = String.format("(/usr/share/texlive/texmf-dist/tex/latex/base/size%1$d.clo) [%1$d]%n", line);
+            }
+
+            log.write(text.getBytes(StandardCharsets.ISO_8859_1));
+            line++;
+        }
+
+        this.chunk = log.toByteArray();
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        final int[] messages = new int[1];
+        final LogParser parser = new LogParser(new LogListener() {
+            @Override
+            public void messageParsed(AbstractMessage message) {
+                messages[0]++;
+            }
+        });
+
+        try (OutputStream output = new LineOrientedOutputStream() {
+            @Override
+            protected void processLine(String line) {
+                parser.parseLine(line);
+            }
+        }) {
+            for (long written = 0; written < this.size; written += this.chunk.length) {
+                output.write(this.chunk, 0, (int) Math.min(this.chunk.length, this.size - written));
+            }
+        }
+
+        parser.finish();
+
+        return messages[0];
+    }
+
+}
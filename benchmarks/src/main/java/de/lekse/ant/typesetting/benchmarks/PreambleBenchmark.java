@@ -0,0 +1,84 @@
+package de.lekse.ant.typesetting.benchmarks;
+
+import de.lekse.ant.typesetting.build.BuildPlan;
+import de.lekse.ant.typesetting.tasks.TypesetTask;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating the plan of a build, which assembles the preamble passed
+ * to pdflatex and escapes it into the TikZ system call if the cache is
+ * enabled. Later builds reuse the plan of the first one, which only has to
+ * be validated against the attributes.
+ *
+ * @author Lekse
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PreambleBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private Path root;
+
+    private TypesetTask task;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("preamble");
+        File document = Files.write(this.root.resolve("slides.tex"), "\\begin{document}\\end{document}".getBytes("UTF-8")).toFile();
+        File cachedir = Files.createDirectories(this.root.resolve("cache")).toFile();
+
+        Project project = new Project();
+        project.init();
+        project.setBaseDir(this.root.toFile());
+
+        this.task = new TypesetTask();
+        this.task.setProject(project);
+        this.task.setDocument(document);
+        this.task.setDocumentclass("beamer");
+        this.task.setDocumentattributes("t,10pt");
+        this.task.setLanguage("ngerman");
+        this.task.setCache(this.cache);
+        this.task.setCachedir(cachedir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(this.root.resolve("slides.tex"));
+        Files.delete(this.root.resolve("cache"));
+        Files.delete(this.root);
+    }
+
+    @Benchmark
+    public BuildPlan createBuildPlan() {
+        return this.task.createBuildPlan();
+    }
+
+    @Benchmark
+    public BuildPlan getBuildPlan() {
+        return this.task.getBuildPlan();
+    }
+
+}
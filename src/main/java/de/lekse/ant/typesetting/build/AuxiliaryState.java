@@ -0,0 +1,82 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the auxiliary files written by a pdflatex pass. Comparing the
+ * snapshots taken before and after a pass tells whether cross-references,
+ * tables of contents or navigation data are still settling and another pass
+ * is required.
+ *
+ * @author Lekse
+ */
+public class AuxiliaryState {
+
+    /**
+     * Extensions of the auxiliary files which are read back by the next pass.
+     */
+    public static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList(".aux", ".toc", ".nav", ".snm", ".out"));
+
+    /**
+     * Fingerprints of the auxiliary files ordered by their extension.
+     */
+    private final Map<String,String> fingerprints;
+
+    private AuxiliaryState(Map<String,String> fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Captures the current state of the auxiliary files of a job.
+     *
+     * @param dir Directory in which the auxiliary files are written
+     * @param jobname Job name of the document
+     * @return Captured state
+     */
+    public static AuxiliaryState capture(File dir, String jobname) {
+        Map<String,String> fingerprints = new TreeMap<>();
+
+        for (String extension : EXTENSIONS) {
+            fingerprints.put(extension, Fingerprint.of(new File(dir, jobname.concat(extension))));
+        }
+
+        return new AuxiliaryState(fingerprints);
+    }
+
+    /**
+     * Determines whether none of the auxiliary files exists, e.g. before the
+     * first build of a document.
+     */
+    public boolean isEmpty() {
+        for (String fingerprint : this.fingerprints.values()) {
+            if (!fingerprint.equals(Fingerprint.MISSING)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Determines the auxiliary file which differs from a previous state.
+     *
+     * @param previous Previous state
+     * @return Extension of the first changed auxiliary file or null if the
+     *         states are identical
+     */
+    public String findChange(AuxiliaryState previous) {
+        for (Map.Entry<String,String> entry : this.fingerprints.entrySet()) {
+            if (!entry.getValue().equals(previous.fingerprints.get(entry.getKey()))) {
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,399 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Program processing a file written by pdflatex into a file which is read by
+ * the next pass, e.g. bibtex turning the citations of the .aux file into the
+ * bibliography of the .bbl file. A tool is needed as soon as pdflatex writes
+ * the requests for it, and it only has to run again if the fingerprint of its
+ * inputs differs from the one of its last run.
+ *
+ * @author Lekse
+ */
+public abstract class AuxiliaryTool {
+
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /**
+     * Processes the citations and bibliography databases of the .aux file.
+     */
+    public static final AuxiliaryTool BIBTEX = new Bibtex();
+
+    /**
+     * Processes the control file written by biblatex.
+     */
+    public static final AuxiliaryTool BIBER = new Biber();
+
+    /**
+     * Sorts the entries of the .idx file into the index.
+     */
+    public static final AuxiliaryTool MAKEINDEX = new Makeindex();
+
+    /**
+     * All tools in the order in which they are run.
+     */
+    public static final List<AuxiliaryTool> TOOLS = Collections.unmodifiableList(Arrays.asList(BIBTEX, BIBER, MAKEINDEX));
+
+    private final String name;
+
+    private final String outputExtension;
+
+    private final String logExtension;
+
+    private AuxiliaryTool(String name, String outputExtension, String logExtension) {
+        this.name = name;
+        this.outputExtension = outputExtension;
+        this.logExtension = logExtension;
+    }
+
+    /**
+     * @return Name of the tool, which is also its default executable
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Extension of the file written by the tool and read by pdflatex
+     */
+    public String getOutputExtension() {
+        return outputExtension;
+    }
+
+    /**
+     * @return Extension of the log written by the tool
+     */
+    public String getLogExtension() {
+        return logExtension;
+    }
+
+    /**
+     * Determines whether the last pass requested the tool.
+     *
+     * @param dir Output directory of the job
+     * @param jobname Job name of the document
+     */
+    public abstract boolean isNeeded(File dir, String jobname);
+
+    /**
+     * Collects the requests of the document, which decide on the output of
+     * the tool together with the input files.
+     */
+    protected abstract List<String> readRequests(File dir, String jobname);
+
+    /**
+     * Determines the files read by the tool in addition to the requests,
+     * e.g. the bibliography databases.
+     *
+     * @param dir Output directory of the job
+     * @param jobname Job name of the document
+     * @param searchDirs Directories in which the files are searched
+     * @return Existing input files
+     */
+    public abstract Set<File> findInputs(File dir, String jobname, Collection<File> searchDirs);
+
+    /**
+     * Creates the command line of the tool.
+     *
+     * @param executable Executable of the tool
+     * @param jobname Job name of the document
+     * @param dir Output directory of the job
+     */
+    public abstract List<String> createCommand(String executable, String jobname, File dir);
+
+    /**
+     * Determines whether the tool is run in the output directory of the job
+     * instead of the working directory of pdflatex.
+     */
+    public abstract boolean isRunInOutputDirectory();
+
+    /**
+     * Creates the environment variables telling the tool where to search its
+     * inputs.
+     *
+     * @param searchPath Search path in the syntax of TEXINPUTS
+     */
+    public abstract Map<String,String> createEnvironment(String searchPath);
+
+    /**
+     * Determines whether an exit code signals a usable output. Defaults to
+     * exit code 0.
+     */
+    public boolean isSuccessful(int exitCode) {
+        return exitCode == 0;
+    }
+
+    /**
+     * Computes the fingerprint of everything the output of the tool depends
+     * on.
+     *
+     * @param dir Output directory of the job
+     * @param jobname Job name of the document
+     * @param searchDirs Directories in which the input files are searched
+     * @return Hexadecimal fingerprint
+     */
+    public String fingerprint(File dir, String jobname, Collection<File> searchDirs) {
+        StringBuilder inputs = new StringBuilder();
+
+        for (String request : this.readRequests(dir, jobname)) {
+            inputs.append(request).append('\n');
+        }
+
+        for (File input : this.findInputs(dir, jobname, searchDirs)) {
+            inputs.append(input.getAbsolutePath()).append('=').append(Fingerprint.of(input)).append('\n');
+        }
+
+        return Fingerprint.of(inputs.toString());
+    }
+
+    private static String read(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), CHARSET);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Finds a file in the search directories.
+     *
+     * @return Existing file or null if none of the directories contains it
+     */
+    private static File find(String name, Collection<File> searchDirs) {
+        File file = new File(name);
+
+        if (file.isAbsolute()) {
+            return file.isFile() ? file : null;
+        }
+
+        for (File dir : searchDirs) {
+            file = new File(dir, name);
+
+            if (file.isFile()) {
+                return file.getAbsoluteFile();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs bibtex on the .aux file, which lists the cited keys, the
+     * bibliography style and the databases. Citations of included files are
+     * written to their own .aux files.
+     */
+    private static class Bibtex extends AuxiliaryTool {
+
+        private static final Pattern REQUEST_PATTERN = Pattern.compile("\\\\(citation|bibdata|bibstyle)\\{([^}]*)\\}");
+
+        private static final Pattern INCLUDE_PATTERN = Pattern.compile("\\\\@input\\{([^}]+)\\}");
+
+        private static final String BIBDATA = "\\bibdata{";
+
+        Bibtex() {
+            super("bibtex", ".bbl", ".blg");
+        }
+
+        @Override
+        public boolean isNeeded(File dir, String jobname) {
+            return read(new File(dir, jobname.concat(".aux"))).contains(BIBDATA);
+        }
+
+        /**
+         * Reads an .aux file and the .aux files of included documents.
+         */
+        private static void readAux(File dir, File aux, Set<File> visited, List<String> requests) {
+            if (!visited.add(aux.getAbsoluteFile())) {
+                return;
+            }
+
+            String text = read(aux);
+            Matcher matcher = REQUEST_PATTERN.matcher(text);
+
+            while (matcher.find()) {
+                requests.add(matcher.group());
+            }
+
+            Matcher includes = INCLUDE_PATTERN.matcher(text);
+
+            while (includes.find()) {
+                readAux(dir, new File(dir, includes.group(1)), visited, requests);
+            }
+        }
+
+        @Override
+        protected List<String> readRequests(File dir, String jobname) {
+            List<String> requests = new ArrayList<>();
+            readAux(dir, new File(dir, jobname.concat(".aux")), new LinkedHashSet<File>(), requests);
+
+            return requests;
+        }
+
+        @Override
+        public Set<File> findInputs(File dir, String jobname, Collection<File> searchDirs) {
+            Set<File> inputs = new LinkedHashSet<>();
+
+            for (String request : this.readRequests(dir, jobname)) {
+                Matcher matcher = REQUEST_PATTERN.matcher(request);
+
+                if (!matcher.matches() || matcher.group(1).equals("citation")) {
+                    continue;
+                }
+
+                // Databases and styles of the document, those of the distribution are not found
+                String extension = matcher.group(1).equals("bibdata") ? ".bib" : ".bst";
+
+                for (String name : matcher.group(2).split(",")) {
+                    name = name.trim();
+                    File input = find(name.endsWith(extension) ? name : name.concat(extension), searchDirs);
+
+                    if (input != null) {
+                        inputs.add(input);
+                    }
+                }
+            }
+
+            return inputs;
+        }
+
+        @Override
+        public List<String> createCommand(String executable, String jobname, File dir) {
+            return Arrays.asList(executable, jobname);
+        }
+
+        @Override
+        public boolean isRunInOutputDirectory() {
+            // Paranoid TeX installations do not allow bibtex to write to other directories
+            return true;
+        }
+
+        @Override
+        public Map<String,String> createEnvironment(String searchPath) {
+            Map<String,String> environment = new HashMap<>();
+            environment.put("BIBINPUTS", searchPath);
+            environment.put("BSTINPUTS", searchPath);
+
+            return environment;
+        }
+
+        @Override
+        public boolean isSuccessful(int exitCode) {
+            // Exit code 1 signals warnings, e.g. undefined citations
+            return exitCode <= 1;
+        }
+
+    }
+
+    /**
+     * Runs biber on the control file written by biblatex, which contains the
+     * cited keys, the options and the data sources.
+     */
+    private static class Biber extends AuxiliaryTool {
+
+        private static final Pattern DATASOURCE_PATTERN = Pattern.compile("<bcf:datasource[^>]*>([^<]+)</bcf:datasource>");
+
+        Biber() {
+            super("biber", ".bbl", ".blg");
+        }
+
+        @Override
+        public boolean isNeeded(File dir, String jobname) {
+            return new File(dir, jobname.concat(".bcf")).isFile();
+        }
+
+        @Override
+        protected List<String> readRequests(File dir, String jobname) {
+            return Collections.singletonList(read(new File(dir, jobname.concat(".bcf"))));
+        }
+
+        @Override
+        public Set<File> findInputs(File dir, String jobname, Collection<File> searchDirs) {
+            Set<File> inputs = new LinkedHashSet<>();
+            Matcher matcher = DATASOURCE_PATTERN.matcher(read(new File(dir, jobname.concat(".bcf"))));
+
+            while (matcher.find()) {
+                File input = find(matcher.group(1).trim(), searchDirs);
+
+                if (input != null) {
+                    inputs.add(input);
+                }
+            }
+
+            return inputs;
+        }
+
+        @Override
+        public List<String> createCommand(String executable, String jobname, File dir) {
+            return Arrays.asList(executable, "--output-directory", dir.getAbsolutePath(), jobname);
+        }
+
+        @Override
+        public boolean isRunInOutputDirectory() {
+            // Data sources are given relative to the document
+            return false;
+        }
+
+        @Override
+        public Map<String,String> createEnvironment(String searchPath) {
+            return Collections.emptyMap();
+        }
+
+    }
+
+    /**
+     * Runs makeindex on the index entries of the .idx file.
+     */
+    private static class Makeindex extends AuxiliaryTool {
+
+        Makeindex() {
+            super("makeindex", ".ind", ".ilg");
+        }
+
+        @Override
+        public boolean isNeeded(File dir, String jobname) {
+            return new File(dir, jobname.concat(".idx")).isFile();
+        }
+
+        @Override
+        protected List<String> readRequests(File dir, String jobname) {
+            return Collections.singletonList(read(new File(dir, jobname.concat(".idx"))));
+        }
+
+        @Override
+        public Set<File> findInputs(File dir, String jobname, Collection<File> searchDirs) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public List<String> createCommand(String executable, String jobname, File dir) {
+            return Arrays.asList(executable, jobname.concat(".idx"));
+        }
+
+        @Override
+        public boolean isRunInOutputDirectory() {
+            return true;
+        }
+
+        @Override
+        public Map<String,String> createEnvironment(String searchPath) {
+            return Collections.singletonMap("INDEXSTYLE", searchPath);
+        }
+
+    }
+
+}
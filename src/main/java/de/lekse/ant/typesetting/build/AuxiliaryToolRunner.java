@@ -0,0 +1,186 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs the auxiliary tools requested by the last pass of a job. A tool is
+ * skipped if its output exists and the fingerprint of its inputs equals the
+ * one of its last successful run, which is kept in a state file next to the
+ * output.
+ *
+ * @author Lekse
+ */
+public class AuxiliaryToolRunner {
+
+    /**
+     * Runs a single tool on behalf of the runner.
+     */
+    public interface Executor {
+
+        /**
+         * Runs a tool once.
+         *
+         * @param tool Tool to run
+         * @param command Command line of the tool
+         * @param environment Environment variables of the tool
+         * @return True if the tool has written a usable output
+         */
+        boolean execute(AuxiliaryTool tool, List<String> command, Map<String,String> environment);
+
+    }
+
+    private final File dir;
+
+    private final String jobname;
+
+    private final Collection<File> searchDirs;
+
+    private final String searchPath;
+
+    private final Map<AuxiliaryTool,String> executables;
+
+    /**
+     * Fingerprints of the inputs of the last successful runs by the name of
+     * the tool.
+     */
+    private final Properties fingerprints;
+
+    private final List<AuxiliaryTool> skipped;
+
+    private int runs;
+
+    /**
+     * @param dir Output directory of the job
+     * @param jobname Job name of the document
+     * @param searchDirs Directories in which the input files are searched
+     * @param searchPath Search path passed to the tools in the syntax of
+     *                   TEXINPUTS
+     * @param executables Executables of the tools
+     */
+    public AuxiliaryToolRunner(File dir, String jobname, Collection<File> searchDirs, String searchPath, Map<AuxiliaryTool,String> executables) {
+        this.dir = dir;
+        this.jobname = jobname;
+        this.searchDirs = searchDirs;
+        this.searchPath = searchPath;
+        this.executables = executables;
+        this.fingerprints = new Properties();
+        this.skipped = new ArrayList<>();
+        this.runs = 0;
+    }
+
+    /**
+     * Determines the files read by the tools needed by a job, e.g. the
+     * bibliography databases.
+     *
+     * @param dir Output directory of the job
+     * @param jobname Job name of the document
+     * @param searchDirs Directories in which the files are searched
+     */
+    public static Set<File> findInputs(File dir, String jobname, Collection<File> searchDirs) {
+        Set<File> inputs = new TreeSet<>();
+
+        for (AuxiliaryTool tool : AuxiliaryTool.TOOLS) {
+            if (tool.isNeeded(dir, jobname)) {
+                inputs.addAll(tool.findInputs(dir, jobname, searchDirs));
+            }
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Loads the fingerprints of the last runs. Without a readable state file
+     * every needed tool runs again.
+     */
+    public void load(File stateFile) {
+        if (!stateFile.isFile()) {
+            return;
+        }
+
+        try (InputStream in = new FileInputStream(stateFile)) {
+            this.fingerprints.load(in);
+        } catch (IOException e) {
+            this.fingerprints.clear();
+        }
+    }
+
+    /**
+     * Stores the fingerprints of the last successful runs.
+     */
+    public void store(File stateFile) throws IOException {
+        try (OutputStream out = new FileOutputStream(stateFile)) {
+            this.fingerprints.store(out, null);
+        }
+    }
+
+    /**
+     * Runs the needed tools whose inputs have been changed since their last
+     * successful run.
+     *
+     * @param executor Executor running the tools
+     * @param metrics Metrics to which the runs are added
+     * @return True if the output of a tool has been changed, hence pdflatex
+     *         has to run again
+     */
+    public boolean run(Executor executor, BuildMetrics metrics) {
+        boolean outputChanged = false;
+
+        for (AuxiliaryTool tool : AuxiliaryTool.TOOLS) {
+            if (!tool.isNeeded(this.dir, this.jobname)) {
+                continue;
+            }
+
+            String fingerprint = tool.fingerprint(this.dir, this.jobname, this.searchDirs);
+            File outputFile = new File(this.dir, this.jobname.concat(tool.getOutputExtension()));
+
+            if (outputFile.isFile() && fingerprint.equals(this.fingerprints.getProperty(tool.getName()))) {
+                this.skipped.add(tool);
+                continue;
+            }
+
+            String previousOutput = Fingerprint.of(outputFile);
+            List<String> command = tool.createCommand(this.executables.get(tool), this.jobname, this.dir.getAbsoluteFile());
+            this.runs++;
+            metrics.addToolRun();
+
+            if (!executor.execute(tool, command, tool.createEnvironment(this.searchPath))) {
+                this.fingerprints.remove(tool.getName());
+                continue;
+            }
+
+            this.fingerprints.setProperty(tool.getName(), fingerprint);
+            outputChanged = outputChanged || !Fingerprint.of(outputFile).equals(previousOutput);
+        }
+
+        return outputChanged;
+    }
+
+    /**
+     * @return Tools which have been skipped as their inputs have not been
+     *         changed
+     */
+    public List<AuxiliaryTool> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * @return Number of tools which have been run
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outputs of a job as they are exchanged with the artifact store. Stored
+ * files are named relative to the output and working directory of the job,
+ * and the key of the artifacts refers to the working directory by a
+ * placeholder, so that checkouts in different locations share artifacts.
+ *
+ * @author Lekse
+ */
+public class BuildArtifacts {
+
+    private static final String OUTPUT_ROOT = "output";
+
+    private static final String WORKING_ROOT = "work";
+
+    private static final String WORKING_PLACEHOLDER = "${basedir}";
+
+    private final File outputDir;
+
+    private final File workingDir;
+
+    /**
+     * @param outputDir Output directory of the job
+     * @param workingDir Working directory of pdflatex
+     */
+    public BuildArtifacts(File outputDir, File workingDir) {
+        this.outputDir = outputDir.getAbsoluteFile();
+        this.workingDir = workingDir.getAbsoluteFile();
+    }
+
+    /**
+     * Replaces the working directory in a value, so that the keys of stored
+     * artifacts do not depend on the location of the checkout.
+     */
+    private String relativize(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        return value.replace(this.workingDir.getPath(), WORKING_PLACEHOLDER);
+    }
+
+    /**
+     * Creates the key under which the artifacts of a job are stored.
+     *
+     * @param engine Name and version of the compiler
+     * @param jobname Job name of the document
+     * @param values Values affecting the build by their name, e.g. the
+     *               preamble, in which the working directory is replaced
+     * @param manifest Manifest of the current inputs
+     * @return Hexadecimal key
+     */
+    public String createKey(String engine, String jobname, Map<String,String> values, BuildManifest manifest) {
+        Path workingPath = this.workingDir.toPath();
+        StringBuilder key = new StringBuilder();
+
+        key.append(String.format("engine=%1$s%n", engine));
+        key.append(String.format("jobname=%1$s%n", jobname));
+
+        for (Map.Entry<String,String> value : values.entrySet()) {
+            key.append(String.format("%1$s=%2$s%n", value.getKey(), this.relativize(value.getValue())));
+        }
+
+        // Inputs of the checkout by their relative path, files of the distribution by their absolute path
+        for (Map.Entry<File,String> input : manifest.getInputs().entrySet()) {
+            Path inputPath = input.getKey().toPath();
+            String name = inputPath.startsWith(workingPath) ? workingPath.relativize(inputPath).toString().replaceAll("\\\\", "/") : inputPath.toString();
+
+            key.append(String.format("input=%1$s;%2$s%n", name, input.getValue()));
+        }
+
+        return Fingerprint.of(key.toString());
+    }
+
+    /**
+     * Determines the directories to which stored artifacts are restored by
+     * the name under which they are stored.
+     */
+    public Map<String,File> getRoots() {
+        Map<String,File> roots = new HashMap<>();
+        roots.put(OUTPUT_ROOT, this.outputDir);
+        roots.put(WORKING_ROOT, this.workingDir);
+
+        return roots;
+    }
+
+    private static boolean hasExtension(String name, Collection<String> extensions) {
+        for (String extension : extensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Selects the outputs of a build which are stored as artifacts.
+     *
+     * @param manifest Manifest of the build including its outputs
+     * @param excluded Outputs which are not stored
+     * @param excludedExtensions Extensions of outputs which are not stored,
+     *                           e.g. as they refer to the checkout by absolute
+     *                           paths
+     * @return Existing files by their name in the artifact store
+     */
+    public Map<String,File> selectFiles(BuildManifest manifest, Collection<File> excluded, Collection<String> excludedExtensions) {
+        Map<String,File> files = new TreeMap<>();
+
+        for (File output : manifest.getOutputs().keySet()) {
+            if (excluded.contains(output) || hasExtension(output.getName(), excludedExtensions) || !output.isFile()) {
+                continue;
+            }
+
+            for (Map.Entry<String,File> root : this.getRoots().entrySet()) {
+                Path rootPath = root.getValue().toPath();
+
+                if (output.toPath().startsWith(rootPath)) {
+                    files.put(String.format("%1$s/%2$s", root.getKey(), rootPath.relativize(output.toPath()).toString().replaceAll("\\\\", "/")), output);
+                    break;
+                }
+            }
+        }
+
+        return files;
+    }
+
+}
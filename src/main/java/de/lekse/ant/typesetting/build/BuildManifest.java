@@ -0,0 +1,249 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Records the fingerprints of everything a build of a document depends on.
+ * The manifest of the last successful build is persisted next to the output
+ * and compared against the manifest of the current state in order to decide
+ * whether the document has to be compiled again. The manifest also lists the
+ * files written by the build together with their kind, which allows cleaning
+ * them selectively without compiling the document again.
+ *
+ * @author Lekse
+ */
+public class BuildManifest {
+
+    /**
+     * Extension of the manifest files, which are named after the job.
+     */
+    public static final String EXTENSION = ".manifest";
+
+    private static final String INPUT_PREFIX = "input.";
+
+    private static final String OUTPUT_PREFIX = "output.";
+
+    /**
+     * Kind of intermediate files only needed while compiling, e.g. .aux
+     * and .log files.
+     */
+    public static final String OUTPUT_AUXILIARY = "auxiliary";
+
+    /**
+     * Kind of files reused by later builds, e.g. externalized figures and
+     * precompiled formats.
+     */
+    public static final String OUTPUT_CACHE = "cache";
+
+    /**
+     * Kind of the final document.
+     */
+    public static final String OUTPUT_PRODUCT = "product";
+
+    private static final String COMMENT = "ant-typesetting build manifest";
+
+    /**
+     * Fingerprints of the build inputs ordered by their key.
+     */
+    private final Map<String,String> entries;
+
+    public BuildManifest() {
+        this.entries = new TreeMap<>();
+    }
+
+    /**
+     * Loads a manifest from a file.
+     *
+     * @param file Manifest file
+     * @return Loaded manifest or null if the file does not exist or cannot be
+     *         read
+     */
+    public static BuildManifest load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+
+        BuildManifest manifest = new BuildManifest();
+
+        for (String key : properties.stringPropertyNames()) {
+            manifest.entries.put(key, properties.getProperty(key));
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest in a file.
+     *
+     * @param file Manifest file
+     * @throws IOException
+     */
+    public void store(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(this.entries);
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, COMMENT);
+        }
+    }
+
+    /**
+     * Records the fingerprint of an arbitrary value, e.g. an attribute of the
+     * task or the generated preamble.
+     *
+     * @param key Name of the value
+     * @param value Value to fingerprint
+     */
+    public void putValue(String key, String value) {
+        this.entries.put(key, Fingerprint.of(value));
+    }
+
+    /**
+     * Records the fingerprint of an input file.
+     *
+     * @param file Input file
+     */
+    public void putInput(File file) {
+        this.entries.put(INPUT_PREFIX.concat(file.getAbsolutePath()), Fingerprint.of(file));
+    }
+
+    /**
+     * Records the fingerprint of an input file, reusing the fingerprint of a
+     * manifest recorded earlier if it contains the file.
+     *
+     * @param file Input file
+     * @param recorded Manifest recorded earlier
+     */
+    public void putInput(File file, BuildManifest recorded) {
+        String key = INPUT_PREFIX.concat(file.getAbsolutePath());
+        String fingerprint = recorded.entries.get(key);
+
+        this.entries.put(key, fingerprint != null ? fingerprint : Fingerprint.of(file));
+    }
+
+    /**
+     * Determines the input files recorded in the manifest.
+     *
+     * @return Fingerprint of every input file
+     */
+    public Map<File,String> getInputs() {
+        Map<File,String> inputs = new TreeMap<>();
+
+        for (Map.Entry<String,String> entry : this.entries.entrySet()) {
+            if (entry.getKey().startsWith(INPUT_PREFIX)) {
+                inputs.put(new File(entry.getKey().substring(INPUT_PREFIX.length())), entry.getValue());
+            }
+        }
+
+        return Collections.unmodifiableMap(inputs);
+    }
+
+    /**
+     * Records a file written by the build. Outputs do not take part in the
+     * comparison of manifests.
+     *
+     * @param file Output file
+     * @param kind One of {@link #OUTPUT_AUXILIARY}, {@link #OUTPUT_CACHE}
+     *             and {@link #OUTPUT_PRODUCT}
+     */
+    public void putOutput(File file, String kind) {
+        this.entries.put(OUTPUT_PREFIX.concat(file.getAbsolutePath()), kind);
+    }
+
+    /**
+     * Determines the files recorded as outputs of the build.
+     *
+     * @return Kind of every output file
+     */
+    public Map<File,String> getOutputs() {
+        Map<File,String> outputs = new TreeMap<>();
+
+        for (Map.Entry<String,String> entry : this.entries.entrySet()) {
+            if (entry.getKey().startsWith(OUTPUT_PREFIX)) {
+                outputs.put(new File(entry.getKey().substring(OUTPUT_PREFIX.length())), entry.getValue());
+            }
+        }
+
+        return Collections.unmodifiableMap(outputs);
+    }
+
+    /**
+     * Determines the number of input files recorded in the manifest.
+     *
+     * @return Number of input files
+     */
+    public int getInputCount() {
+        int count = 0;
+
+        for (String key : this.entries.keySet()) {
+            if (key.startsWith(INPUT_PREFIX)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Compares the manifest with the manifest of a previous build.
+     *
+     * @param previous Manifest of the previous build, may be null
+     * @return Human readable description of the first detected change or null
+     *         if both manifests are identical
+     */
+    public String findChange(BuildManifest previous) {
+        if (previous == null) {
+            return "no previous build has been recorded";
+        }
+
+        for (Map.Entry<String,String> entry : this.entries.entrySet()) {
+            String key = entry.getKey();
+
+            if (key.startsWith(OUTPUT_PREFIX)) {
+                continue;
+            }
+
+            String previousValue = previous.entries.get(key);
+
+            if (previousValue == null) {
+                return key.startsWith(INPUT_PREFIX)
+                        ? String.format("%1$s is a new input", key.substring(INPUT_PREFIX.length()))
+                        : String.format("%1$s has not been recorded", key);
+            }
+
+            if (!previousValue.equals(entry.getValue())) {
+                return key.startsWith(INPUT_PREFIX)
+                        ? String.format("%1$s has been changed", key.substring(INPUT_PREFIX.length()))
+                        : String.format("%1$s has been changed", key);
+            }
+        }
+
+        for (String key : previous.entries.keySet()) {
+            if (!key.startsWith(OUTPUT_PREFIX) && !this.entries.containsKey(key)) {
+                return key.startsWith(INPUT_PREFIX)
+                        ? String.format("%1$s is no longer an input", key.substring(INPUT_PREFIX.length()))
+                        : String.format("%1$s is no longer recorded", key);
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,313 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and cache statistics of a single build of a document. The metrics
+ * are published as name value pairs and appended to a report, either as a
+ * JSON object per line or, for files ending with .csv, as comma separated
+ * values. Times are given in milliseconds, a CPU time of -1 denotes that it
+ * is not available on this platform or could not be attributed to the pass,
+ * as other processes have been running at the same time.
+ *
+ * @author Lekse
+ */
+public class BuildMetrics {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final String CSV_EXTENSION = ".csv";
+
+    /**
+     * Reports may be shared by the documents of a parallel build.
+     */
+    private static final Object REPORT_LOCK = new Object();
+
+    private final String document;
+
+    private final String jobname;
+
+    private final long timestamp;
+
+    private final long startTime;
+
+    private long wallNanos;
+
+    private long preambleNanos;
+
+    private long spawnNanos;
+
+    private final List<Long> passWallNanos;
+
+    private final List<Long> passCpuMillis;
+
+    private int draftPasses;
+
+    private int toolRuns;
+
+    private int figuresCompiled;
+
+    private int figuresReused;
+
+    private int figuresEvicted;
+
+    private boolean upToDate;
+
+    private boolean preview;
+
+    /**
+     * Starts measuring a build.
+     *
+     * @param document Absolute path of the document
+     * @param jobname Job name of the document
+     */
+    public BuildMetrics(String document, String jobname) {
+        this.document = document;
+        this.jobname = jobname;
+        this.timestamp = System.currentTimeMillis();
+        this.startTime = System.nanoTime();
+        this.passWallNanos = new ArrayList<>();
+        this.passCpuMillis = new ArrayList<>();
+    }
+
+    public void setPreambleNanos(long preambleNanos) {
+        this.preambleNanos = preambleNanos;
+    }
+
+    /**
+     * Records a pass of the compiler.
+     *
+     * @param wallNanos Wall time of the pass
+     * @param spawnNanos Time needed to spawn the compiler, 0 for a compiler
+     *                   spawned in advance
+     * @param cpuMillis CPU time of the compiler or -1 if not available
+     */
+    public void addPass(long wallNanos, long spawnNanos, long cpuMillis) {
+        this.passWallNanos.add(wallNanos);
+        this.passCpuMillis.add(cpuMillis);
+        this.spawnNanos += spawnNanos;
+    }
+
+    /**
+     * Records that the last pass has been run in draft mode, hence has not
+     * written the document.
+     */
+    public void addDraftPass() {
+        this.draftPasses++;
+    }
+
+    /**
+     * Records a run of bibtex, biber or makeindex.
+     */
+    public void addToolRun() {
+        this.toolRuns++;
+    }
+
+    /**
+     * Records the externalized figures of the build.
+     *
+     * @param compiled Number of figures compiled by the build
+     * @param reused Number of figures taken from the cache
+     */
+    public void setFigures(int compiled, int reused) {
+        this.figuresCompiled = compiled;
+        this.figuresReused = reused;
+    }
+
+    /**
+     * Records the figures evicted from the cache after the build.
+     *
+     * @param evicted Number of evicted figures
+     */
+    public void setFiguresEvicted(int evicted) {
+        this.figuresEvicted = evicted;
+    }
+
+    public void setUpToDate(boolean upToDate) {
+        this.upToDate = upToDate;
+    }
+
+    /**
+     * Records whether the build has only compiled the changed units of the
+     * document.
+     */
+    public void setPreview(boolean preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * Stops measuring the build.
+     */
+    public void finish() {
+        this.wallNanos = System.nanoTime() - this.startTime;
+    }
+
+    public String getJobname() {
+        return jobname;
+    }
+
+    public int getPasses() {
+        return this.passWallNanos.size();
+    }
+
+    public long getWallMillis() {
+        return toMillis(this.wallNanos);
+    }
+
+    /**
+     * @return CPU time of all passes or -1 if not available
+     */
+    public long getCpuMillis() {
+        long cpuMillis = 0;
+
+        for (long passCpu : this.passCpuMillis) {
+            if (passCpu < 0) {
+                return -1;
+            }
+
+            cpuMillis += passCpu;
+        }
+
+        return cpuMillis;
+    }
+
+    private long getPassMillis() {
+        long passNanos = 0;
+
+        for (long passWall : this.passWallNanos) {
+            passNanos += passWall;
+        }
+
+        return toMillis(passNanos);
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Returns the scalar metrics in the order of the report columns.
+     */
+    public Map<String,String> toMap() {
+        Map<String,String> metrics = new LinkedHashMap<>();
+
+        metrics.put("timestamp", Long.toString(this.timestamp));
+        metrics.put("document", this.document);
+        metrics.put("jobname", this.jobname);
+        metrics.put("uptodate", Boolean.toString(this.upToDate));
+        metrics.put("time", Long.toString(this.getWallMillis()));
+        metrics.put("preamble.time", Long.toString(toMillis(this.preambleNanos)));
+        metrics.put("spawn.time", Long.toString(toMillis(this.spawnNanos)));
+        metrics.put("passes", Integer.toString(this.getPasses()));
+        metrics.put("passes.draft", Integer.toString(this.draftPasses));
+        metrics.put("tools", Integer.toString(this.toolRuns));
+        metrics.put("preview", Boolean.toString(this.preview));
+        metrics.put("pass.time", Long.toString(this.getPassMillis()));
+        metrics.put("cpu.time", Long.toString(this.getCpuMillis()));
+        metrics.put("figures.compiled", Integer.toString(this.figuresCompiled));
+        metrics.put("figures.reused", Integer.toString(this.figuresReused));
+        metrics.put("figures.evicted", Integer.toString(this.figuresEvicted));
+
+        return metrics;
+    }
+
+    /**
+     * Formats the metrics as a JSON object including the times of every pass.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+
+        for (Map.Entry<String,String> entry : this.toMap().entrySet()) {
+            boolean text = entry.getKey().equals("document") || entry.getKey().equals("jobname");
+
+            json.append(String.format("\"%1$s\":%2$s,", entry.getKey(), text ? quote(entry.getValue()) : entry.getValue()));
+        }
+
+        json.append("\"pass.times\":[");
+
+        for (int i = 0; i < this.passWallNanos.size(); i++) {
+            json.append(String.format("%1$s{\"time\":%2$d,\"cpu.time\":%3$d}", i > 0 ? "," : "", toMillis(this.passWallNanos.get(i)), this.passCpuMillis.get(i)));
+        }
+
+        return json.append("]}").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                quoted.append(String.format("\\u%1$04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Formats the scalar metrics as a line of comma separated values.
+     *
+     * @param header If true, the names of the metrics are formatted instead
+     */
+    public String toCsv(boolean header) {
+        StringBuilder csv = new StringBuilder();
+
+        for (Map.Entry<String,String> entry : this.toMap().entrySet()) {
+            String value = header ? entry.getKey() : entry.getValue();
+
+            if (csv.length() > 0) {
+                csv.append(',');
+            }
+
+            // Quote values containing separators
+            if (value.contains(",") || value.contains("\"")) {
+                value = String.format("\"%1$s\"", value.replace("\"", "\"\""));
+            }
+
+            csv.append(value);
+        }
+
+        return csv.toString();
+    }
+
+    /**
+     * Appends the metrics to a report. A new CSV report starts with a header.
+     *
+     * @param report JSON lines or CSV report
+     * @throws IOException
+     */
+    public void appendTo(File report) throws IOException {
+        boolean csv = report.getName().toLowerCase().endsWith(CSV_EXTENSION);
+
+        synchronized (REPORT_LOCK) {
+            boolean empty = report.length() == 0;
+
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(report, true), CHARSET)) {
+                if (csv && empty) {
+                    writer.write(this.toCsv(true));
+                    writer.write('\n');
+                }
+
+                writer.write(csv ? this.toCsv(false) : this.toJson());
+                writer.write('\n');
+            }
+        }
+    }
+
+}
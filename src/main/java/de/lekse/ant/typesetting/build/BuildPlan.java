@@ -0,0 +1,150 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a build derives from the attributes of its task alone: the
+ * preamble passed to pdflatex, the arguments and the environment of its
+ * invocations. A plan is immutable, hence it is created once and reused by
+ * every pass and every build of continuous mode until the key of the
+ * attributes it has been created from changes.
+ *
+ * @author Lekse
+ */
+public class BuildPlan {
+
+    private final String key;
+
+    private final String jobname;
+
+    private final String staticPreamble;
+
+    private final String preamble;
+
+    private final String inputCommand;
+
+    private final String texInputs;
+
+    private final String compiler;
+
+    private final List<String> arguments;
+
+    private final Map<String,String> environment;
+
+    private final Map<String,String> formatEnvironment;
+
+    /**
+     * Creates a plan.
+     *
+     * @param key Description of the attributes the plan has been created from
+     * @param jobname Job name of the document
+     * @param staticPreamble Part of the preamble which can be precompiled
+     * @param preamble Complete preamble including the input command
+     * @param inputCommand Command which inputs the document, the last part of
+     *                     the preamble
+     * @param texInputs Value of the TEXINPUTS environment variable or null
+     * @param compiler Executable of the compiler
+     * @param arguments Arguments of every pass of the document
+     * @param environment Environment variables of every invocation
+     * @param formatEnvironment Environment variables added for invocations
+     *                          starting from a precompiled format
+     */
+    public BuildPlan(String key, String jobname, String staticPreamble, String preamble, String inputCommand, String texInputs, String compiler, List<String> arguments, Map<String,String> environment, Map<String,String> formatEnvironment) {
+        this.key = key;
+        this.jobname = jobname;
+        this.staticPreamble = staticPreamble;
+        this.preamble = preamble;
+        this.inputCommand = inputCommand;
+        this.texInputs = texInputs;
+        this.compiler = compiler;
+        this.arguments = Collections.unmodifiableList(new ArrayList<>(arguments));
+        this.environment = Collections.unmodifiableMap(new HashMap<>(environment));
+        this.formatEnvironment = Collections.unmodifiableMap(new HashMap<>(formatEnvironment));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getJobname() {
+        return jobname;
+    }
+
+    public String getStaticPreamble() {
+        return staticPreamble;
+    }
+
+    public String getPreamble() {
+        return preamble;
+    }
+
+    public String getInputCommand() {
+        return inputCommand;
+    }
+
+    public String getTexInputs() {
+        return texInputs;
+    }
+
+    /**
+     * Creates the command line of an invocation of the compiler, to which the
+     * arguments of the invocation are appended.
+     *
+     * @param format Name of the precompiled format or null
+     */
+    public List<String> createCommand(String format) {
+        List<String> command = new ArrayList<>();
+        command.add(this.compiler);
+
+        if (format != null) {
+            // Start from the precompiled format
+            command.add(String.format("-fmt=%1$s", format));
+        }
+
+        return command;
+    }
+
+    /**
+     * Creates the command line of a pass of the document.
+     *
+     * @param format Name of the precompiled format or null
+     * @param outputDirectory Directory to which pdflatex writes or null for
+     *                        the working directory
+     * @param draftmode If true, pdflatex does not write the PDF
+     */
+    public List<String> createCommand(String format, File outputDirectory, boolean draftmode) {
+        List<String> command = this.createCommand(format);
+        command.addAll(this.arguments);
+
+        if (outputDirectory != null) {
+            command.add(String.format("-output-directory=%1$s", outputDirectory));
+        }
+
+        if (draftmode) {
+            command.add("-draftmode");
+        }
+
+        return command;
+    }
+
+    /**
+     * Creates the environment variables of an invocation of the compiler.
+     *
+     * @param format Name of the precompiled format or null
+     */
+    public Map<String,String> createEnvironment(String format) {
+        Map<String,String> variables = new HashMap<>(this.environment);
+
+        if (format != null) {
+            variables.putAll(this.formatEnvironment);
+        }
+
+        return variables;
+    }
+
+}
@@ -0,0 +1,149 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Single-slot scheduler which runs a build on a background thread. The
+ * latest submission always wins: submitting changes while a build is running
+ * cancels it and starts a fresh build with all changes accumulated since the
+ * last completed build, instead of queueing builds behind stale results.
+ *
+ * @author Lekse
+ */
+public class BuildScheduler implements Closeable {
+
+    private final CancellableBuild build;
+
+    private final Thread worker;
+
+    /**
+     * Changes which have not been built by a completed build.
+     */
+    private final Set<Path> pending;
+
+    private boolean scheduled;
+
+    private boolean running;
+
+    private boolean cancelRequested;
+
+    private boolean closed;
+
+    /**
+     * Creates a scheduler and starts its worker thread.
+     *
+     * @param build Build to run
+     * @param name Name of the worker thread
+     */
+    public BuildScheduler(CancellableBuild build, String name) {
+        this.build = build;
+        this.pending = new LinkedHashSet<>();
+
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a build for the given changes and cancels the running build.
+     *
+     * @param changes Changed files
+     */
+    public synchronized void submit(Set<Path> changes) {
+        this.pending.addAll(changes);
+        this.scheduled = true;
+
+        if (this.running && !this.cancelRequested) {
+            this.cancelRequested = true;
+            this.build.cancel();
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Waits until no build is running or scheduled.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while ((this.running || this.scheduled) && !this.closed) {
+            this.wait();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Set<Path> changes;
+
+            // Wait for scheduled changes
+            synchronized (this) {
+                while (!this.scheduled && !this.closed) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (this.closed) {
+                    return;
+                }
+
+                changes = new LinkedHashSet<>(this.pending);
+                this.pending.clear();
+                this.scheduled = false;
+                this.running = true;
+                this.cancelRequested = false;
+                this.build.reset();
+            }
+
+            try {
+                this.build.build(changes);
+            } finally {
+                synchronized (this) {
+                    // Changes of a cancelled build are built by the next build
+                    if (this.cancelRequested) {
+                        changes.addAll(this.pending);
+                        this.pending.clear();
+                        this.pending.addAll(changes);
+                    }
+
+                    this.running = false;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the running build and stops the worker thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.closed = true;
+
+            if (this.running) {
+                this.build.cancel();
+            }
+
+            this.notifyAll();
+        }
+
+        try {
+            this.worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package de.lekse.ant.typesetting.build;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Build which is run by a {@link BuildScheduler} and can be aborted while it
+ * is running.
+ *
+ * @author Lekse
+ */
+public interface CancellableBuild {
+
+    /**
+     * Runs the build.
+     *
+     * @param changes Files which have been changed since the last completed
+     *                build
+     */
+    void build(Set<Path> changes);
+
+    /**
+     * Aborts the running build as soon as possible. Called from another
+     * thread than {@link #build(java.util.Set)}.
+     */
+    void cancel();
+
+    /**
+     * Clears the cancellation of the previous build. Called by the scheduler
+     * before it dispatches the next build, while it holds the lock which
+     * guards {@link #cancel()}, hence a cancellation requested for the next
+     * build is never lost.
+     */
+    void reset();
+
+}
@@ -0,0 +1,281 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dependency graph of a single document. The graph records the files which
+ * are read by a build (inputs) and the files which are written by it
+ * (outputs). It is either derived from the .fls file written by pdflatex when
+ * invoked with -recorder or, as a fallback, from scanning the sources for
+ * inclusion commands.
+ *
+ * @author Lekse
+ */
+public class DependencyGraph {
+
+    private static final String RECORDER_PWD = "PWD ";
+
+    private static final String RECORDER_INPUT = "INPUT ";
+
+    private static final String RECORDER_OUTPUT = "OUTPUT ";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Matches \input{...}, \include{...} and \includegraphics[...]{...}.
+     */
+    private static final Pattern INCLUSION_PATTERN = Pattern.compile("\\\\(input|include|includegraphics)\\s*(?:\\[[^\\]]*\\])?\\s*\\{([^}]+)\\}");
+
+    private static final String[] TEX_EXTENSIONS = { "", ".tex" };
+
+    private static final String[] GRAPHICS_EXTENSIONS = { "", ".pdf", ".png", ".jpg", ".jpeg", ".eps" };
+
+    /**
+     * Files read by the build.
+     */
+    private final Set<File> inputs;
+
+    /**
+     * Files written by the build.
+     */
+    private final Set<File> outputs;
+
+    public DependencyGraph() {
+        this.inputs = new TreeSet<>();
+        this.outputs = new TreeSet<>();
+    }
+
+    static File normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    static File resolve(File dir, String path) {
+        File file = new File(path);
+
+        return normalize(file.isAbsolute() ? file : new File(dir, path));
+    }
+
+    /**
+     * Parses the .fls file written by pdflatex when invoked with -recorder.
+     *
+     * @param recorderFile The .fls file
+     * @param workingDir Directory pdflatex has been executed in, used if the
+     *                   file does not record it
+     * @return Dependency graph or null if the file does not exist or cannot
+     *         be read
+     */
+    public static DependencyGraph parseRecorder(File recorderFile, File workingDir) {
+        if (!recorderFile.isFile()) {
+            return null;
+        }
+
+        DependencyGraph graph = new DependencyGraph();
+        File dir = workingDir;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(recorderFile), CHARSET))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RECORDER_PWD)) {
+                    dir = new File(line.substring(RECORDER_PWD.length()));
+                }
+                else if (line.startsWith(RECORDER_INPUT)) {
+                    graph.inputs.add(resolve(dir, line.substring(RECORDER_INPUT.length())));
+                }
+                else if (line.startsWith(RECORDER_OUTPUT)) {
+                    graph.outputs.add(resolve(dir, line.substring(RECORDER_OUTPUT.length())));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // Files which are written by the build itself (e.g. .aux) are no inputs
+        graph.inputs.removeAll(graph.outputs);
+
+        return graph;
+    }
+
+    /**
+     * Scans a document and the documents it includes for \input, \include and
+     * \includegraphics commands. This is used if no recorder file is
+     * available and therefore only covers inclusions with literal file names.
+     *
+     * @param document Document to scan
+     * @param searchDirs Directories against which relative file names are
+     *                   resolved
+     * @return Dependency graph containing the document and the files found
+     */
+    public static DependencyGraph scan(File document, Collection<File> searchDirs) {
+        DependencyGraph graph = new DependencyGraph();
+        Deque<File> pending = new ArrayDeque<>();
+        pending.add(normalize(document));
+
+        while (!pending.isEmpty()) {
+            File file = pending.poll();
+
+            if (!graph.inputs.add(file)) {
+                continue;
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = INCLUSION_PATTERN.matcher(stripComment(line));
+
+                    while (matcher.find()) {
+                        boolean graphics = matcher.group(1).equals("includegraphics");
+                        File included = find(matcher.group(2).trim(), graphics ? GRAPHICS_EXTENSIONS : TEX_EXTENSIONS, searchDirs);
+
+                        if (included == null) {
+                            continue;
+                        }
+
+                        if (graphics) {
+                            graph.inputs.add(included);
+                        }
+                        else {
+                            pending.add(included);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Unreadable files are recorded as inputs without their inclusions
+            }
+        }
+
+        return graph;
+    }
+
+    private static String stripComment(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '%' && (i == 0 || line.charAt(i - 1) != '\\')) {
+                return line.substring(0, i);
+            }
+        }
+
+        return line;
+    }
+
+    private static File find(String name, String[] extensions, Collection<File> searchDirs) {
+        for (File dir : searchDirs) {
+            for (String extension : extensions) {
+                File candidate = resolve(dir, name.concat(extension));
+
+                if (candidate.isFile()) {
+                    return candidate;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Loads a dependency graph persisted by {@link #store(java.io.File)}.
+     *
+     * @param file Dependency file
+     * @return Dependency graph or null if the file does not exist or cannot
+     *         be read
+     */
+    public static DependencyGraph load(File file) {
+        return parseRecorder(file, file.getParentFile());
+    }
+
+    /**
+     * Persists the dependency graph using the line format of the .fls file.
+     *
+     * @param file Dependency file
+     * @throws IOException
+     */
+    public void store(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET)) {
+            for (File input : this.inputs) {
+                writer.write(RECORDER_INPUT);
+                writer.write(input.getPath());
+                writer.write('\n');
+            }
+
+            for (File output : this.outputs) {
+                writer.write(RECORDER_OUTPUT);
+                writer.write(output.getPath());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of the graph which only contains inputs located below
+     * one of the given directories. This drops the files of the TeX
+     * distribution, which are read by every build but never change while
+     * editing a document.
+     *
+     * @param roots Directories containing the inputs of interest
+     * @return Restricted dependency graph
+     */
+    public DependencyGraph restrictTo(Collection<File> roots) {
+        DependencyGraph graph = new DependencyGraph();
+        graph.outputs.addAll(this.outputs);
+
+        for (File input : this.inputs) {
+            Path inputPath = input.toPath();
+
+            for (File root : roots) {
+                if (inputPath.startsWith(normalize(root).toPath())) {
+                    graph.inputs.add(input);
+                    break;
+                }
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * Creates a copy of the graph with additional inputs, e.g. the files read
+     * by the jobs of externalized figures.
+     *
+     * @param inputs Files to add as inputs
+     * @return Extended dependency graph
+     */
+    public DependencyGraph withInputs(Collection<File> inputs) {
+        DependencyGraph graph = new DependencyGraph();
+        graph.inputs.addAll(this.inputs);
+        graph.outputs.addAll(this.outputs);
+
+        for (File input : inputs) {
+            graph.inputs.add(normalize(input));
+        }
+
+        graph.inputs.removeAll(graph.outputs);
+
+        return graph;
+    }
+
+    public Set<File> getInputs() {
+        return Collections.unmodifiableSet(this.inputs);
+    }
+
+    public Set<File> getOutputs() {
+        return Collections.unmodifiableSet(this.outputs);
+    }
+
+}
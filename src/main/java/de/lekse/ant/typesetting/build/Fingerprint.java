@@ -0,0 +1,98 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes content fingerprints of files and strings which are used to
+ * detect whether the inputs of a build have changed.
+ *
+ * @author Lekse
+ */
+public final class Fingerprint {
+
+    private static final String ALGORITHM = "SHA-1";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Fingerprint used for files which do not exist.
+     */
+    public static final String MISSING = "missing";
+
+    private Fingerprint() {
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(String.format("Digest algorithm %1$s is not available", ALGORITHM), e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Computes the fingerprint of a string.
+     *
+     * @param value String to fingerprint, null is treated as an empty string
+     * @return Hexadecimal fingerprint
+     */
+    public static String of(String value) {
+        MessageDigest digest = createDigest();
+
+        if (value != null) {
+            digest.update(value.getBytes(CHARSET));
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the fingerprint of the contents of a file.
+     *
+     * @param file File to fingerprint
+     * @return Hexadecimal fingerprint or {@link #MISSING} if the file does not
+     *         exist or cannot be read
+     */
+    public static String of(File file) {
+        if (!file.isFile()) {
+            return MISSING;
+        }
+
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            return MISSING;
+        }
+
+        return toHex(digest.digest());
+    }
+
+}
@@ -0,0 +1,264 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Units of a document which are included by \include, e.g. the chapters of a
+ * book. Every unit writes its own .aux file, hence a change which only
+ * affects some units can be previewed by compiling just them with
+ * \includeonly against the .aux files of the others. The files read by the
+ * document outside of the units (e.g. its preamble and macros) affect every
+ * unit.
+ *
+ * @author Lekse
+ */
+public class IncludeUnits {
+
+    private static final String RECORDER_PWD = "PWD ";
+
+    private static final String RECORDER_INPUT = "INPUT ";
+
+    private static final String RECORDER_OUTPUT = "OUTPUT ";
+
+    private static final String RECORDER_UNIT = "UNIT ";
+
+    private static final String AUX_EXTENSION = ".aux";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Files read by each unit by the name passed to \include.
+     */
+    private final Map<String,Set<File>> units;
+
+    /**
+     * Files read outside of the units.
+     */
+    private final Set<File> shared;
+
+    private IncludeUnits() {
+        this.units = new LinkedHashMap<>();
+        this.shared = new TreeSet<>();
+    }
+
+    /**
+     * Derives the units from the .fls file written by pdflatex when invoked
+     * with -recorder. \include opens the .aux file of a unit right before
+     * reading it, hence the files read after the .aux file of a unit has been
+     * written belong to that unit until the next unit starts or the document
+     * reads its own .aux file at its end. Files read by the document between
+     * two units are therefore attributed to the preceding unit.
+     *
+     * @param recorderFile The .fls file
+     * @param workingDir Directory pdflatex has been executed in, used if the
+     *                   file does not record it
+     * @param jobname Name of the job, which names the .aux file of the
+     *                document
+     * @return Units of the document or null if the file does not exist or
+     *         cannot be read
+     */
+    public static IncludeUnits parseRecorder(File recorderFile, File workingDir, String jobname) {
+        if (!recorderFile.isFile()) {
+            return null;
+        }
+
+        IncludeUnits units = new IncludeUnits();
+        Set<File> outputs = new HashSet<>();
+        Set<File> current = units.shared;
+        String auxName = jobname.concat(AUX_EXTENSION);
+        File auxFile = null;
+        boolean finished = false;
+        File dir = workingDir;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(recorderFile), CHARSET))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RECORDER_PWD)) {
+                    dir = new File(line.substring(RECORDER_PWD.length()));
+                }
+                else if (line.startsWith(RECORDER_INPUT)) {
+                    File file = DependencyGraph.resolve(dir, line.substring(RECORDER_INPUT.length()));
+
+                    // The document reads its .aux file again at its end
+                    if (file.equals(auxFile) && !units.units.isEmpty()) {
+                        current = units.shared;
+                        finished = true;
+                    }
+
+                    current.add(file);
+                }
+                else if (line.startsWith(RECORDER_OUTPUT)) {
+                    File file = DependencyGraph.resolve(dir, line.substring(RECORDER_OUTPUT.length()));
+                    outputs.add(file);
+
+                    if (auxFile == null && file.getName().equals(auxName)) {
+                        auxFile = file;
+                    }
+                    else if (auxFile != null && !finished && !file.equals(auxFile) && file.getName().endsWith(AUX_EXTENSION)) {
+                        String name = getUnitName(auxFile.getParentFile(), file);
+
+                        if (name != null) {
+                            current = new TreeSet<>();
+                            units.units.put(name, current);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // Files which are written by the build itself (e.g. .aux) are no inputs
+        units.shared.removeAll(outputs);
+
+        for (Set<File> inputs : units.units.values()) {
+            inputs.removeAll(outputs);
+        }
+
+        return units;
+    }
+
+    /**
+     * Determines the name passed to \include from the .aux file of a unit,
+     * which is written relative to the .aux file of the document.
+     *
+     * @return Name without extension or null if the file is not located
+     *         below the directory of the .aux file of the document
+     */
+    private static String getUnitName(File auxDir, File unitAuxFile) {
+        Path path = auxDir.toPath().relativize(unitAuxFile.toPath());
+
+        if (path.startsWith("..")) {
+            return null;
+        }
+
+        String name = path.toString().replace(File.separatorChar, '/');
+
+        return name.substring(0, name.length() - AUX_EXTENSION.length());
+    }
+
+    /**
+     * Loads units persisted by {@link #store(java.io.File)}.
+     *
+     * @param file Units file
+     * @return Units of the document or null if the file does not exist or
+     *         cannot be read
+     */
+    public static IncludeUnits load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        IncludeUnits units = new IncludeUnits();
+        Set<File> current = units.shared;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RECORDER_UNIT)) {
+                    current = new TreeSet<>();
+                    units.units.put(line.substring(RECORDER_UNIT.length()), current);
+                }
+                else if (line.startsWith(RECORDER_INPUT)) {
+                    current.add(new File(line.substring(RECORDER_INPUT.length())));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return units;
+    }
+
+    /**
+     * Persists the units using the line format of the .fls file. The shared
+     * inputs are followed by the inputs of every unit, each introduced by
+     * the name of the unit.
+     *
+     * @param file Units file
+     * @throws IOException
+     */
+    public void store(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET)) {
+            this.write(writer, this.shared);
+
+            for (Map.Entry<String,Set<File>> unit : this.units.entrySet()) {
+                writer.write(RECORDER_UNIT);
+                writer.write(unit.getKey());
+                writer.write('\n');
+
+                this.write(writer, unit.getValue());
+            }
+        }
+    }
+
+    private void write(Writer writer, Set<File> inputs) throws IOException {
+        for (File input : inputs) {
+            writer.write(RECORDER_INPUT);
+            writer.write(input.getPath());
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * @return Names of the units in the order of their inclusion
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(this.units.keySet());
+    }
+
+    /**
+     * Determines the units affected by changes.
+     *
+     * @param changes Changed files
+     * @return Names of the affected units or null if a change affects the
+     *         whole document, i.e. a file has been deleted or is not read by
+     *         any unit alone
+     */
+    public Set<String> findUnits(Collection<File> changes) {
+        Set<String> affected = new LinkedHashSet<>();
+
+        for (File change : changes) {
+            File file = DependencyGraph.normalize(change);
+
+            if (!file.isFile() || this.shared.contains(file)) {
+                return null;
+            }
+
+            boolean found = false;
+
+            for (Map.Entry<String,Set<File>> unit : this.units.entrySet()) {
+                if (unit.getValue().contains(file)) {
+                    affected.add(unit.getKey());
+                    found = true;
+                }
+            }
+
+            if (!found) {
+                return null;
+            }
+        }
+
+        return affected.isEmpty() ? null : affected;
+    }
+
+}
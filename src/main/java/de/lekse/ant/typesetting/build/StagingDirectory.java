@@ -0,0 +1,178 @@
+package de.lekse.ant.typesetting.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Private directory into which pdflatex writes the files of a job while it
+ * is compiled. The files are moved into the output directory only after the
+ * build has completed, hence readers of the output directory never see the
+ * files of an incomplete pass.
+ *
+ * @author Lekse
+ */
+public final class StagingDirectory {
+
+    /**
+     * Memory backed file system preferred for staging directories.
+     */
+    private static final String SHARED_MEMORY_DIR = "/dev/shm";
+
+    private static final String RECORDER_EXTENSION = ".fls";
+
+    private static final String STAGED_SUFFIX = ".staged";
+
+    private static final Charset RECORDER_CHARSET = Charset.forName("ISO-8859-1");
+
+    private StagingDirectory() {
+    }
+
+    /**
+     * Determines the directory in which staging directories are created if
+     * none has been configured, which is the shared memory if it is writable
+     * and the temporary directory otherwise.
+     */
+    public static File getDefaultRoot() {
+        File sharedMemory = new File(SHARED_MEMORY_DIR);
+
+        return sharedMemory.isDirectory() && sharedMemory.canWrite() ? sharedMemory : new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Creates a staging directory and copies the files read back from the
+     * previous build into it.
+     *
+     * @param root Directory in which the staging directory is created
+     * @param prefix Prefix of the name of the staging directory
+     * @param target Output directory of the job
+     * @param workingDir Working directory of pdflatex
+     * @param inputs Inputs of the document, whose directories below the
+     *               working directory are created for the auxiliary files of
+     *               included documents
+     * @param names Files to copy relative to the output directory
+     * @return Staging directory
+     */
+    public static File create(File root, String prefix, File target, File workingDir, Collection<File> inputs, Collection<String> names) throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath().normalize();
+        Path workingPath = workingDir.toPath().toAbsolutePath().normalize();
+        Path staged = Files.createTempDirectory(root.toPath(), prefix);
+
+        // Directories of the auxiliary files of included documents, which pdflatex does not create
+        for (File input : inputs) {
+            Path parent = input.toPath().toAbsolutePath().normalize().getParent();
+
+            if (parent != null && parent.startsWith(workingPath)) {
+                Files.createDirectories(staged.resolve(workingPath.relativize(parent)));
+            }
+        }
+
+        // State of the previous build
+        for (String name : names) {
+            Path file = targetPath.resolve(name);
+
+            if (Files.isRegularFile(file)) {
+                Path copy = staged.resolve(name);
+                Files.createDirectories(copy.getParent());
+                Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+
+        return staged.toFile();
+    }
+
+    /**
+     * Moves the files written to a staging directory into the output
+     * directory. Every file replaces its predecessor atomically, and the
+     * document is moved last. Recorder files refer to the output directory
+     * afterwards.
+     *
+     * @param stagedDirectory Staging directory
+     * @param target Output directory of the job
+     * @param product Name of the document, which is moved last
+     * @param log Name of the log
+     * @param succeeded If false, only the log is moved, which keeps the
+     *                  document and the state of the last successful build
+     */
+    public static void publish(File stagedDirectory, File target, String product, String log, boolean succeeded) throws IOException {
+        final Path staged = stagedDirectory.toPath();
+        final Path productPath = staged.resolve(product);
+        final List<Path> files = new ArrayList<>();
+        Path targetPath = target.toPath().toAbsolutePath().normalize();
+
+        if (succeeded) {
+            Files.walkFileTree(staged, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (!file.equals(productPath)) {
+                        files.add(file);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            files.add(productPath);
+        }
+        else {
+            files.add(staged.resolve(log));
+        }
+
+        for (Path file : files) {
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+
+            Path destination = targetPath.resolve(staged.relativize(file));
+            Files.createDirectories(destination.getParent());
+
+            // Copy next to the destination, as the staging directory is usually on another file system
+            Path temp = Files.createTempFile(destination.getParent(), destination.getFileName().toString(), STAGED_SUFFIX);
+
+            try {
+                if (file.getFileName().toString().endsWith(RECORDER_EXTENSION)) {
+                    String recorded = new String(Files.readAllBytes(file), RECORDER_CHARSET);
+                    Files.write(temp, recorded.replace(staged.toAbsolutePath().toString(), targetPath.toString()).getBytes(RECORDER_CHARSET));
+                }
+                else {
+                    Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+
+                Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Deletes a staging directory with its contents.
+     */
+    public static void delete(File stagedDirectory) throws IOException {
+        Files.walkFileTree(stagedDirectory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,233 @@
+package de.lekse.ant.typesetting.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-addressed store of build artifacts shared by all builds on a host.
+ * An entry is a directory named after a key which covers everything the
+ * artifacts depend on. Entries are assembled in a temporary directory and
+ * published by an atomic move, hence concurrent builds either see a
+ * complete entry or none at all, and the first of several builds publishing
+ * the same key wins.
+ * <p>
+ * Files are restored by hard links if possible and copied otherwise. Stored
+ * files are read-only, and a restored file which is still linked to the
+ * store has to be detached before it is written again.
+ *
+ * @author Lekse
+ */
+public class ArtifactStore {
+
+    private static final String TEMP_DIR = "tmp";
+
+    private static final int PREFIX_LENGTH = 2;
+
+    private final File dir;
+
+    /**
+     * Creates an artifact store.
+     *
+     * @param dir Directory containing the entries
+     */
+    public ArtifactStore(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    private Path getEntry(String key) {
+        return this.dir.toPath().resolve(key.substring(0, PREFIX_LENGTH)).resolve(key);
+    }
+
+    /**
+     * Determines whether an entry has been published for a key.
+     *
+     * @param key Key of the entry
+     */
+    public boolean contains(String key) {
+        return Files.isDirectory(this.getEntry(key));
+    }
+
+    /**
+     * Publishes files as the entry of a key. Nothing is published if an
+     * entry for the key exists already.
+     *
+     * @param key Key of the entry
+     * @param files Files to store by their relative name in the entry
+     * @return True if the entry has been published by this call
+     * @throws IOException
+     */
+    public boolean publish(String key, Map<String,File> files) throws IOException {
+        Path entry = this.getEntry(key);
+
+        if (Files.isDirectory(entry)) {
+            return false;
+        }
+
+        // Assemble the entry next to its final location
+        Path tempDir = this.dir.toPath().resolve(TEMP_DIR);
+        Files.createDirectories(tempDir);
+        Path temp = Files.createTempDirectory(tempDir, key);
+
+        try {
+            for (Map.Entry<String,File> file : files.entrySet()) {
+                Path target = temp.resolve(file.getKey());
+                Files.createDirectories(target.getParent());
+
+                // Keep the modification times, which decide whether figures are outdated
+                Files.copy(file.getValue().toPath(), target, StandardCopyOption.COPY_ATTRIBUTES);
+                target.toFile().setWritable(false, false);
+            }
+
+            Files.createDirectories(entry.getParent());
+
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // Published concurrently by another build
+                return false;
+            }
+
+            return true;
+        } finally {
+            deleteTree(temp);
+        }
+    }
+
+    /**
+     * Restores the files of an entry.
+     *
+     * @param key Key of the entry
+     * @param roots Directories into which the files are restored, by the
+     *              first element of their relative name
+     * @return Restored files or null if no entry exists for the key
+     * @throws IOException
+     */
+    public List<File> restore(String key, Map<String,File> roots) throws IOException {
+        final Path entry = this.getEntry(key);
+        final List<Path> storedFiles = new ArrayList<>();
+
+        if (!Files.isDirectory(entry)) {
+            return null;
+        }
+
+        Files.walkFileTree(entry, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                storedFiles.add(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<File> restored = new ArrayList<>();
+
+        for (Path storedFile : storedFiles) {
+            Path name = entry.relativize(storedFile);
+            File root = roots.get(name.getName(0).toString());
+
+            if (root == null || name.getNameCount() < 2) {
+                continue;
+            }
+
+            Path target = root.toPath().resolve(name.subpath(1, name.getNameCount()));
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+
+            try {
+                Files.createLink(target, storedFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Different file systems or no support for hard links
+                Files.copy(storedFile, target, StandardCopyOption.COPY_ATTRIBUTES);
+                target.toFile().setWritable(true);
+            }
+
+            restored.add(target.toFile());
+        }
+
+        return restored;
+    }
+
+    /**
+     * Replaces a file restored by a hard link with a writable copy, so that
+     * writing it does not modify the stored file.
+     *
+     * @param file Restored file
+     * @return True if the file has been detached
+     * @throws IOException
+     */
+    public static boolean detach(File file) throws IOException {
+        Path path = file.toPath();
+
+        if (!file.isFile() || !isLinked(path)) {
+            return false;
+        }
+
+        Path copy = Files.createTempFile(path.getParent(), file.getName(), ".detached");
+
+        try {
+            Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            copy.toFile().setWritable(true);
+            Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+
+        return true;
+    }
+
+    /**
+     * Determines whether a file has further hard links. File systems without
+     * link counts are expected to mark the restored files read-only.
+     */
+    private static boolean isLinked(Path file) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // No link count available
+        }
+
+        try {
+            return (Boolean) Files.getAttribute(file, "dos:readonly");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return !file.toFile().canWrite();
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
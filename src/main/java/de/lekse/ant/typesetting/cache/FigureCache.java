@@ -0,0 +1,329 @@
+package de.lekse.ant.typesetting.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Directory of figures externalized by TikZ. Every figure consists of a set
+ * of files sharing its name (.pdf, .md5, .log, .dpth and the recorded
+ * dependencies). The cache records
+ * when each figure has last been used by a build in an index, and evicts the
+ * least recently used figures as soon as the cache exceeds a maximum size or
+ * a figure exceeds a maximum age. Figures used by the current build are
+ * never evicted.
+ *
+ * @author Lekse
+ */
+public class FigureCache {
+
+    /**
+     * Name of the index recording the last access of every figure.
+     */
+    public static final String INDEX_NAME = "figures.index";
+
+    /**
+     * Extension of the manifest recording the inputs read by the job of a
+     * figure in addition to those of the document.
+     */
+    public static final String DEPENDENCY_EXTENSION = ".figdeps";
+
+    private static final List<String> FIGURE_EXTENSIONS = Arrays.asList(".pdf", ".md5", ".log", ".dpth", ".fls", DEPENDENCY_EXTENSION);
+
+    private static final String INDEX_COMMENT = "ant-typesetting figure access times";
+
+    /**
+     * Serializes the updates of the index by tasks running in parallel.
+     */
+    private static final Object INDEX_LOCK = new Object();
+
+    private final File dir;
+
+    /**
+     * Creates a figure cache.
+     *
+     * @param dir Directory containing the figures
+     */
+    public FigureCache(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Determines the name of the figure a file belongs to.
+     *
+     * @return Figure name or null if the file is no figure of the cache
+     */
+    private String getFigureName(File file) {
+        if (!this.dir.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile())) {
+            return null;
+        }
+
+        String name = file.getName();
+
+        for (String extension : FIGURE_EXTENSIONS) {
+            if (name.endsWith(extension) && name.length() > extension.length()) {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Groups the files of the cache by figure.
+     */
+    private Map<String,List<File>> listFigures() {
+        Map<String,List<File>> figures = new HashMap<>();
+        File[] files = this.dir.listFiles();
+
+        if (files == null) {
+            return figures;
+        }
+
+        for (File file : files) {
+            String figure = file.isFile() ? this.getFigureName(file) : null;
+
+            if (figure == null) {
+                continue;
+            }
+
+            if (!figures.containsKey(figure)) {
+                figures.put(figure, new ArrayList<File>());
+            }
+
+            figures.get(figure).add(file);
+        }
+
+        return figures;
+    }
+
+    private File getIndexFile() {
+        return new File(this.dir, INDEX_NAME);
+    }
+
+    private Properties loadIndex() {
+        Properties index = new Properties();
+        File indexFile = this.getIndexFile();
+
+        if (indexFile.isFile()) {
+            try (InputStream in = new FileInputStream(indexFile)) {
+                index.load(in);
+            } catch (IOException e) {
+                // A damaged index only loses the access times
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Replaces the index atomically, so that concurrent builds never read a
+     * partially written index.
+     */
+    private void storeIndex(Properties index) throws IOException {
+        Path indexPath = this.getIndexFile().toPath();
+        Path temp = Files.createTempFile(this.dir.toPath(), INDEX_NAME, ".tmp");
+
+        try {
+            try (OutputStream out = new FileOutputStream(temp.toFile())) {
+                index.store(out, INDEX_COMMENT);
+            }
+
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Determines the last access of a figure, falling back to the last
+     * modification of its files if the index does not record it.
+     */
+    private static long getLastAccess(Properties index, String figure, List<File> files) {
+        String recorded = index.getProperty(figure);
+
+        if (recorded != null) {
+            try {
+                return Long.parseLong(recorded);
+            } catch (NumberFormatException e) {
+                // Fall back to the modification time
+            }
+        }
+
+        long lastModified = 0;
+
+        for (File file : files) {
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+
+        return lastModified;
+    }
+
+    private static long sizeOf(List<File> files) {
+        long size = 0;
+
+        for (File file : files) {
+            size += file.length();
+        }
+
+        return size;
+    }
+
+    /**
+     * Records the figures used by a build and evicts the least recently used
+     * figures.
+     *
+     * @param used Files read by the build, files outside of the cache are
+     *             ignored
+     * @param buildStart Time at which the build has started in milliseconds,
+     *                   figures written afterwards are counted as misses
+     * @param maxSize Maximum size of the cache in bytes or 0 for no limit
+     * @param maxAge Maximum time since the last access of a figure in
+     *               milliseconds or 0 for no limit
+     * @return Report of the update
+     * @throws IOException If the index could not be written
+     */
+    public Report update(Collection<File> used, long buildStart, long maxSize, long maxAge) throws IOException {
+        synchronized (INDEX_LOCK) {
+            final Properties index = this.loadIndex();
+            final Map<String,List<File>> figures = this.listFigures();
+            Report report = new Report();
+            long now = System.currentTimeMillis();
+
+            // Record the figures used by the build
+            Set<String> usedFigures = new HashSet<>();
+
+            for (File file : used) {
+                String figure = this.getFigureName(file);
+
+                if (figure != null && figures.containsKey(figure) && usedFigures.add(figure)) {
+                    index.setProperty(figure, Long.toString(now));
+
+                    if (new File(this.dir, figure.concat(".pdf")).lastModified() >= buildStart) {
+                        report.misses++;
+                    }
+                    else {
+                        report.hits++;
+                    }
+                }
+            }
+
+            // Order the other figures from the least to the most recently used
+            List<String> candidates = new ArrayList<>(figures.keySet());
+            candidates.removeAll(usedFigures);
+
+            Collections.sort(candidates, new Comparator<String>() {
+                @Override
+                public int compare(String first, String second) {
+                    return Long.compare(getLastAccess(index, first, figures.get(first)), getLastAccess(index, second, figures.get(second)));
+                }
+            });
+
+            long size = 0;
+
+            for (List<File> files : figures.values()) {
+                size += sizeOf(files);
+            }
+
+            // Evict expired figures and then the least recently used ones until the cache is small enough
+            for (String figure : candidates) {
+                boolean expired = maxAge > 0 && now - getLastAccess(index, figure, figures.get(figure)) > maxAge;
+                boolean oversized = maxSize > 0 && size > maxSize;
+
+                if (!expired && !oversized) {
+                    continue;
+                }
+
+                long figureSize = sizeOf(figures.get(figure));
+
+                for (File file : figures.get(figure)) {
+                    Files.deleteIfExists(file.toPath());
+                }
+
+                index.remove(figure);
+                size -= figureSize;
+                report.evictions++;
+                report.evictedBytes += figureSize;
+            }
+
+            // Forget figures which have been deleted by other means
+            index.keySet().retainAll(figures.keySet());
+
+            report.size = size;
+            this.storeIndex(index);
+
+            return report;
+        }
+    }
+
+    /**
+     * Result of updating the cache after a build.
+     */
+    public static class Report {
+
+        private int hits;
+
+        private int misses;
+
+        private int evictions;
+
+        private long evictedBytes;
+
+        private long size;
+
+        /**
+         * @return Number of figures used by the build and taken from the cache
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return Number of figures used by the build and compiled by it
+         */
+        public int getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return Number of evicted figures
+         */
+        public int getEvictions() {
+            return evictions;
+        }
+
+        public long getEvictedBytes() {
+            return evictedBytes;
+        }
+
+        /**
+         * @return Size of the remaining figures in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+    }
+
+}
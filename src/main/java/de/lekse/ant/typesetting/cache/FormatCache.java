@@ -0,0 +1,168 @@
+package de.lekse.ant.typesetting.cache;
+
+import de.lekse.ant.typesetting.build.BuildManifest;
+import de.lekse.ant.typesetting.build.DependencyGraph;
+import de.lekse.ant.typesetting.build.Fingerprint;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directory of precompiled formats. A format is dumped from the static part
+ * of a preamble and named after the fingerprint of that preamble, so that
+ * documents sharing a preamble share the format. The files read while
+ * dumping (classes and packages) are recorded, and a format is considered
+ * stale as soon as one of them changes.
+ *
+ * @author Lekse
+ */
+public class FormatCache {
+
+    private static final String NAME_PREFIX = "typeset-";
+
+    private static final int NAME_FINGERPRINT_LENGTH = 16;
+
+    private static final String DUMP_COMMAND = "\\dump";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File dir;
+
+    /**
+     * Creates a format cache.
+     *
+     * @param dir Directory containing the formats
+     */
+    public FormatCache(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Determines the name of the format for a preamble.
+     *
+     * @param preamble Static part of the preamble
+     * @param compiler Compiler which dumps and loads the format
+     * @return Format name, used as job name when dumping the format
+     */
+    public String getName(String preamble, String compiler) {
+        return NAME_PREFIX.concat(Fingerprint.of(compiler.concat("\n").concat(preamble)).substring(0, NAME_FINGERPRINT_LENGTH));
+    }
+
+    public File getSourceFile(String name) {
+        return new File(this.dir, name.concat(".tex"));
+    }
+
+    public File getFormatFile(String name) {
+        return new File(this.dir, name.concat(".fmt"));
+    }
+
+    private File getRecorderFile(String name) {
+        return new File(this.dir, name.concat(".fls"));
+    }
+
+    private File getDependencyFile(String name) {
+        return new File(this.dir, name.concat(".deps"));
+    }
+
+    private File getManifestFile(String name) {
+        return new File(this.dir, name.concat(BuildManifest.EXTENSION));
+    }
+
+    /**
+     * Determines the files written while dumping a format.
+     *
+     * @param name Format name
+     * @return Source, format, log and recorded dependencies of the format
+     */
+    public List<File> getFiles(String name) {
+        return Arrays.asList(this.getSourceFile(name), this.getFormatFile(name), new File(this.dir, name.concat(".log")),
+                this.getRecorderFile(name), this.getDependencyFile(name), this.getManifestFile(name));
+    }
+
+    /**
+     * Determines whether a format exists and none of the files read while
+     * dumping it has been changed since.
+     *
+     * @param name Format name
+     * @return True if the format can be used
+     */
+    public boolean isValid(String name) {
+        if (!this.getFormatFile(name).isFile()) {
+            return false;
+        }
+
+        DependencyGraph graph = DependencyGraph.load(this.getDependencyFile(name));
+        BuildManifest recorded = BuildManifest.load(this.getManifestFile(name));
+
+        if (graph == null || recorded == null) {
+            return false;
+        }
+
+        return this.createManifest(graph).findChange(recorded) == null;
+    }
+
+    /**
+     * Writes the source from which the format is dumped.
+     *
+     * @param name Format name
+     * @param preamble Static part of the preamble
+     * @throws IOException
+     */
+    public void prepare(String name, String preamble) throws IOException {
+        // Restored formats may be linked to a read-only artifact store
+        this.getSourceFile(name).delete();
+        this.getFormatFile(name).delete();
+        this.getDependencyFile(name).delete();
+        this.getManifestFile(name).delete();
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(this.getSourceFile(name)), CHARSET)) {
+            writer.write(preamble);
+            writer.write('\n');
+            writer.write(DUMP_COMMAND);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Records the files read while dumping a format from the recorder file
+     * written by the compiler.
+     *
+     * @param name Format name
+     * @param workingDir Directory the compiler has been executed in
+     * @return True if the format has been dumped and its inputs have been
+     *         recorded
+     * @throws IOException
+     */
+    public boolean record(String name, File workingDir) throws IOException {
+        DependencyGraph graph = DependencyGraph.parseRecorder(this.getRecorderFile(name), workingDir);
+
+        if (graph == null || !this.getFormatFile(name).isFile()) {
+            return false;
+        }
+
+        graph.store(this.getDependencyFile(name));
+        this.createManifest(graph).store(this.getManifestFile(name));
+
+        return true;
+    }
+
+    private BuildManifest createManifest(DependencyGraph graph) {
+        BuildManifest manifest = new BuildManifest();
+
+        for (File input : graph.getInputs()) {
+            manifest.putInput(input);
+        }
+
+        return manifest;
+    }
+
+}
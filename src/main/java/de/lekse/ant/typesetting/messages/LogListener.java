@@ -0,0 +1,16 @@
+package de.lekse.ant.typesetting.messages;
+
+/**
+ * Receives the messages found by a {@link LogParser} as soon as they are
+ * complete.
+ *
+ * @author Lekse
+ */
+public interface LogListener {
+
+    /**
+     * @param message Error or warning reported by pdflatex
+     */
+    void messageParsed(AbstractMessage message);
+
+}
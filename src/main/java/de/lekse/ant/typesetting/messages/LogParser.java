@@ -0,0 +1,75 @@
+package de.lekse.ant.typesetting.messages;
+
+/**
+ * Line by line parser of the output of pdflatex. The parser only keeps the
+ * line of a pending error, hence the output can be parsed while pdflatex is
+ * still running, regardless of its length.
+ *
+ * @author Lekse
+ */
+public class LogParser {
+
+    private static final String ERROR_PREFIX = "!";
+
+    private static final String WARNING_PREFIX = "LaTeX Warning";
+
+    private final LogListener listener;
+
+    /**
+     * Error line whose message is continued by the next line.
+     */
+    private String pendingError;
+
+    /**
+     * Creates a parser.
+     *
+     * @param listener Listener notified of every parsed message
+     */
+    public LogParser(LogListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Parses the next line of the output.
+     *
+     * @param line Line without line terminator
+     */
+    public void parseLine(String line) {
+        // Concat error in previous and current line
+        if (this.pendingError != null) {
+            String error = String.format("%1$s %2$s", this.pendingError, line);
+            this.pendingError = null;
+
+            this.listener.messageParsed(new ErrorMessage(error));
+
+            return;
+        }
+
+        // Capture error
+        if (line.startsWith(ERROR_PREFIX)) {
+            this.pendingError = stripPrefix(line, ERROR_PREFIX.length() + 1);
+        }
+        // Capture warning
+        else if (line.startsWith(WARNING_PREFIX)) {
+            this.listener.messageParsed(new WarningMessage(stripPrefix(line, WARNING_PREFIX.length() + 2)));
+        }
+    }
+
+    /**
+     * Completes parsing at the end of the output. An error on the last line
+     * is reported without continuation.
+     */
+    public void finish() {
+        if (this.pendingError != null) {
+            String error = this.pendingError;
+            this.pendingError = null;
+
+            this.listener.messageParsed(new ErrorMessage(error));
+        }
+    }
+
+    private static String stripPrefix(String line, int length) {
+        return line.length() > length ? line.substring(length) : "";
+    }
+
+}
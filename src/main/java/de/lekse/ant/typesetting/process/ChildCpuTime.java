@@ -0,0 +1,89 @@
+package de.lekse.ant.typesetting.process;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * CPU time consumed by the terminated child processes of this JVM. The time
+ * is read from /proc/self/stat (cutime and cstime) and is therefore only
+ * available on Linux. The difference of two readings is the CPU time of the
+ * children which have been waited for in between, including those of other
+ * threads, hence {@link RunningProcess} only attributes it to a process if no
+ * other process of a {@link ProcessEngine} has been running meanwhile.
+ *
+ * @author Lekse
+ */
+public final class ChildCpuTime {
+
+    private static final File STAT_FILE = new File("/proc/self/stat");
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    /**
+     * Clock ticks per second (USER_HZ) as reported by getconf CLK_TCK or -1
+     * if unknown.
+     */
+    private static final long TICKS_PER_SECOND = readTicksPerSecond();
+
+    /**
+     * Index of cutime within the fields following the command name, cstime
+     * directly follows.
+     */
+    private static final int CHILD_USER_TIME_INDEX = 13;
+
+    private ChildCpuTime() {
+    }
+
+    private static long readTicksPerSecond() {
+        if (!STAT_FILE.isFile()) {
+            return -1;
+        }
+
+        try {
+            Process process = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+            String line;
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), CHARSET))) {
+                line = reader.readLine();
+            }
+
+            return process.waitFor() == 0 && line != null ? Long.parseLong(line.trim()) : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return -1;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the CPU time consumed by the terminated child processes.
+     *
+     * @return User and system time in milliseconds or -1 if the time is not
+     *         available
+     */
+    public static long readMillis() {
+        if (TICKS_PER_SECOND <= 0) {
+            return -1;
+        }
+
+        try {
+            String stat = new String(Files.readAllBytes(STAT_FILE.toPath()), CHARSET);
+
+            // The command name may contain spaces, hence the fields are counted after it
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+
+            long ticks = Long.parseLong(fields[CHILD_USER_TIME_INDEX]) + Long.parseLong(fields[CHILD_USER_TIME_INDEX + 1]);
+
+            return ticks * 1000 / TICKS_PER_SECOND;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package de.lekse.ant.typesetting.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts processes directly through a {@link ProcessBuilder}. Unlike the exec
+ * task, the engine keeps no state of its executions, hence it can be used for
+ * any number of executions, also concurrently. The processes of all engines
+ * are counted, so that the CPU time of the terminated children of this JVM is
+ * only attributed to a process which has been running alone.
+ *
+ * @author Lekse
+ */
+public class ProcessEngine {
+
+    /**
+     * Number of running processes of all engines.
+     */
+    static final AtomicInteger RUNNING = new AtomicInteger();
+
+    /**
+     * Number of processes started by all engines so far.
+     */
+    static final AtomicLong STARTED = new AtomicLong();
+
+    private final File workingDir;
+
+    private final String name;
+
+    private final AtomicInteger sequence;
+
+    /**
+     * Creates a process engine.
+     *
+     * @param workingDir Working directory of the processes
+     * @param name Name from which the names of the pump threads are derived
+     */
+    public ProcessEngine(File workingDir, String name) {
+        this.workingDir = workingDir;
+        this.name = name;
+        this.sequence = new AtomicInteger();
+    }
+
+    public File getWorkingDir() {
+        return workingDir;
+    }
+
+    /**
+     * Starts a process.
+     *
+     * @param command Executable followed by its arguments
+     * @param environment Variables added to the environment of this process
+     * @param output Stream receiving the output of the process or null to
+     *               discard it
+     * @param error Stream receiving the errors of the process or null to
+     *              discard them
+     * @return Running process
+     * @throws IOException If the process could not be started
+     */
+    public RunningProcess start(List<String> command, Map<String,String> environment, OutputStream output, OutputStream error) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(this.workingDir);
+        builder.environment().putAll(environment);
+
+        // Only a process which starts and terminates alone is charged the CPU time of the terminated children
+        long startCpuMillis = ChildCpuTime.readMillis();
+        long started = STARTED.incrementAndGet();
+        boolean alone = RUNNING.incrementAndGet() == 1;
+        long startTime = System.nanoTime();
+        Process process;
+
+        try {
+            process = builder.start();
+        } catch (IOException | RuntimeException e) {
+            RUNNING.decrementAndGet();
+
+            throw e;
+        }
+
+        return new RunningProcess(process, startTime, alone ? startCpuMillis : -1, started, output, error, String.format("%1$s-%2$d", this.name, this.sequence.incrementAndGet()));
+    }
+
+}
@@ -0,0 +1,64 @@
+package de.lekse.ant.typesetting.process;
+
+/**
+ * Outcome of a process started by a {@link ProcessEngine}.
+ *
+ * @author Lekse
+ */
+public class ProcessResult {
+
+    private final int exitCode;
+
+    private final boolean cancelled;
+
+    private final long spawnNanos;
+
+    private final long wallNanos;
+
+    private final long cpuMillis;
+
+    public ProcessResult(int exitCode, boolean cancelled, long spawnNanos, long wallNanos, long cpuMillis) {
+        this.exitCode = exitCode;
+        this.cancelled = cancelled;
+        this.spawnNanos = spawnNanos;
+        this.wallNanos = wallNanos;
+        this.cpuMillis = cpuMillis;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return True if the process has been killed by
+     *         {@link RunningProcess#cancel()}
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return Time in nanoseconds needed to spawn the process
+     */
+    public long getSpawnNanos() {
+        return spawnNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds from spawning the process until its
+     *         output has been consumed completely
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return User and system time in milliseconds consumed by the process
+     *         and its children or -1 if it is unknown, e.g. as other
+     *         processes have been running at the same time
+     */
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+
+}
@@ -0,0 +1,262 @@
+package de.lekse.ant.typesetting.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Process started by a {@link ProcessEngine}. The output and error stream of
+ * the process are pumped by daemon threads into the streams passed on start,
+ * so nothing of the output is buffered beyond a single block. The input of
+ * the process stays open until {@link #closeInput()} is called, hence input
+ * can be written while the process is running. The pumps of a cancelled
+ * process are detached from these streams instead of waited for, as children
+ * of the process (e.g. the system calls of TikZ) may keep its output open.
+ *
+ * @author Lekse
+ */
+public class RunningProcess {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Time in milliseconds the pumps of a cancelled process are given to
+     * pass the remaining output.
+     */
+    private static final long DETACH_TIMEOUT = 200;
+
+    private final Process process;
+
+    private final long startTime;
+
+    private final long spawnNanos;
+
+    /**
+     * CPU time of the terminated children of this JVM when the process has
+     * been started or -1 if other processes have been running.
+     */
+    private final long startCpuMillis;
+
+    /**
+     * Number of processes started by all engines including this one.
+     */
+    private final long started;
+
+    private boolean terminated;
+
+    private final Thread outputPump;
+
+    private final Thread errorPump;
+
+    private final OutputStream output;
+
+    private final OutputStream error;
+
+    /**
+     * Guards the streams passed on start against the pumps once detached.
+     */
+    private final Object pumpLock;
+
+    private boolean detached;
+
+    private volatile boolean cancelled;
+
+    RunningProcess(Process process, long startTime, long startCpuMillis, long started, OutputStream output, OutputStream error, String name) {
+        this.process = process;
+        this.startTime = startTime;
+        this.spawnNanos = System.nanoTime() - startTime;
+        this.startCpuMillis = startCpuMillis;
+        this.started = started;
+        this.output = output;
+        this.error = error;
+        this.pumpLock = new Object();
+
+        this.outputPump = this.startPump(process.getInputStream(), output, String.format("%1$s-out", name));
+        this.errorPump = this.startPump(process.getErrorStream(), error, String.format("%1$s-err", name));
+    }
+
+    private Thread startPump(final InputStream source, final OutputStream target, String name) {
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                try (InputStream in = source) {
+                    int read;
+
+                    while ((read = in.read(buffer)) != -1) {
+                        if (!pass(target, buffer, read)) {
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    // The stream is closed when the process is killed
+                } finally {
+                    synchronized (pumpLock) {
+                        if (!detached) {
+                            closeQuietly(target);
+                        }
+                    }
+                }
+            }
+        }, name);
+
+        pump.setDaemon(true);
+        pump.start();
+
+        return pump;
+    }
+
+    /**
+     * Passes output of the process to a stream unless the pumps have been
+     * detached.
+     *
+     * @return False if the pumps have been detached
+     */
+    private boolean pass(OutputStream target, byte[] buffer, int length) throws IOException {
+        synchronized (this.pumpLock) {
+            if (this.detached) {
+                return false;
+            }
+
+            if (target != null) {
+                target.write(buffer, 0, length);
+            }
+
+            return true;
+        }
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Nothing left to do with the stream
+        }
+    }
+
+    /**
+     * Writes text to the input of the process and flushes it.
+     *
+     * @param text Text to write
+     * @param charset Charset of the text
+     * @throws IOException If the process does not accept input anymore
+     */
+    public void write(String text, Charset charset) throws IOException {
+        OutputStream input = this.process.getOutputStream();
+
+        input.write(text.getBytes(charset));
+        input.flush();
+    }
+
+    /**
+     * Stops passing output to the streams passed on start and closes them,
+     * while the pumps may still wait for the end of the output.
+     */
+    private void detach() {
+        synchronized (this.pumpLock) {
+            if (!this.detached) {
+                this.detached = true;
+
+                if (this.outputPump.isAlive()) {
+                    closeQuietly(this.output);
+                }
+
+                if (this.errorPump.isAlive()) {
+                    closeQuietly(this.error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the input of the process.
+     */
+    public void closeInput() {
+        closeQuietly(this.process.getOutputStream());
+    }
+
+    /**
+     * Kills the process.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        this.process.destroy();
+    }
+
+    /**
+     * @return True if the process has not exited yet
+     */
+    public boolean isRunning() {
+        try {
+            this.process.exitValue();
+
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits until the process has exited and its output has been consumed.
+     * The output of a cancelled process is only consumed until its pumps are
+     * detached. The streams passed on start are closed afterwards.
+     *
+     * @return Result of the process
+     * @throws InterruptedException
+     */
+    public ProcessResult waitFor() throws InterruptedException {
+        int exitCode;
+
+        try {
+            exitCode = this.process.waitFor();
+        } catch (InterruptedException e) {
+            // The process is no longer counted as running
+            this.measureCpuMillis();
+
+            throw e;
+        }
+
+        if (this.cancelled) {
+            this.outputPump.join(DETACH_TIMEOUT);
+            this.errorPump.join(DETACH_TIMEOUT);
+            this.detach();
+        }
+        else {
+            this.outputPump.join();
+            this.errorPump.join();
+        }
+
+        return new ProcessResult(exitCode, this.cancelled, this.spawnNanos, System.nanoTime() - this.startTime, this.measureCpuMillis());
+    }
+
+    /**
+     * Determines the CPU time of the terminated process, which is only
+     * known if no other process of an engine has been running meanwhile.
+     *
+     * @return CPU time in milliseconds or -1 if unknown
+     */
+    private synchronized long measureCpuMillis() {
+        if (this.terminated) {
+            return -1;
+        }
+
+        long cpuMillis = ChildCpuTime.readMillis();
+        boolean alone = ProcessEngine.STARTED.get() == this.started;
+
+        this.terminated = true;
+        ProcessEngine.RUNNING.decrementAndGet();
+
+        return alone && this.startCpuMillis >= 0 && cpuMillis >= 0 ? cpuMillis - this.startCpuMillis : -1;
+    }
+
+}
@@ -1,46 +1,63 @@
 package de.lekse.ant.typesetting.tasks;
 
 import de.lekse.ant.typesetting.types.Document;
-import java.util.HashMap;
+import java.io.File;
 import java.util.Map;
+import java.util.TreeMap;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.IntrospectionHelper;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Target;
 import org.apache.tools.ant.Task;
 
 /**
+ * Defines documents by properties of the form
+ * <code>documents.&lt;id&gt;.&lt;attribute&gt;</code> and adds a target
+ * <code>build-&lt;id&gt;</code> compiling each of them.
  *
  * @author Lekse
  */
 public class BootstrapTask extends Task {
     
-    private static final String DEFAULT_PROPERTY_NAMESPACE = "documents.";
+    static final String DEFAULT_PROPERTY_NAMESPACE = "documents.";
+    
+    private static final String DOCUMENT_TASK_NAME = "typeset";
     
     private String namespace;
 
-    @Override
-    public void execute() throws BuildException {
-        // Determine property namespace
-        String _namespace = namespace;
-        
-        if (_namespace == null) {
-            // Use default namespace
-            _namespace = DEFAULT_PROPERTY_NAMESPACE;
-        }
+    /**
+     * Reads the documents defined by the properties of a project. Unknown
+     * attributes and invalid values are reported and skipped.
+     *
+     * @param task Task on whose behalf the properties are read
+     * @param namespace Prefix of the properties
+     * @return Documents by their identifier
+     */
+    static Map<String,Document> readDocuments(Task task, String namespace) {
+        Project project = task.getProject();
+        IntrospectionHelper helper = IntrospectionHelper.getHelper(project, Document.class);
         
-        // Scan properties and create an own target for each document type
-        Map<String,Object> properties = this.getProject().getProperties();
-        Map<String,Document> documents = new HashMap<>();
+        // Scan properties and create an own document for each identifier
+        Map<String,Object> properties = project.getProperties();
+        Map<String,Document> documents = new TreeMap<>();
         
         // Iterate through properties in namespace PROPERTY_NAMESPACE
         for (Map.Entry<String,Object> property : properties.entrySet()) {
             String key = property.getKey();
             
-            if (key.startsWith(_namespace)) {
+            if (key.startsWith(namespace)) {
+                int separator = key.indexOf(".", namespace.length());
+                
+                // Skip properties without attribute name
+                if (separator < 0) {
+                    continue;
+                }
+                
                 // Determine document identifier
-                String documentIdentifier = key.substring(_namespace.length(), key.indexOf(".", _namespace.length()));
+                String documentIdentifier = key.substring(namespace.length(), separator);
                 
                 // Get existing document
-                Document document = documents.get(key);
+                Document document = documents.get(documentIdentifier);
                 
                 if (document == null) {
                     // Create new document if it does not exist
@@ -48,22 +65,84 @@ public class BootstrapTask extends Task {
                     documents.put(documentIdentifier, document);
                 }
                 
-                // Map individual property
-                Class<Document> documentClass = (Class<Document>) document.getClass();
-                
-                //documentClass.getField("key").s
-                //document.getClass().
+                // Map individual property, values are converted like attributes of build files
+                try {
+                    helper.setAttribute(project, document, key.substring(separator + 1), String.valueOf(property.getValue()));
+                } catch (BuildException e) {
+                    task.log(String.format("Property %1$s is ignored: %2$s", key, e.getMessage()), Project.MSG_WARN);
+                }
+            }
+        }
+        
+        return documents;
+    }
+
+    /**
+     * Creates the task compiling a document.
+     *
+     * @param project Project of the task
+     * @param identifier Identifier of the document
+     * @param document Document to compile
+     */
+    static TypesetTask createTypesetTask(Project project, String identifier, Document document) {
+        TypesetTask task = new TypesetTask();
+        task.setProject(project);
+        task.setTaskName(String.format("%1$s:%2$s", DOCUMENT_TASK_NAME, identifier));
+        
+        // The document is given relative to its directory, which is also the working directory
+        if (document.getDocument() != null) {
+            task.setDocument(document.getDir() != null ? new File(document.getDir(), document.getDocument()) : project.resolveFile(document.getDocument()));
+        }
+        
+        task.setBasedir(document.getDir());
+        task.setOutputdir(document.getOutputdir());
+        
+        // An output file determines the output directory unless it is given explicitly
+        if (document.getOutputfile() != null) {
+            String name = document.getOutputfile().getName();
+            task.setOutputname(name.endsWith(".pdf") ? name.substring(0, name.length() - ".pdf".length()) : name);
+            
+            if (document.getOutputdir() == null) {
+                task.setOutputdir(document.getOutputfile().getParentFile());
             }
         }
         
+        if (document.getType() != null) {
+            task.setType(document.getType());
+        }
+        
+        task.setLanguage(document.getLanguage());
+        task.setDraft(document.isDraft());
+        task.setContinuous(document.isContinuous());
+        task.setTikzcompatibility(document.isTikzcompatibility());
+        
+        return task;
+    }
+
+    /**
+     * @return Namespace of the document properties including the trailing
+     *         separator
+     */
+    String getPropertyNamespace() {
+        // Use default namespace
+        return this.namespace != null ? this.namespace : DEFAULT_PROPERTY_NAMESPACE;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        Map<String,Document> documents = readDocuments(this, this.getPropertyNamespace());
+        
         // Create target for each document
         for (Map.Entry<String,Document> document : documents.entrySet()) {
             // Create target
             Target _target = new Target();
+            _target.setProject(this.getProject());
             _target.setName(String.format("build-%s", document.getKey()));
             
             // Add tasks to target
-            // TODO
+            TypesetTask task = createTypesetTask(this.getProject(), document.getKey(), document.getValue());
+            task.setOwningTarget(_target);
+            _target.addTask(task);
             
             // Add target to current project
             this.getProject().addTarget(_target);
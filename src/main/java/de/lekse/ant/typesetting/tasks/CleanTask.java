@@ -1,31 +1,375 @@
 package de.lekse.ant.typesetting.tasks;
 
+import de.lekse.ant.typesetting.build.BuildManifest;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
-import org.apache.tools.ant.types.FileSet;
-import org.apache.tools.ant.taskdefs.Delete;
 
 /**
+ * Deletes the files written by the builds of the documents below a
+ * directory. The files are taken from the build manifests, hence only files
+ * which have actually been generated are deleted. Directories without a
+ * manifest fall back to the files named after the jobs of their .tex files.
+ * The level determines whether the final documents and the cached figures
+ * and formats are kept.
  *
  * @author Lekse
  */
 public class CleanTask extends Task {
-    
-    private static String AUXILIARY_TEX_FILES = "*.aux,*.auxlock,*.gz,*.log,*.nav,*.out,*.pdf,*.snm,*.toc";
-    
+
+    private static final String TEX_EXTENSION = ".tex";
+
+    /**
+     * Extensions of the intermediate files removed for jobs without a
+     * manifest, e.g. of builds which failed before writing one.
+     */
+    private static final List<String> FALLBACK_AUXILIARY_EXTENSIONS = Arrays.asList(".aux", ".auxlock", ".fls", ".log", ".nav", ".out", ".snm", ".toc", ".synctex.gz");
+
+    /**
+     * Extensions of the final documents removed for jobs without a manifest.
+     */
+    private static final List<String> FALLBACK_PRODUCT_EXTENSIONS = Arrays.asList(".pdf");
+
+    /**
+     * Deletes the intermediate files only, the documents stay up to date.
+     */
+    private static final String LEVEL_AUXILIARY = "aux";
+
+    /**
+     * Deletes the intermediate files and the final documents but keeps the
+     * cached figures and formats for the next build.
+     */
+    private static final String LEVEL_KEEP_CACHE = "keep-cache";
+
+    /**
+     * Deletes all recorded files including the manifests.
+     */
+    private static final String LEVEL_ALL = "all";
+
+    /**
+     * Number of files deleted by a single worker at once.
+     */
+    private static final int BATCH_SIZE = 64;
+
     private File dir;
 
+    /**
+     * Defines which recorded files are deleted, either aux, keep-cache or
+     * all. Defaults to keep-cache.
+     */
+    private String level;
+
+    /**
+     * If true, the files are only listed together with the number of bytes
+     * which would be reclaimed. Defaults to false.
+     */
+    private boolean dryrun;
+
+    /**
+     * Defines the maximum number of threads deleting files. Defaults to the
+     * number of available processors.
+     */
+    private int threads;
+
+    /**
+     * Default constructor
+     */
+    public CleanTask() {
+        // Call parent constructor
+        super();
+
+        // Set default parameters
+        this.level = LEVEL_KEEP_CACHE;
+        this.dryrun = false;
+        this.threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Validates the parameters passed to the task.
+     *
+     * @throws BuildException
+     */
+    private void validateAttributes() throws BuildException {
+        // Require an existing directory
+        if (this.dir == null) {
+            throw new BuildException("Dir attribute has to be specified");
+        }
+
+        if (!this.dir.isDirectory()) {
+            throw new BuildException(String.format("Directory \"%1$s\" does not exist", this.dir.getAbsoluteFile()));
+        }
+
+        // Require a known level
+        if (!Arrays.asList(LEVEL_AUXILIARY, LEVEL_KEEP_CACHE, LEVEL_ALL).contains(this.level)) {
+            throw new BuildException(String.format("Level has to be one of %1$s, %2$s and %3$s but is \"%4$s\"", LEVEL_AUXILIARY, LEVEL_KEEP_CACHE, LEVEL_ALL, this.level));
+        }
+
+        // Require a positive number of threads
+        if (this.threads < 1) {
+            throw new BuildException(String.format("Number of threads has to be at least 1 but is %1$d", this.threads));
+        }
+    }
+
+    /**
+     * Finds the build manifests below the directory.
+     *
+     * @param documents Receives the .tex files found along the way
+     */
+    private List<Path> findManifests(Path root, final List<Path> documents) throws IOException {
+        final List<Path> manifests = new ArrayList<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && file.getFileName().toString().endsWith(BuildManifest.EXTENSION)) {
+                    manifests.add(file);
+                } else if (attributes.isRegularFile() && file.getFileName().toString().endsWith(TEX_EXTENSION)) {
+                    documents.add(file);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log(String.format("\"%1$s\" could not be read: %2$s", file, e.getMessage()), Project.MSG_WARN);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return manifests;
+    }
+
+    /**
+     * Determines whether an output of the given kind is deleted at the level
+     * of the task.
+     */
+    private boolean isDeleted(String kind) {
+        switch (this.level) {
+            case LEVEL_AUXILIARY:
+                return kind.equals(BuildManifest.OUTPUT_AUXILIARY);
+            case LEVEL_KEEP_CACHE:
+                return !kind.equals(BuildManifest.OUTPUT_CACHE);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Collects the recorded files to delete. Files outside of the directory
+     * are never deleted, even if a manifest lists them.
+     */
+    private Set<Path> collectFiles(Path root, List<Path> manifests) {
+        Set<Path> files = new TreeSet<>();
+
+        for (Path manifestFile : manifests) {
+            BuildManifest manifest = BuildManifest.load(manifestFile.toFile());
+
+            // Manifests without outputs, e.g. of formats, are listed by the manifests of the documents
+            if (manifest == null || manifest.getOutputs().isEmpty()) {
+                continue;
+            }
+
+            for (Map.Entry<File,String> output : manifest.getOutputs().entrySet()) {
+                Path file = output.getKey().toPath().toAbsolutePath().normalize();
+
+                if (!this.isDeleted(output.getValue())) {
+                    continue;
+                }
+
+                if (!file.startsWith(root)) {
+                    this.log(String.format("Keeping \"%1$s\" outside of \"%2$s\"", file, root), Project.MSG_VERBOSE);
+                    continue;
+                }
+
+                files.add(file);
+            }
+
+            // Without the manifest the remaining files are unknown, hence it is only deleted with all of them
+            if (this.level.equals(LEVEL_ALL)) {
+                files.add(manifestFile);
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Collects the files named after the jobs of the .tex files in
+     * directories without a manifest, as cleaned before manifests were
+     * written.
+     */
+    private Set<Path> collectFallbackFiles(List<Path> manifests, List<Path> documents) {
+        Set<Path> directories = new HashSet<>();
+        Set<Path> files = new TreeSet<>();
+
+        for (Path manifestFile : manifests) {
+            directories.add(manifestFile.getParent());
+        }
+
+        for (Path document : documents) {
+            Path directory = document.getParent();
+
+            if (directories.contains(directory)) {
+                continue;
+            }
+
+            String name = document.getFileName().toString();
+            String jobname = name.substring(0, name.length() - TEX_EXTENSION.length());
+
+            this.addFallbackFiles(files, directory, jobname, FALLBACK_AUXILIARY_EXTENSIONS, BuildManifest.OUTPUT_AUXILIARY);
+            this.addFallbackFiles(files, directory, jobname, FALLBACK_PRODUCT_EXTENSIONS, BuildManifest.OUTPUT_PRODUCT);
+        }
+
+        return files;
+    }
+
+    private void addFallbackFiles(Set<Path> files, Path directory, String jobname, List<String> extensions, String kind) {
+        if (!this.isDeleted(kind)) {
+            return;
+        }
+
+        for (String extension : extensions) {
+            Path file = directory.resolve(jobname.concat(extension));
+
+            if (Files.isRegularFile(file)) {
+                this.log(String.format("No manifest in \"%1$s\", falling back to \"%2$s\"", directory, file), Project.MSG_VERBOSE);
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * Determines the size of a file.
+     *
+     * @return Size in bytes or 0 if the file does not exist
+     */
+    private static long sizeOf(Path file) {
+        try {
+            return Files.isRegularFile(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes files on a bounded pool of workers.
+     *
+     * @param files Files to delete
+     * @return Number of bytes reclaimed
+     */
+    private long deleteAll(List<Path> files) throws BuildException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, (files.size() + BATCH_SIZE - 1) / BATCH_SIZE)));
+        List<Future<Long>> futures = new ArrayList<>();
+
+        try {
+            // Submit batches of files
+            for (int i = 0; i < files.size(); i += BATCH_SIZE) {
+                final List<Path> batch = files.subList(i, Math.min(i + BATCH_SIZE, files.size()));
+
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long bytes = 0;
+
+                        for (Path file : batch) {
+                            long size = sizeOf(file);
+
+                            try {
+                                if (Files.deleteIfExists(file)) {
+                                    bytes += size;
+                                    log(String.format("Deleted \"%1$s\"", file), Project.MSG_VERBOSE);
+                                }
+                            } catch (IOException e) {
+                                log(String.format("\"%1$s\" could not be deleted: %2$s", file, e.getMessage()), Project.MSG_WARN);
+                            }
+                        }
+
+                        return bytes;
+                    }
+                }));
+            }
+
+            // Sum up the reclaimed bytes
+            long bytes = 0;
+
+            for (Future<Long> future : futures) {
+                bytes += future.get();
+            }
+
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new BuildException("Interrupted while deleting files", e);
+        } catch (ExecutionException e) {
+            throw new BuildException(String.format("Files could not be deleted: %1$s", e.getCause().getMessage()), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Override
     public void execute() throws BuildException {
-        // Define set of included files
-        FileSet fileset = new FileSet();
-        fileset.setDir(this.dir);
-        fileset.setIncludes(AUXILIARY_TEX_FILES);
+        // Validate attributes of the task
+        this.validateAttributes();
+
+        Path root = this.dir.toPath().toAbsolutePath().normalize();
+        List<Path> documents = new ArrayList<>();
+        List<Path> manifests;
+
+        try {
+            manifests = this.findManifests(root, documents);
+        } catch (IOException e) {
+            throw new BuildException(String.format("Directory \"%1$s\" could not be searched: %2$s", root, e.getMessage()), e);
+        }
 
-        Delete delete = (Delete) this.getProject().createTask("delete");
-        delete.addFileset(fileset);
-        delete.perform();
+        Set<Path> collected = this.collectFiles(root, manifests);
+        collected.addAll(this.collectFallbackFiles(manifests, documents));
+
+        List<Path> files = new ArrayList<>(collected);
+
+        if (this.dryrun) {
+            long bytes = 0;
+            int existing = 0;
+
+            for (Path file : files) {
+                if (Files.exists(file)) {
+                    bytes += sizeOf(file);
+                    existing++;
+
+                    this.log(String.format("Would delete \"%1$s\"", file));
+                }
+            }
+
+            this.log(String.format("Would delete %1$d files recorded by %2$d manifests and reclaim %3$d bytes", existing, manifests.size(), bytes));
+
+            return;
+        }
+
+        long bytes = this.deleteAll(files);
+
+        this.log(String.format("Deleted the files recorded by %1$d manifests and reclaimed %2$d bytes", manifests.size(), bytes));
     }
 
     public File getDir() {
@@ -35,5 +379,29 @@ public class CleanTask extends Task {
     public void setDir(File dir) {
         this.dir = dir;
     }
-    
+
+    public String getLevel() {
+        return level;
+    }
+
+    public void setLevel(String level) {
+        this.level = level;
+    }
+
+    public boolean isDryrun() {
+        return dryrun;
+    }
+
+    public void setDryrun(boolean dryrun) {
+        this.dryrun = dryrun;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
 }
@@ -0,0 +1,191 @@
+package de.lekse.ant.typesetting.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Compiles several documents concurrently. Every nested typeset element is
+ * built by a worker of a pool bounded by the number of threads, hence the
+ * documents of a build keep all cores busy.
+ *
+ * @author Lekse
+ */
+public class ParallelTypesetTask extends Task {
+    
+    private static final String DEFAULT_DOCUMENT_TASK_NAME = "typeset";
+    
+    /**
+     * Documents to compile.
+     */
+    private List<TypesetTask> documents;
+    
+    /**
+     * Defines the maximum number of documents compiled at the same time.
+     * Defaults to the number of available processors.
+     */
+    private int threads;
+    
+    /**
+     * If true, the task fails if one of the documents could not be compiled.
+     * Defaults to true.
+     */
+    private boolean failonerror;
+    
+    /**
+     * Default constructor
+     */
+    public ParallelTypesetTask() {
+        // Call parent constructor
+        super();
+        
+        // Initialize lists
+        this.documents = new ArrayList<>();
+        
+        // Set default parameters
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.failonerror = true;
+    }
+    
+    /**
+     * Compiles documents on a bounded pool of workers.
+     *
+     * @param owner Task on whose behalf the documents are compiled
+     * @param documents Documents to compile
+     * @param threads Maximum number of documents compiled at the same time
+     * @return Number of documents which could not be compiled
+     */
+    static int typesetAll(Task owner, List<TypesetTask> documents, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, documents.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        
+        try {
+            // Submit all documents
+            for (final TypesetTask document : documents) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        document.perform();
+                        
+                        return null;
+                    }
+                }));
+            }
+            
+            // Wait for all documents and report failures per document
+            int failures = 0;
+            
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    owner.log(String.format("%1$s failed: %2$s", documents.get(i).getJobname(), e.getCause().getMessage()), Project.MSG_ERR);
+                }
+            }
+            
+            return failures;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            
+            throw new BuildException("Interrupted while compiling documents", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Validates the parameters passed to the task.
+     *
+     * @throws BuildException
+     */
+    private void validateAttributes() throws BuildException {
+        // Require a positive number of threads
+        if (this.threads < 1) {
+            throw new BuildException(String.format("Number of threads has to be at least 1 but is %1$d", this.threads));
+        }
+        
+        // Require distinct outputs, as concurrent builds must not share their files
+        Map<File,TypesetTask> outputs = new HashMap<>();
+        
+        for (TypesetTask document : this.documents) {
+            if (document.getDocument() == null) {
+                throw new BuildException("Document attribute has to be specified");
+            }
+            
+            if (document.isContinuous()) {
+                throw new BuildException(String.format("Document \"%1$s\" cannot be compiled in continuous mode", document.getDocument().getAbsoluteFile()));
+            }
+            
+            File output = document.getOutputFile("").getAbsoluteFile();
+            
+            if (outputs.put(output, document) != null) {
+                throw new BuildException(String.format("Several documents are compiled to \"%1$s\", use distinct output directories or names", output));
+            }
+        }
+    }
+    
+    @Override
+    public void execute() throws BuildException {
+        // Bind the documents to the project of this task
+        for (TypesetTask document : this.documents) {
+            if (document.getProject() == null) {
+                document.setProject(this.getProject());
+            }
+            
+            document.setOwningTarget(this.getOwningTarget());
+        }
+        
+        // Validate attributes of the task
+        this.validateAttributes();
+        
+        // Prefix the messages of each document with its job name
+        for (TypesetTask document : this.documents) {
+            String taskName = document.getTaskName() != null ? document.getTaskName() : DEFAULT_DOCUMENT_TASK_NAME;
+            
+            document.setTaskName(String.format("%1$s:%2$s", taskName, document.getJobname()));
+        }
+        
+        int failures = typesetAll(this, this.documents, this.threads);
+        
+        if (failures > 0) {
+            String message = String.format("%1$d of %2$d documents could not be compiled", failures, this.documents.size());
+            
+            if (this.failonerror) {
+                throw new BuildException(message);
+            }
+            
+            this.log(message, Project.MSG_WARN);
+        }
+    }
+    
+    public void addTypeset(TypesetTask document) {
+        this.documents.add(document);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isFailonerror() {
+        return failonerror;
+    }
+
+    public void setFailonerror(boolean failonerror) {
+        this.failonerror = failonerror;
+    }
+}
@@ -1,26 +1,70 @@
 package de.lekse.ant.typesetting.tasks;
 
+import de.lekse.ant.typesetting.build.AuxiliaryState;
+import de.lekse.ant.typesetting.build.AuxiliaryTool;
+import de.lekse.ant.typesetting.build.AuxiliaryToolRunner;
+import de.lekse.ant.typesetting.build.BuildArtifacts;
+import de.lekse.ant.typesetting.build.BuildManifest;
+import de.lekse.ant.typesetting.build.BuildMetrics;
+import de.lekse.ant.typesetting.build.BuildPlan;
+import de.lekse.ant.typesetting.build.BuildScheduler;
+import de.lekse.ant.typesetting.build.CancellableBuild;
+import de.lekse.ant.typesetting.build.DependencyGraph;
+import de.lekse.ant.typesetting.build.Fingerprint;
+import de.lekse.ant.typesetting.build.IncludeUnits;
+import de.lekse.ant.typesetting.build.StagingDirectory;
+import de.lekse.ant.typesetting.cache.ArtifactStore;
+import de.lekse.ant.typesetting.cache.FigureCache;
+import de.lekse.ant.typesetting.cache.FormatCache;
 import de.lekse.ant.typesetting.messages.AbstractMessage;
 import de.lekse.ant.typesetting.messages.ErrorMessage;
-import de.lekse.ant.typesetting.messages.WarningMessage;
+import de.lekse.ant.typesetting.messages.LogListener;
+import de.lekse.ant.typesetting.messages.LogParser;
+import de.lekse.ant.typesetting.process.ProcessEngine;
+import de.lekse.ant.typesetting.process.ProcessResult;
+import de.lekse.ant.typesetting.process.RunningProcess;
+import de.lekse.ant.typesetting.watch.ChangeFilter;
+import de.lekse.ant.typesetting.watch.ChangeWatcher;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardWatchEventKinds;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
-import org.apache.tools.ant.taskdefs.ExecTask;
-import org.apache.tools.ant.types.Environment.Variable;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Reference;
+import org.apache.tools.ant.util.LineOrientedOutputStream;
 
 public class TypesetTask extends Task {
     
@@ -35,8 +79,127 @@ public class TypesetTask extends Task {
     private static final String TYPE_BEAMER_ARTICLE = "beamer-article";
     
     private static final String ENV_VARIABLE_TEXINPUTS = "TEXINPUTS";
+    
+    private static final String ENV_VARIABLE_TEXFORMATS = "TEXFORMATS";
+    
+    private static final String DEFAULT_COMPILER = "pdflatex";
+    
+    /**
+     * Placeholders of the name pattern of a variant.
+     */
+    private static final String VARIANT_JOBNAME = "{jobname}";
+    
+    private static final String VARIANT_VERSION = "{version}";
+    
+    private static final String VARIANT_LANGUAGE = "{language}";
 
-    private static final String EXEC_PROPERTY_NAMESPACE = TypesetTask.class.getSimpleName().toLowerCase();
+    private static final String THREAD_NAMESPACE = TypesetTask.class.getSimpleName().toLowerCase();
+    
+    private static final String PDF_EXTENSION = ".pdf";
+    
+    private static final String LOG_EXTENSION = ".log";
+    
+    private static final String MANIFEST_EXTENSION = BuildManifest.EXTENSION;
+    
+    private static final String RECORDER_EXTENSION = ".fls";
+    
+    private static final String DEPENDENCY_EXTENSION = ".deps";
+    
+    /**
+     * Extension of the file recording the files read by the \include units
+     * of the last complete build, which are previewed separately.
+     */
+    private static final String UNITS_EXTENSION = ".units";
+    
+    private static final String FIGURE_LIST_EXTENSION = ".figlist";
+    
+    private static final String CHECKSUM_EXTENSION = ".md5";
+    
+    /**
+     * Extension of the file recording the fingerprints of the inputs of the
+     * last runs of bibtex, biber and makeindex.
+     */
+    private static final String TOOLS_EXTENSION = ".tools";
+    
+    /**
+     * Number of passes which the output of bibtex, biber and makeindex may
+     * add beyond maxpasses.
+     */
+    private static final int TOOL_PASSES = 2;
+    
+    /**
+     * Extensions of the files of a job which are read back by the next build
+     * and therefore copied into the staging directory.
+     */
+    private static final List<String> STAGED_EXTENSIONS = Arrays.asList(".aux", ".toc", ".nav", ".snm", ".out", ".bbl", ".ind", TOOLS_EXTENSION, ".figlist");
+    
+    private static final String RERUN_REQUEST = "Rerun to get";
+    
+    private static final Charset LOG_CHARSET = Charset.forName("ISO-8859-1");
+    
+    private static final Charset DOCUMENT_CHARSET = Charset.forName("UTF-8");
+    
+    /**
+     * Marks the position of the TikZ system call while the preamble is
+     * assembled. Shared figure names are derived from the preamble including
+     * the marker.
+     */
+    private static final String SYSTEM_CALL_PLACEHOLDER = "\\tikzsetsystemcall";
+    
+    /**
+     * Defines the macro holding the language of the document.
+     */
+    private static final String LANGUAGE_MACRO = "\\newcommand\\locale{%1$s}";
+    
+    /**
+     * Matches the name given to the externalized figures in the preamble.
+     */
+    private static final Pattern FIGURE_NAME_PATTERN = Pattern.compile("\\\\tikzsetfigurename\\{([^}]*)\\}");
+    
+    /**
+     * Matches the TikZ pictures of a document, which are externalized.
+     */
+    private static final Pattern PICTURE_PATTERN = Pattern.compile("(?s)\\\\begin\\{tikzpicture\\}.*?\\\\end\\{tikzpicture\\}|\\\\tikz\\b[^;]*;");
+    
+    /**
+     * Marks the end of the part of a document which is precompiled into the
+     * format (see the mylatexformat package).
+     */
+    private static final String END_OF_DUMP = "\\endofdump";
+    
+    /**
+     * Skips the precompiled part of a document, which starts at its
+     * \documentclass and ends at the \endofdump marker.
+     */
+    private static final String SKIP_DUMPED_DOCUMENT = "\\long\\def\\documentclass#1\\endofdump{}";
+    
+    private static final String SCROLL_MODE = "\\scrollmode";
+    
+    private static final String NONSTOP_MODE = "\\nonstopmode";
+    
+    /**
+     * Locks by the canonical path of a format file, which serialize its
+     * precompilation, as formats may be shared by tasks running in parallel.
+     * Distinct formats are precompiled concurrently.
+     */
+    private static final ConcurrentMap<String,Object> FORMAT_LOCKS = new ConcurrentHashMap<>();
+    
+    /**
+     * Versions reported by the compilers, which are part of the keys of
+     * stored artifacts.
+     */
+    private static final Map<String,String> ENGINE_VERSIONS = new ConcurrentHashMap<>();
+    
+    /**
+     * Name of the directory to which stored formats are restored.
+     */
+    private static final String ARTIFACT_FORMAT_ROOT = "format";
+    
+    /**
+     * Extensions of files which are written by pdflatex or the TikZ
+     * externalization and therefore never trigger a build in continuous mode.
+     */
+    private static final List<String> GENERATED_EXTENSIONS = Arrays.asList(".aux", ".auxlock", ".log", ".pdf", ".toc", ".nav", ".snm", ".out", ".fls", ".synctex.gz", ".md5", ".dpth", ".bbl", ".blg", ".bcf", ".run.xml", ".idx", ".ind", ".ilg", TOOLS_EXTENSION, DEPENDENCY_EXTENSION, UNITS_EXTENSION, MANIFEST_EXTENSION);
     
     /**
      * Defines the type of the compiled document. The type can be on of the
@@ -94,7 +257,8 @@ public class TypesetTask extends Task {
     
     /**
      * Defines a set of files, which should be watched concerning changes. If a related document is changes, the
-     * typesetting job is executed.
+     * typesetting job is executed. Files read by pdflatex are tracked automatically using its recorder, hence
+     * only files which are not read directly (e.g. sources of generated figures) have to be listed here.
      */
     private List<FileSet> relatedDocuments;
     
@@ -104,6 +268,19 @@ public class TypesetTask extends Task {
      */
     private boolean draft;
     
+    /**
+     * If true, the passes of a build which are followed by further passes
+     * are run with the -draftmode option, which skips writing the PDF and
+     * embedding images and fonts. As soon as the auxiliary files are stable,
+     * a single final pass writes the document. Only builds without auxiliary
+     * files of an earlier build start in draft mode, and they keep drafting
+     * the passes rerun for changed auxiliary files or for the output of
+     * bibtex, biber or makeindex. Other builds never draft, as their first
+     * pass is usually the final one and a pass rerun after it usually as
+     * well, so drafting would cost another pass. Defaults to false.
+     */
+    private boolean draftpasses;
+    
     /**
      * If true, the continuous compiler mode is enabled instead of the one-shot mode.
      */
@@ -119,6 +296,19 @@ public class TypesetTask extends Task {
      */
     private File cachedir;
     
+    /**
+     * Defines the maximum size of the cache directory, in bytes or with one
+     * of the suffixes k, M and G. The least recently used figures are evicted
+     * after a build until the cache fits. No limit by default.
+     */
+    private long cachemaxsize;
+    
+    /**
+     * Defines the number of days after which a figure which has not been used
+     * is evicted from the cache directory. No limit by default.
+     */
+    private int cachemaxage;
+    
     /**
      * If true, the task outputs the log produced by the pdflatex invocation.
      * Defaults to false.
@@ -132,6 +322,296 @@ public class TypesetTask extends Task {
      */
     private org.apache.tools.ant.types.Path inputPath;
     
+    /**
+     * If true, the document is compiled even if none of its inputs has been
+     * changed since the last successful build. Defaults to false.
+     */
+    private boolean force;
+    
+    /**
+     * Defines the maximum number of pdflatex passes. Further passes are only
+     * run while the auxiliary files (.aux, .toc, .nav, .snm, .out) change or
+     * the log asks to rerun. If the output of bibtex, biber or makeindex has
+     * changed, two more passes are allowed to include it and to resolve the
+     * references to it. Defaults to 1.
+     */
+    private int maxpasses;
+    
+    /**
+     * Defines the time in milliseconds for which no further change has to be
+     * observed before continuous mode starts a build. Bursts of changes (e.g.
+     * an editor saving several files) thereby cause a single build. Defaults
+     * to 300.
+     */
+    private long quietperiod;
+    
+    /**
+     * If true, the static part of the preamble (document class, TikZ and the
+     * part of the document preceding an \endofdump marker) is precompiled
+     * into a format which is reused by later builds. The format is dumped
+     * again as soon as the preamble or one of the loaded packages changes.
+     * Defaults to false.
+     */
+    private boolean precompile;
+    
+    /**
+     * If true, pdflatex is killed as soon as it reports the first error
+     * instead of continuing with the follow-on errors, and the task fails.
+     * Defaults to false.
+     */
+    private boolean failfast;
+    
+    /**
+     * If true, the task fails if the document could not be compiled. In
+     * continuous mode the failure is only reported. Defaults to false.
+     */
+    private boolean failonerror;
+    
+    /**
+     * If true, continuous mode keeps a pdflatex process waiting which has
+     * already processed the preamble, so that a change only costs compiling
+     * the document itself. The waiting process writes into a staging
+     * directory of its own, hence a warm compiler implies staging. Requires
+     * the continuous attribute. Defaults to false.
+     */
+    private boolean warm;
+    
+    /**
+     * If true, continuous mode compiles only the \include units affected by
+     * a change with \includeonly against the .aux files of the other units,
+     * and builds the whole document once editing has gone quiet. Requires
+     * the continuous attribute. Defaults to false.
+     */
+    private boolean preview;
+    
+    /**
+     * Defines the time in milliseconds without further changes after which a
+     * preview is followed by a build of the whole document. Defaults to 5000.
+     */
+    private long previewdelay;
+    
+    /**
+     * Defines the executable of the compiler, which has to accept the command
+     * line options of pdflatex. Defaults to pdflatex.
+     */
+    private String compiler;
+    
+    /**
+     * If true, bibtex, biber and makeindex are run as soon as a pass requests
+     * them by writing \bibdata to the .aux file, a .bcf file or an .idx file.
+     * A tool only runs if the citations, databases or index entries have
+     * changed since its last run, and pdflatex only runs again if the output
+     * of the tool has changed, even if maxpasses has been reached. As the
+     * output of a tool may never settle, at most two passes are added beyond
+     * maxpasses. Defaults to true.
+     */
+    private boolean auxiliarytools;
+    
+    /**
+     * Defines the executable of bibtex. Defaults to bibtex.
+     */
+    private String bibtex;
+    
+    /**
+     * Defines the executable of biber. Defaults to biber.
+     */
+    private String biber;
+    
+    /**
+     * Defines the executable of makeindex. Defaults to makeindex.
+     */
+    private String makeindex;
+    
+    /**
+     * If true, pdflatex writes into a private staging directory instead of
+     * the output directory. The files read back by the next build (.aux,
+     * .toc, .bbl etc.) are copied into it before the build, and the generated
+     * files are moved into the output directory only if the build succeeds,
+     * the document last, so that the output directory never contains a
+     * partially written document. Implied by the warm attribute. Defaults to
+     * false.
+     */
+    private boolean staging;
+    
+    /**
+     * Defines the directory in which the staging directories are created.
+     * Defaults to /dev/shm if available and to the temporary directory
+     * otherwise.
+     */
+    private File stagingdir;
+    
+    /**
+     * Staging directory of the running build, which replaces the output
+     * directory meanwhile.
+     */
+    private volatile File stagedOutputDirectory;
+    
+    /**
+     * Defines the prefix of the properties to which the metrics of a build
+     * (times, passes, figures and up to date hits) are published, e.g.
+     * prefix.time and prefix.passes. No properties are set by default.
+     */
+    private String metricsprefix;
+    
+    /**
+     * Defines the report to which the metrics of every build are appended, as
+     * comma separated values if its name ends with .csv and as one JSON object
+     * per line otherwise.
+     */
+    private File metricsfile;
+    
+    /**
+     * Defines the directory in which precompiled formats are cached. Defaults
+     * to the cache directory or, if undefined, the output directory.
+     */
+    private File formatdir;
+    
+    /**
+     * Defines a directory in which the final document, the externalized
+     * figures and the precompiled formats are stored by a key of all inputs,
+     * the compiler version and the attributes. Builds of identical documents,
+     * e.g. in other checkouts on the same host, restore them instead of
+     * compiling again. No artifacts are stored by default.
+     */
+    private File artifactcache;
+    
+    /**
+     * If true, the TikZ externalization only lists the pictures during the
+     * main pass (mode "list and make"). The outdated pictures are then
+     * compiled concurrently and included by a final main pass. Requires the
+     * cache attribute. Defaults to false.
+     */
+    private boolean parallelfigures;
+    
+    /**
+     * Defines the maximum number of figures compiled at the same time.
+     * Defaults to the number of available processors.
+     */
+    private int figurethreads;
+    
+    /**
+     * Defines a comma separated list of versions, e.g. "beamer,
+     * beamer-handout". Every combination of a version and a language is
+     * compiled as a variant of the document. Replaces the version attribute.
+     * The versions only share their externalized figures if they use the
+     * same document class, as it affects the pictures.
+     */
+    private String versions;
+    
+    /**
+     * Defines a comma separated list of languages, e.g. "de,en". Every
+     * combination of a version and a language is compiled as a variant of the
+     * document. Replaces the language attribute. The languages share their
+     * externalized figures unless a TikZ picture of the document refers to
+     * \locale.
+     */
+    private String languages;
+    
+    /**
+     * Defines the output name of every variant, in which {jobname}, {version}
+     * and {language} are replaced. Every variant is written to a subdirectory
+     * of the output directory named like its output. Defaults to the job name
+     * followed by the varied version and language, separated by dashes.
+     */
+    private String variantname;
+    
+    /**
+     * Defines the maximum number of variants compiled at the same time.
+     * Defaults to the number of available processors.
+     */
+    private int variantthreads;
+    
+    /**
+     * If true, the externalized figures are named after the preamble instead
+     * of the job name, so that the variants with the same preamble share
+     * them.
+     */
+    private boolean sharedfigures;
+    
+    /**
+     * If true, the language is left out of the name of shared figures, as no
+     * picture refers to it. The variants of all languages then share their
+     * figures.
+     */
+    private boolean languageIndependentFigures;
+    
+    /**
+     * Dependency graph scanned once for all variants, used until a variant
+     * has recorded its own graph.
+     */
+    private DependencyGraph sharedGraph;
+    
+    /**
+     * Engine starting the pdflatex processes, created on first use.
+     */
+    private ProcessEngine processEngine;
+    
+    /**
+     * Compiler waiting with the processed preamble for the next build.
+     */
+    private CompilerProcess standbyCompiler;
+    
+    /**
+     * Staging directory into which the standby compiler writes, adopted by
+     * the next build.
+     */
+    private File standbyDirectory;
+    
+    /**
+     * Invocation for which the standby compiler has been started.
+     */
+    private String standbyKey;
+    
+    /**
+     * Last invocation of a warm compiler, from which the standby compiler is
+     * started.
+     */
+    private BuildPlan warmPlan;
+    
+    private String warmFormat;
+    
+    private boolean warmDraftmode;
+    
+    private String warmInput;
+    
+    /**
+     * Pdflatex processes of the running build, used to cancel the build.
+     */
+    private Set<RunningProcess> runningProcesses = Collections.newSetFromMap(new ConcurrentHashMap<RunningProcess,Boolean>());
+    
+    /**
+     * If true, the running build has been cancelled.
+     */
+    private volatile boolean cancelled;
+    
+    /**
+     * Dependency graph of the last build in continuous mode.
+     */
+    private volatile DependencyGraph watchedGraph;
+    
+    /**
+     * Units compiled by the running preview, null for a build of the whole
+     * document.
+     */
+    private volatile Set<String> previewUnits;
+    
+    /**
+     * If true, the output has been written by a preview instead of a build
+     * of the whole document.
+     */
+    private volatile boolean previewed;
+    
+    /**
+     * If true, the next build replaces the preview by the whole document.
+     */
+    private volatile boolean completePreview;
+    
+    /**
+     * Plan of the last build, which is reused as long as the attributes it
+     * has been created from are unchanged.
+     */
+    private volatile BuildPlan buildPlan;
+    
     /**
      * Default constructor
      */
@@ -146,9 +626,27 @@ public class TypesetTask extends Task {
         this.type = TYPE_DEFAULT;
         
         this.draft = false;
+        this.draftpasses = false;
         this.continuous = false;
         this.cache = false;
         this.verbose = false;
+        this.force = false;
+        this.maxpasses = 1;
+        this.quietperiod = 300;
+        this.precompile = false;
+        this.failfast = false;
+        this.failonerror = false;
+        this.warm = false;
+        this.preview = false;
+        this.previewdelay = 5000;
+        this.compiler = DEFAULT_COMPILER;
+        this.auxiliarytools = true;
+        this.bibtex = AuxiliaryTool.BIBTEX.getName();
+        this.biber = AuxiliaryTool.BIBER.getName();
+        this.makeindex = AuxiliaryTool.MAKEINDEX.getName();
+        this.parallelfigures = false;
+        this.figurethreads = Runtime.getRuntime().availableProcessors();
+        this.variantthreads = Runtime.getRuntime().availableProcessors();
     }
     
     /**
@@ -184,10 +682,73 @@ public class TypesetTask extends Task {
             throw new BuildException(String.format("Output directory \"%1$s\" does not exist", this.outputdir.getAbsoluteFile()));
         }
         
+        // Require an existing format directory
+        if (this.formatdir != null && !this.formatdir.exists() ) {
+            throw new BuildException(String.format("Format directory \"%1$s\" does not exist", this.formatdir.getAbsoluteFile()));
+        }
+        
+        // Require the TikZ externalization for compiling figures in parallel
+        if (this.parallelfigures && !this.cache) {
+            throw new BuildException("Compiling figures in parallel requires the cache attribute");
+        }
+        
+        // Require a positive number of figure threads
+        if (this.figurethreads < 1) {
+            throw new BuildException(String.format("Number of figure threads has to be at least 1 but is %1$d", this.figurethreads));
+        }
+        
+        // Require continuous mode for keeping a warm compiler
+        if (this.warm && !this.continuous) {
+            throw new BuildException("A warm compiler requires the continuous attribute");
+        }
+        
+        // Require continuous mode for previews
+        if (this.preview && !this.continuous) {
+            throw new BuildException("Previews require the continuous attribute");
+        }
+        
+        if (this.previewdelay < 0) {
+            throw new BuildException(String.format("Preview delay has to be non-negative but is %1$d", this.previewdelay));
+        }
+        
+        // Require a non-negative quiet period
+        if (this.quietperiod < 0) {
+            throw new BuildException(String.format("Quiet period has to be non-negative but is %1$d", this.quietperiod));
+        }
+        
+        // Require at least one pass
+        if (this.maxpasses < 1) {
+            throw new BuildException(String.format("Maximum number of passes has to be at least 1 but is %1$d", this.maxpasses));
+        }
+        
+        // Require an existing staging directory
+        if (this.stagingdir != null && !this.stagingdir.isDirectory()) {
+            throw new BuildException(String.format("Staging directory \"%1$s\" does not exist", this.stagingdir.getAbsoluteFile()));
+        }
+        
         // Require an existing cache directory
         if (this.cachedir != null && !this.cachedir.exists() ) {
             throw new BuildException(String.format("Cache directory \"%1$s\" does not exist", this.cachedir.getAbsoluteFile()));
         }
+        
+        // Require a cache directory for limiting its size and age
+        if ((this.cachemaxsize != 0 || this.cachemaxage != 0) && this.cachedir == null) {
+            throw new BuildException("Limiting the size or age of the cache requires the cachedir attribute");
+        }
+        
+        if (this.cachemaxsize < 0 || this.cachemaxage < 0) {
+            throw new BuildException("Maximum size and age of the cache have to be non-negative");
+        }
+        
+        // Require the one-shot mode for compiling variants
+        if (this.isMatrix() && this.continuous) {
+            throw new BuildException("Variants cannot be compiled in continuous mode");
+        }
+        
+        // Require a positive number of variant threads
+        if (this.variantthreads < 1) {
+            throw new BuildException(String.format("Number of variant threads has to be at least 1 but is %1$d", this.variantthreads));
+        }
     }
 
     /**
@@ -196,83 +757,181 @@ public class TypesetTask extends Task {
      * @throws BuildException
      */
     private void validateCompiler() throws BuildException {
-        // TODO Implement validateCompiler
+        // Require the compiler attribute
+        if (this.compiler == null || this.compiler.isEmpty()) {
+            throw new BuildException("Compiler attribute has to be specified");
+        }
+        
+        // A path is resolved against the working directory of pdflatex
+        if (this.compiler.indexOf('/') >= 0 || this.compiler.indexOf(File.separatorChar) >= 0) {
+            File executable = new File(this.compiler);
+            
+            if (!executable.isAbsolute()) {
+                executable = new File(this.getWorkingDirectory(), this.compiler);
+            }
+            
+            if (!isExecutable(executable)) {
+                throw new BuildException(String.format("Compiler \"%1$s\" does not exist or is not executable", executable.getAbsolutePath()));
+            }
+            
+            return;
+        }
+        
+        // A name is searched on the PATH
+        String path = System.getenv("PATH");
+        
+        if (path != null) {
+            for (String dir : path.split(Pattern.quote(File.pathSeparator))) {
+                if (dir.isEmpty()) {
+                    continue;
+                }
+                
+                for (String extension : getExecutableExtensions()) {
+                    if (isExecutable(new File(dir, this.compiler.concat(extension)))) {
+                        return;
+                    }
+                }
+            }
+        }
+        
+        throw new BuildException(String.format("Compiler \"%1$s\" could not be found on the PATH, install it or specify its location by the compiler attribute", this.compiler));
     }
     
     /**
-     * Parses errors and warnings raised by the pdflatex invocation.
-     * 
-     * @param log Raw output from pdflatex process
+     * Determines the extensions which may be omitted from the name of an
+     * executable, which are only defined on Windows.
      */
-    private List<AbstractMessage> parseLog(String log) {
-        List<AbstractMessage> messages = new ArrayList<>();
-        String[] logs = log.replace("\r\n", "\n").split("\n");
-
-        for (int i = 0; i < logs.length; i++) {
-            String line = logs[i];
-
-            // Capture error
-            if (line.startsWith("!")) {
-                // Concat error in current and subsequent line
-                String error = String.format("%1$s %2$s", line.substring(2), logs[i + 1]);
-
-                // Skip subsequent line
-                i += 1;
-
-                // Append error to list
-                messages.add(new ErrorMessage(error));
-            }
-            // Capture warning
-            else if (line.startsWith("LaTeX Warning")) {
-                String warning = line.substring(15);
-
-                // Append warning to list
-                messages.add(new WarningMessage(warning));
+    private static List<String> getExecutableExtensions() {
+        List<String> extensions = new ArrayList<>();
+        extensions.add("");
+        
+        String pathExt = System.getenv("PATHEXT");
+        
+        if (pathExt != null) {
+            for (String extension : pathExt.split(Pattern.quote(File.pathSeparator))) {
+                if (!extension.isEmpty()) {
+                    extensions.add(extension.toLowerCase());
+                }
             }
         }
         
-        return messages;
+        return extensions;
     }
     
-    private void displayLog(List<AbstractMessage> messages) {
-        // Display errors and warnings
+    private static boolean isExecutable(File file) {
+        return file.isFile() && file.canExecute();
+    }
+    
+    /**
+     * Determines whether an error has been reported.
+     * 
+     * @param messages Errors and warnings reported by a pdflatex invocation
+     * @return True if one of the messages is an error
+     */
+    private boolean hasErrors(List<AbstractMessage> messages) {
         for (AbstractMessage message : messages) {
-            this.log(message.toString());
+            if (message instanceof ErrorMessage) {
+                return true;
+            }
         }
+        
+        return false;
     }
     
-    private void buildDocument() throws BuildException {
-        // Get project
-        Project _project = this.getProject();
-        
-        // Create buffer for preamble
-        StringBuilder preamble = new StringBuilder();
+    /**
+     * Determines the directory in which pdflatex is run, which is the base
+     * directory or the base directory of the project.
+     */
+    private File getWorkingDirectory() {
+        return this.basedir != null ? this.basedir : this.getProject().getBaseDir();
+    }
+    
+    /**
+     * Determines the base path against which the document and cache paths
+     * are resolved.
+     */
+    private Path getBasePath() {
+        return Paths.get(this.getWorkingDirectory().getAbsolutePath());
+    }
+    
+    /**
+     * Determines the name of the document without its .tex extension.
+     */
+    private String getDocumentWithoutExt() {
+        String documentName = this.document.getName();
         
-        // Determine input document
-        Path basePath = Paths.get((this.basedir != null ? this.basedir : _project.getBaseDir()).getAbsolutePath());
-        Path documentPath = Paths.get(this.document.getParent());
-        Path relativeDocumentPath = basePath.relativize(documentPath);
+        return documentName.substring(0, documentName.lastIndexOf("."));
+    }
+    
+    /**
+     * Determines the job name which is passed to pdflatex.
+     */
+    String getJobname() {
+        if (this.outputname != null) {
+            // Use the defined output name as job name
+            return this.outputname;
+        }
         
-        String documentName = this.document.getName();
-        String documentWithoutExt = documentName.substring(0, documentName.lastIndexOf("."));
-        String documentSeparator = relativeDocumentPath.toString().isEmpty() ? "" : "/";
+        // Use the document name as job name
+        return this.getDocumentWithoutExt();
+    }
+    
+    /**
+     * Determines the directory in which pdflatex writes the generated files,
+     * which is the staging directory while a staged build is running.
+     */
+    private File getOutputDirectory() {
+        File stagedDirectory = this.stagedOutputDirectory;
         
-        String inputDocument = String.format("%1$s%3$s%2$s", relativeDocumentPath.toString().replaceAll("\\\\", "/"), documentWithoutExt, documentSeparator);
+        if (stagedDirectory != null) {
+            return stagedDirectory;
+        }
         
-        // Determine relative cache path
-        String externalPrefix = "";
+        return this.getTargetDirectory();
+    }
+    
+    /**
+     * Determines the directory which finally contains the generated files.
+     */
+    private File getTargetDirectory() {
+        if (this.outputdir != null) {
+            return this.outputdir;
+        }
         
-        if (this.cachedir != null) {
-            Path cachePath = Paths.get(this.cachedir.getPath());
-            Path relativeCachePath = basePath.relativize(cachePath);
-            externalPrefix = relativeCachePath.toString().replaceAll("\\\\", "/");
-            
-            // Ensure that the external prefix ends with a trailing slash
-            if (!externalPrefix.endsWith("/")) {
-                externalPrefix = externalPrefix.concat("/");
-            }
+        return this.getWorkingDirectory();
+    }
+    
+    /**
+     * Determines a file generated for the current job name.
+     * 
+     * @param extension Extension of the generated file including the dot
+     */
+    File getOutputFile(String extension) {
+        return new File(this.getOutputDirectory(), this.getJobname().concat(extension));
+    }
+    
+    /**
+     * Determines the value of the TEXINPUTS environment variable or null if
+     * no input path has been defined.
+     */
+    private String getTexInputs() {
+        if (this.inputPath == null) {
+            return null;
         }
         
+        // Determine complete input path path (prepend base path and append default texinputs)
+        return String.format("%1$s%2$s", this.inputPath.toString(), File.pathSeparator);
+    }
+    
+    /**
+     * Creates the static part of the preamble, i.e. the document class and
+     * the packages loaded for the TikZ externalization. This part does not
+     * depend on the document and can be precompiled into a format.
+     */
+    private String createStaticPreamble() {
+        // Create buffer for preamble
+        StringBuilder preamble = new StringBuilder();
+        
         // Document class
         String _documentclass = null;
         
@@ -311,176 +970,2456 @@ public class TypesetTask extends Task {
             }
         }
         
-        if (_documentclass != null) {
-            // Add document class to preamble
-            preamble.append(_documentclass);
-
-            // Overwrite the documentclass
-            preamble.append("\\renewcommand\\documentclass[2][]{}");
-        }
-        
-        // Ensure compatibility with TikZ externalize feature
-        if (this.cache) {
-            // Insert TikZ code into preamble
-            preamble.append("\\usepackage{tikz}");
-            preamble.append("\\usetikzlibrary{external}");
+        if (_documentclass != null) {
+            // Add document class to preamble
+            preamble.append(_documentclass);
+
+            // Overwrite the documentclass
+            preamble.append("\\renewcommand\\documentclass[2][]{}");
+        }
+        
+        // Ensure compatibility with TikZ externalize feature
+        if (this.cache) {
+            // Insert TikZ code into preamble
+            preamble.append("\\usepackage{tikz}");
+            preamble.append("\\usetikzlibrary{external}");
+        }
+        
+        return preamble.toString();
+    }
+    
+    /**
+     * Determines the path of the document relative to the base directory
+     * without its extension, as passed to \input.
+     */
+    private String getInputDocument() {
+        Path basePath = this.getBasePath();
+        Path documentPath = Paths.get(this.document.getParent());
+        Path relativeDocumentPath = basePath.relativize(documentPath);
+        
+        String documentWithoutExt = this.getDocumentWithoutExt();
+        String documentSeparator = relativeDocumentPath.toString().isEmpty() ? "" : "/";
+        
+        return String.format("%1$s%3$s%2$s", relativeDocumentPath.toString().replace('\\', '/'), documentWithoutExt, documentSeparator);
+    }
+    
+    /**
+     * Creates the command which inputs the document, the last part of the
+     * preamble. A preview restricts the document to its changed units.
+     */
+    private String getInputCommand() {
+        Set<String> units = this.previewUnits;
+        
+        if (units != null) {
+            StringBuilder names = new StringBuilder();
+            
+            for (String unit : units) {
+                names.append(names.length() > 0 ? "," : "").append(unit);
+            }
+            
+            return String.format("\\includeonly{%1$s}\\input{%2$s}", names, this.getInputDocument());
+        }
+        
+        return String.format("\\input{%1$s}", this.getInputDocument());
+    }
+    
+    /**
+     * Creates the preamble which is passed to pdflatex on the standard input.
+     */
+    private String createPreamble() {
+        // Create buffer for preamble
+        StringBuilder preamble = new StringBuilder();
+        
+        // Determine input document
+        Path basePath = this.getBasePath();
+        String inputDocument = this.getInputDocument();
+        
+        // Determine relative cache path
+        String externalPrefix = "";
+        
+        if (this.cachedir != null) {
+            Path cachePath = Paths.get(this.cachedir.getPath());
+            Path relativeCachePath = basePath.relativize(cachePath);
+            externalPrefix = relativeCachePath.toString().replace('\\', '/');
+            
+            // Ensure that the external prefix ends with a trailing slash
+            if (!externalPrefix.endsWith("/")) {
+                externalPrefix = externalPrefix.concat("/");
+            }
+        }
+        
+        // Document class and packages
+        preamble.append(this.createStaticPreamble());
+        
+        // Ensure compatibility with TikZ externalize feature
+        int systemCallIndex = -1;
+        
+        if (this.cache) {
+            // Insert placeholder for system call definition
+            systemCallIndex = preamble.length();
+            preamble.append(SYSTEM_CALL_PLACEHOLDER);
+        }
+        
+        // Only list the figures, they are compiled concurrently after the main pass
+        if (this.cache && this.parallelfigures) {
+            preamble.append("\\tikzset{external/mode=list and make}");
+        }
+        
+        // Define tikz cache dir
+        if (this.cache && this.cachedir != null) {
+            preamble.append("\\tikzsetexternalprefix{").append(externalPrefix).append('}');
+        }
+        
+        // Language
+        int languageIndex = preamble.length();
+        
+        if (this.language != null) {
+            preamble.append(String.format(LANGUAGE_MACRO, this.language));
+        }
+        
+        // Name the figures after everything they are compiled with, except for the job name
+        if (this.cache && this.sharedfigures) {
+            StringBuilder figurePreamble = new StringBuilder(preamble);
+            
+            if (this.languageIndependentFigures) {
+                figurePreamble.setLength(languageIndex);
+            }
+            
+            preamble.append(String.format("\\tikzsetfigurename{%1$s-%2$s-figure}", this.getDocumentWithoutExt(), Fingerprint.of(figurePreamble.toString()).substring(0, 8)));
+        }
+
+        // Set input document
+        preamble.append(this.getInputCommand());
+        
+        // Set TikZ externalize system call
+        if (systemCallIndex >= 0) {
+            // Figure jobs are passed the preamble without the system call
+            preamble.delete(systemCallIndex, systemCallIndex + SYSTEM_CALL_PLACEHOLDER.length());
+            
+            StringBuilder systemCall = new StringBuilder(preamble.length() * 2);
+            systemCall.append("\\tikzset{external/system call={").append(this.compiler);
+            systemCall.append(" \\tikzexternalcheckshellescape -halt-on-error -interaction=batchmode -recorder -jobname \"\\image\" \"\\string\\def\\string\\tikzexternalrealjob{");
+            systemCall.append(inputDocument).append('}');
+            appendEscaped(systemCall, preamble);
+            systemCall.append("\"}}");
+            
+            preamble.insert(systemCallIndex, systemCall);
+        }
+        
+        return preamble.toString();
+    }
+    
+    /**
+     * Appends text to a TikZ system call, where every backslash has to be
+     * written as \string\ in order to reach the shell unexpanded.
+     */
+    private static void appendEscaped(StringBuilder target, CharSequence text) {
+        int start = 0;
+        
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\\') {
+                target.append(text, start, i).append("\\string\\");
+                start = i + 1;
+            }
+        }
+        
+        target.append(text, start, text.length());
+    }
+    
+    /**
+     * Describes everything the build plan is created from. The input path is
+     * described by its resolved elements, which make up TEXINPUTS.
+     */
+    private String createPlanKey() {
+        StringBuilder key = new StringBuilder(256);
+        key.append(this.document.getAbsolutePath()).append('|');
+        key.append(this.getBasePath()).append('|');
+        key.append(this.outputname).append('|');
+        key.append(this.outputdir).append('|');
+        key.append(this.type).append('|');
+        key.append(this.documentclass).append('|');
+        key.append(this.documentattributes).append('|');
+        key.append(this.language).append('|');
+        key.append(this.cache).append('|');
+        key.append(this.cachedir).append('|');
+        key.append(this.formatdir).append('|');
+        key.append(this.parallelfigures).append('|');
+        key.append(this.sharedfigures).append('|');
+        key.append(this.languageIndependentFigures).append('|');
+        key.append(this.compiler).append('|');
+        key.append(this.inputPath != null ? Arrays.toString(this.inputPath.list()) : null).append('|');
+        key.append(this.previewUnits);
+        
+        return key.toString();
+    }
+    
+    /**
+     * Returns the plan of a build with the current attributes. The plan is
+     * created by the first build and reused by later builds until one of the
+     * attributes changes.
+     * 
+     * @return Plan of the next build
+     */
+    public BuildPlan getBuildPlan() {
+        String key = this.createPlanKey();
+        BuildPlan plan = this.buildPlan;
+        
+        if (plan != null && plan.getKey().equals(key)) {
+            return plan;
+        }
+        
+        plan = this.createBuildPlan(key);
+        
+        // A preview compiles other units and must not replace the plan of the whole document
+        if (this.previewUnits == null) {
+            this.buildPlan = plan;
+        }
+        
+        return plan;
+    }
+    
+    /**
+     * Creates a new plan of a build with the current attributes, which
+     * assembles the preamble, the command line and the environment.
+     * 
+     * @return Plan of the next build, not reused by later builds
+     */
+    public BuildPlan createBuildPlan() {
+        return this.createBuildPlan(this.createPlanKey());
+    }
+    
+    private BuildPlan createBuildPlan(String key) {
+        String jobname = this.getJobname();
+        String texInputs = this.getTexInputs();
+        List<String> arguments = Arrays.asList("-shell-escape", "-interaction=nonstopmode", "-recorder", String.format("-jobname=%1$s", jobname));
+        Map<String,String> environment = texInputs != null ? Collections.singletonMap(ENV_VARIABLE_TEXINPUTS, texInputs) : Collections.<String,String>emptyMap();
+        Map<String,String> formatEnvironment = Collections.singletonMap(ENV_VARIABLE_TEXFORMATS, String.format("%1$s%2$s", this.getFormatDirectory().getAbsolutePath(), File.pathSeparator));
+        
+        return new BuildPlan(key, jobname, this.createStaticPreamble(), this.createPreamble(), this.getInputCommand(), texInputs, this.compiler, arguments, environment, formatEnvironment);
+    }
+    
+    /**
+     * Determines the directories which contain the inputs of the document
+     * itself, as opposed to the files of the TeX distribution.
+     */
+    private List<File> getInputRoots() {
+        List<File> roots = new ArrayList<>();
+        roots.add(this.getBasePath().toFile());
+        roots.add(this.document.getAbsoluteFile().getParentFile());
+        
+        if (this.inputPath != null) {
+            for (String element : this.inputPath.list()) {
+                roots.add(new File(element));
+            }
+        }
+        
+        if (this.cachedir != null) {
+            roots.add(this.cachedir);
+        }
+        
+        return roots;
+    }
+    
+    /**
+     * Loads the dependency graph recorded by the last build or scans the
+     * document if no graph has been recorded.
+     */
+    DependencyGraph loadDependencyGraph() {
+        DependencyGraph graph = DependencyGraph.load(this.getOutputFile(DEPENDENCY_EXTENSION));
+        
+        if (graph == null && this.sharedGraph != null) {
+            graph = this.sharedGraph;
+        }
+        
+        if (graph == null) {
+            graph = DependencyGraph.scan(this.document, this.getInputRoots());
+        }
+        
+        return graph;
+    }
+    
+    /**
+     * Records the dependency graph of the last pdflatex pass next to the
+     * output.
+     * 
+     * @return Recorded dependency graph or null if pdflatex did not write a
+     *         recorder file
+     */
+    private DependencyGraph recordDependencyGraph() {
+        File workingDir = this.getWorkingDirectory();
+        DependencyGraph graph = DependencyGraph.parseRecorder(this.getOutputFile(RECORDER_EXTENSION), workingDir);
+        
+        if (graph == null) {
+            return null;
+        }
+        
+        graph = graph.restrictTo(this.getInputRoots());
+        
+        // The main pass does not read the inputs of externalized figures
+        if (this.cache) {
+            graph = graph.withInputs(this.recordFigureDependencies(graph));
+        }
+        
+        // Nor the databases read by bibtex and biber
+        if (this.auxiliarytools) {
+            graph = graph.withInputs(AuxiliaryToolRunner.findInputs(this.getOutputDirectory(), this.getJobname(), this.getInputRoots()));
+        }
+        
+        try {
+            graph.store(this.getOutputFile(DEPENDENCY_EXTENSION));
+        } catch (IOException e) {
+            this.log(String.format("Dependency graph could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+        }
+        
+        return graph;
+    }
+    
+    /**
+     * Records the \include units of the document and the files read by them
+     * from the recorder file of the last pdflatex pass.
+     */
+    private void recordIncludeUnits() {
+        File workingDir = this.getWorkingDirectory();
+        IncludeUnits units = IncludeUnits.parseRecorder(this.getOutputFile(RECORDER_EXTENSION), workingDir, this.getJobname());
+        File unitsFile = this.getOutputFile(UNITS_EXTENSION);
+        
+        if (units == null) {
+            unitsFile.delete();
+            
+            return;
+        }
+        
+        try {
+            units.store(unitsFile);
+        } catch (IOException e) {
+            this.log(String.format("Include units could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    /**
+     * Determines the externalized figures of the document, which are either
+     * listed by the last main pass or included by it.
+     * 
+     * @param graph Dependency graph of the last main pass
+     * @return Figures as files without extension
+     */
+    private Set<File> findFigures(DependencyGraph graph) {
+        File workingDir = this.getWorkingDirectory();
+        Set<File> figures = new TreeSet<>();
+        
+        for (String figure : this.readFigureList()) {
+            figures.add(new File(workingDir, figure).getAbsoluteFile());
+        }
+        
+        // Included figures are accompanied by the checksum written by TikZ
+        for (File input : graph.getInputs()) {
+            String path = input.getPath();
+            
+            if (path.endsWith(PDF_EXTENSION)) {
+                String figure = path.substring(0, path.length() - PDF_EXTENSION.length());
+                
+                if (new File(figure.concat(CHECKSUM_EXTENSION)).isFile()) {
+                    figures.add(new File(figure));
+                }
+            }
+        }
+        
+        return figures;
+    }
+    
+    /**
+     * Records the files read by the jobs of the figures, apart from the files
+     * read by the main pass as well. This covers data read by a picture, e.g.
+     * through \input or pgfplots tables, which the checksum of TikZ does not
+     * cover.
+     * 
+     * @param graph Dependency graph of the last main pass
+     * @return Inputs of all figures
+     */
+    private Set<File> recordFigureDependencies(DependencyGraph graph) {
+        File workingDir = this.getWorkingDirectory();
+        Set<File> figureInputs = new TreeSet<>();
+        
+        for (File figure : this.findFigures(graph)) {
+            File recorderFile = new File(figure.getPath().concat(RECORDER_EXTENSION));
+            File dependencyFile = new File(figure.getPath().concat(FigureCache.DEPENDENCY_EXTENSION));
+            
+            // Only figures compiled since their inputs have been recorded
+            if (recorderFile.isFile() && recorderFile.lastModified() >= dependencyFile.lastModified()) {
+                DependencyGraph figureGraph = DependencyGraph.parseRecorder(recorderFile, workingDir);
+                
+                if (figureGraph != null) {
+                    BuildManifest manifest = new BuildManifest();
+                    
+                    for (File input : figureGraph.restrictTo(this.getInputRoots()).getInputs()) {
+                        boolean documentFile = graph.getInputs().contains(input) || graph.getOutputs().contains(input);
+                        boolean auxiliaryFile = hasGeneratedExtension(input.getName()) && !input.getName().endsWith(PDF_EXTENSION);
+                        
+                        // Graphics included by the picture are inputs, files of the figure itself are not
+                        if (!documentFile && !auxiliaryFile && !input.getPath().startsWith(figure.getPath())) {
+                            manifest.putInput(input);
+                        }
+                    }
+                    
+                    try {
+                        manifest.store(dependencyFile);
+                    } catch (IOException e) {
+                        this.log(String.format("Dependencies of figure %1$s could not be written: %2$s", figure.getName(), e.getMessage()), Project.MSG_WARN);
+                    }
+                }
+            }
+            
+            BuildManifest recorded = BuildManifest.load(dependencyFile);
+            
+            if (recorded != null) {
+                figureInputs.addAll(recorded.getInputs().keySet());
+            }
+        }
+        
+        return figureInputs;
+    }
+    
+    /**
+     * Removes the figures whose recorded inputs have been changed since they
+     * have been compiled, so that they are compiled again.
+     */
+    private void invalidateFigures() {
+        DependencyGraph graph = DependencyGraph.load(this.getOutputFile(DEPENDENCY_EXTENSION));
+        
+        if (graph == null) {
+            return;
+        }
+        
+        for (File figure : this.findFigures(graph)) {
+            BuildManifest recorded = BuildManifest.load(new File(figure.getPath().concat(FigureCache.DEPENDENCY_EXTENSION)));
+            
+            if (recorded == null) {
+                continue;
+            }
+            
+            BuildManifest current = new BuildManifest();
+            
+            for (File input : recorded.getInputs().keySet()) {
+                current.putInput(input);
+            }
+            
+            String change = current.findChange(recorded);
+            
+            if (change != null) {
+                this.log(String.format("Figure %1$s is outdated because %2$s", figure.getName(), change), Project.MSG_VERBOSE);
+                new File(figure.getPath().concat(PDF_EXTENSION)).delete();
+            }
+        }
+    }
+    
+    /**
+     * Describes the attributes which affect the invocation of pdflatex or the
+     * location of the generated files.
+     */
+    private String describeAttributes() {
+        return String.format("type=%1$s;documentclass=%2$s;documentattributes=%3$s;language=%4$s;draft=%5$s;cache=%6$s;cachedir=%7$s;basedir=%8$s;compiler=%9$s;jobname=%10$s;outputdir=%11$s;draftpasses=%12$s;precompile=%13$s",
+                this.type, this.documentclass, this.documentattributes, this.language, this.draft, this.cache, this.cachedir, this.getBasePath(),
+                this.compiler, this.getJobname(), this.getTargetDirectory().getAbsolutePath(), this.draftpasses, this.precompile);
+    }
+    
+    /**
+     * Records the fingerprints of all inputs which affect the build of the
+     * document.
+     * 
+     * @param preamble Generated preamble
+     * @param texInputs Value of the TEXINPUTS environment variable
+     * @param graph Dependency graph of the document
+     * @param recorded Manifest whose fingerprints are reused for files it
+     *                 contains
+     */
+    private BuildManifest createManifest(String preamble, String texInputs, DependencyGraph graph, BuildManifest recorded) {
+        BuildManifest manifest = new BuildManifest();
+        
+        // Record the generated preamble and the environment
+        manifest.putValue("preamble", preamble);
+        manifest.putValue("texinputs", texInputs);
+        
+        // Record the attributes which affect the invocation of pdflatex
+        manifest.putValue("attributes", this.describeAttributes());
+        
+        // Record the document itself and the files it reads
+        manifest.putInput(this.document.getAbsoluteFile(), recorded);
+        
+        for (File input : graph.getInputs()) {
+            manifest.putInput(input, recorded);
+        }
+        
+        // Record the related documents
+        for (FileSet fileSet : this.relatedDocuments) {
+            DirectoryScanner scanner = fileSet.getDirectoryScanner(this.getProject());
+            
+            for (String includedFile : scanner.getIncludedFiles()) {
+                manifest.putInput(new File(scanner.getBasedir(), includedFile), recorded);
+            }
+        }
+        
+        return manifest;
+    }
+    
+    /**
+     * Records the figures used by the build in the cache directory and evicts
+     * the figures exceeding the size or age of the cache.
+     * 
+     * @param graph Dependency graph of the last pass
+     * @param startTime Time at which the build has started in milliseconds
+     * @param metrics Metrics to which hits and misses are added
+     */
+    private void updateFigureCache(DependencyGraph graph, long startTime, BuildMetrics metrics) {
+        FigureCache.Report report;
+        
+        try {
+            report = new FigureCache(this.cachedir).update(graph.getInputs(), startTime, this.cachemaxsize, TimeUnit.DAYS.toMillis(this.cachemaxage));
+        } catch (IOException e) {
+            this.log(String.format("Figure cache could not be updated: %1$s", e.getMessage()), Project.MSG_WARN);
+            
+            return;
+        }
+        
+        // Figures compiled in parallel have been counted already
+        if (!this.parallelfigures) {
+            metrics.setFigures(report.getMisses(), report.getHits());
+        }
+        
+        metrics.setFiguresEvicted(report.getEvictions());
+        
+        this.log(String.format("Figure cache: %1$d hits, %2$d misses, %3$d evictions (%4$d bytes), %5$d bytes in use",
+                report.getHits(), report.getMisses(), report.getEvictions(), report.getEvictedBytes(), report.getSize()),
+                report.getEvictions() > 0 ? Project.MSG_INFO : Project.MSG_VERBOSE);
+    }
+    
+    /**
+     * Parses a size in bytes, optionally followed by one of the suffixes k, M
+     * and G.
+     */
+    private static long parseSize(String size) throws BuildException {
+        String value = size.trim();
+        long factor = 1;
+        
+        if (value.endsWith("k") || value.endsWith("K")) {
+            factor = 1L << 10;
+        }
+        else if (value.endsWith("M")) {
+            factor = 1L << 20;
+        }
+        else if (value.endsWith("G")) {
+            factor = 1L << 30;
+        }
+        
+        if (factor > 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        
+        try {
+            return Long.parseLong(value) * factor;
+        } catch (NumberFormatException e) {
+            throw new BuildException(String.format("\"%1$s\" is no valid size", size), e);
+        }
+    }
+    
+    /**
+     * Records the files written by the build in the manifest, so that they
+     * can be cleaned selectively.
+     * 
+     * @param manifest Manifest of the successful build
+     * @param graph Dependency graph of the last pass or null
+     * @param format Name of the precompiled format or null
+     */
+    private void recordOutputs(BuildManifest manifest, DependencyGraph graph, String format) {
+        File product = this.getOutputFile(PDF_EXTENSION).getAbsoluteFile();
+        
+        // Files written by the last pass and the known generated files of the job
+        Set<File> outputs = new HashSet<>();
+        
+        if (graph != null) {
+            outputs.addAll(graph.getOutputs());
+        }
+        
+        for (String extension : GENERATED_EXTENSIONS) {
+            outputs.add(this.getOutputFile(extension));
+        }
+        
+        outputs.add(this.getOutputFile(FIGURE_LIST_EXTENSION));
+        
+        for (File output : outputs) {
+            File file = output.getAbsoluteFile();
+            
+            // The manifest and the dependency graph are needed to detect that the document is up to date
+            if (!file.isFile() || file.getName().endsWith(MANIFEST_EXTENSION) || file.getName().endsWith(DEPENDENCY_EXTENSION)) {
+                continue;
+            }
+            
+            manifest.putOutput(file, file.equals(product) ? BuildManifest.OUTPUT_PRODUCT : BuildManifest.OUTPUT_AUXILIARY);
+        }
+        
+        manifest.putOutput(this.getOutputFile(DEPENDENCY_EXTENSION), BuildManifest.OUTPUT_CACHE);
+        
+        // Externalized figures
+        File workingDir = this.getWorkingDirectory();
+        
+        for (String figure : this.readFigureList()) {
+            for (String extension : Arrays.asList(PDF_EXTENSION, CHECKSUM_EXTENSION, ".dpth", LOG_EXTENSION, RECORDER_EXTENSION, FigureCache.DEPENDENCY_EXTENSION)) {
+                File file = new File(workingDir, figure.concat(extension));
+                
+                if (file.isFile()) {
+                    manifest.putOutput(file, BuildManifest.OUTPUT_CACHE);
+                }
+            }
+        }
+        
+        // Precompiled format
+        if (format != null) {
+            for (File file : new FormatCache(this.getFormatDirectory()).getFiles(format)) {
+                if (file.isFile()) {
+                    manifest.putOutput(file, BuildManifest.OUTPUT_CACHE);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Determines the version reported by the compiler.
+     */
+    private String getEngineVersion() throws BuildException {
+        String version = ENGINE_VERSIONS.get(this.compiler);
+        
+        if (version != null) {
+            return version;
+        }
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        
+        try {
+            RunningProcess process = this.getProcessEngine().start(Arrays.asList(this.compiler, "--version"), new HashMap<String,String>(), output, null);
+            process.closeInput();
+            process.waitFor();
+            
+            // The first line names the engine and its version
+            version = new String(output.toByteArray(), LOG_CHARSET).split("\\r?\\n", 2)[0].trim();
+        } catch (IOException e) {
+            throw new BuildException(String.format("%1$s could not be executed: %2$s", this.compiler, e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            
+            throw new BuildException(String.format("Interrupted while executing %1$s", this.compiler), e);
+        }
+        
+        ENGINE_VERSIONS.put(this.compiler, version);
+        
+        return version;
+    }
+    
+    /**
+     * Creates the artifacts of the document in the output directory.
+     */
+    private BuildArtifacts createArtifacts() {
+        return new BuildArtifacts(this.getOutputDirectory(), this.getWorkingDirectory());
+    }
+    
+    /**
+     * Creates the key under which the artifacts of the document are stored.
+     * 
+     * @param preamble Generated preamble
+     * @param texInputs Value of the TEXINPUTS environment variable
+     * @param manifest Manifest of the current inputs
+     */
+    private String createArtifactKey(String preamble, String texInputs, BuildManifest manifest) throws BuildException {
+        Map<String,String> values = new LinkedHashMap<>();
+        values.put("attributes", this.describeAttributes());
+        values.put("texinputs", texInputs);
+        values.put("preamble", preamble);
+        
+        return this.createArtifacts().createKey(String.format("%1$s;%2$s", this.getCompilerName(), this.getEngineVersion()), this.getJobname(), values, manifest);
+    }
+    
+    /**
+     * Restores the artifacts of a previous build of identical inputs.
+     * 
+     * @param key Key of the artifacts
+     * @return Restored files or null if no artifacts have been stored
+     */
+    private List<File> restoreArtifacts(String key) {
+        try {
+            return new ArtifactStore(this.artifactcache).restore(key, this.createArtifacts().getRoots());
+        } catch (IOException e) {
+            this.log(String.format("Artifacts could not be restored: %1$s", e.getMessage()), Project.MSG_WARN);
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Stores the outputs of a successful build, except for the files which
+     * refer to the checkout by absolute paths and the format, which is stored
+     * on its own.
+     * 
+     * @param key Key of the artifacts
+     * @param manifest Manifest of the build including its outputs
+     * @param format Name of the precompiled format or null
+     */
+    private void publishArtifacts(String key, BuildManifest manifest, String format) {
+        Set<File> excluded = new HashSet<>();
+        
+        if (format != null) {
+            for (File file : new FormatCache(this.getFormatDirectory()).getFiles(format)) {
+                excluded.add(file.getAbsoluteFile());
+            }
+        }
+        
+        Map<String,File> files = this.createArtifacts().selectFiles(manifest, excluded, Arrays.asList(DEPENDENCY_EXTENSION, RECORDER_EXTENSION, FigureCache.DEPENDENCY_EXTENSION));
+        
+        try {
+            if (new ArtifactStore(this.artifactcache).publish(key, files)) {
+                this.log(String.format("Stored %1$d artifacts of %2$s", files.size(), this.getJobname()), Project.MSG_VERBOSE);
+            }
+        } catch (IOException e) {
+            this.log(String.format("Artifacts could not be stored: %1$s", e.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    /**
+     * Replaces the outputs of the last build which are linked to the artifact
+     * store with private copies before pdflatex writes them.
+     */
+    private void detachOutputs() {
+        BuildManifest recorded = BuildManifest.load(this.getOutputFile(MANIFEST_EXTENSION));
+        
+        if (recorded == null) {
+            return;
+        }
+        
+        for (File output : recorded.getOutputs().keySet()) {
+            try {
+                ArtifactStore.detach(output);
+            } catch (IOException e) {
+                this.log(String.format("\"%1$s\" could not be detached from the artifact cache: %2$s", output, e.getMessage()), Project.MSG_WARN);
+            }
+        }
+    }
+    
+    /**
+     * Determines the key under which a precompiled format is stored.
+     */
+    private String createFormatKey(String name) throws BuildException {
+        return Fingerprint.of(String.format("format=%1$s%nengine=%2$s%n", name, this.getEngineVersion()));
+    }
+    
+    /**
+     * Determines why the document has to be built.
+     * 
+     * @param manifest Manifest of the current inputs
+     * @return Reason for building the document or null if the document is up
+     *         to date
+     */
+    private String findChange(BuildManifest manifest) {
+        // Require the generated output
+        File outputFile = this.getOutputFile(this.draft ? LOG_EXTENSION : PDF_EXTENSION);
+        
+        if (!outputFile.exists()) {
+            return String.format("%1$s does not exist", outputFile.getAbsolutePath());
+        }
+        
+        // Compare the inputs with the inputs of the last successful build
+        return manifest.findChange(BuildManifest.load(this.getOutputFile(MANIFEST_EXTENSION)));
+    }
+    
+    /**
+     * Determines whether the log of the last pass asks for another pass.
+     */
+    private boolean isRerunRequested() {
+        File logFile = this.getOutputFile(LOG_EXTENSION);
+        
+        if (!logFile.isFile()) {
+            return false;
+        }
+        
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), LOG_CHARSET))) {
+            String line;
+            
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(RERUN_REQUEST)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            this.log(String.format("Log file \"%1$s\" could not be read: %2$s", logFile.getAbsolutePath(), e.getMessage()), Project.MSG_WARN);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Determines the directory in which precompiled formats are cached.
+     */
+    private File getFormatDirectory() {
+        if (this.formatdir != null) {
+            return this.formatdir;
+        }
+        
+        return this.cachedir != null ? this.cachedir : this.getTargetDirectory();
+    }
+    
+    /**
+     * Reads the part of the document preceding the \endofdump marker, which
+     * is precompiled into the format together with the static preamble.
+     * 
+     * @return Part of the document to precompile or null if the document does
+     *         not contain the marker
+     */
+    private String readDumpedDocument() throws BuildException {
+        StringBuilder dumped = new StringBuilder();
+        
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.document), DOCUMENT_CHARSET))) {
+            String line;
+            
+            while ((line = reader.readLine()) != null) {
+                int marker = line.indexOf(END_OF_DUMP);
+                int comment = line.indexOf('%');
+                
+                if (marker >= 0 && (comment < 0 || comment > marker)) {
+                    // Stop in front of the marker
+                    dumped.append(line.substring(0, marker));
+                    
+                    return dumped.toString();
+                }
+                
+                dumped.append(line).append('\n');
+            }
+        } catch (IOException e) {
+            throw new BuildException(String.format("Document \"%1$s\" could not be read: %2$s", this.document.getAbsoluteFile(), e.getMessage()), e);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Ensures that a valid precompiled format for the preamble exists.
+     * 
+     * @param formatPreamble Preamble to precompile
+     * @param plan Plan of the build
+     * @return Name of the format or null if the format could not be dumped
+     */
+    private String prepareFormat(String formatPreamble, BuildPlan plan) {
+        FormatCache formatCache = new FormatCache(this.getFormatDirectory());
+        String name = formatCache.getName(formatPreamble, this.compiler);
+        
+        // Formats may be shared by several tasks
+        synchronized (getFormatLock(formatCache.getFormatFile(name))) {
+            if (formatCache.isValid(name)) {
+                this.log(String.format("Using precompiled format %1$s", formatCache.getFormatFile(name)), Project.MSG_VERBOSE);
+                
+                return name;
+            }
+            
+            // Restore the format dumped by another build
+            if (this.artifactcache != null) {
+                try {
+                    List<File> restored = new ArtifactStore(this.artifactcache).restore(this.createFormatKey(name), Collections.singletonMap(ARTIFACT_FORMAT_ROOT, formatCache.getDir().getAbsoluteFile()));
+                    
+                    if (restored != null && formatCache.isValid(name)) {
+                        this.log(String.format("Restored precompiled format %1$s from the artifact cache", formatCache.getFormatFile(name)), Project.MSG_VERBOSE);
+                        
+                        return name;
+                    }
+                } catch (IOException e) {
+                    this.log(String.format("Format could not be restored: %1$s", e.getMessage()), Project.MSG_WARN);
+                }
+            }
+            
+            this.log(String.format("Precompiling format %1$s", formatCache.getFormatFile(name)));
+            
+            try {
+                formatCache.prepare(name, formatPreamble);
+                
+                // Dump the format based on the default LaTeX format
+                List<String> command = plan.createCommand(null);
+                command.add("-ini");
+                command.add("-interaction=nonstopmode");
+                command.add("-recorder");
+                command.add(String.format("-jobname=%1$s", name));
+                command.add(String.format("-output-directory=%1$s", formatCache.getDir()));
+                command.add(String.format("&%1$s", this.getCompilerName()));
+                command.add(formatCache.getSourceFile(name).getAbsolutePath());
+                
+                this.runProcess(command, plan.createEnvironment(null), null, false);
+                
+                if (formatCache.record(name, this.getProcessEngine().getWorkingDir())) {
+                    if (this.artifactcache != null) {
+                        this.publishFormat(formatCache, name);
+                    }
+                    
+                    return name;
+                }
+            } catch (IOException e) {
+                this.log(String.format("Format could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+            }
+        }
+        
+        this.log(String.format("Format %1$s could not be precompiled, compiling without it", name), Project.MSG_WARN);
+        
+        return null;
+    }
+    
+    /**
+     * Determines the lock serializing the precompilation of a format.
+     */
+    private static Object getFormatLock(File formatFile) {
+        String key;
+        
+        try {
+            key = formatFile.getCanonicalPath();
+        } catch (IOException e) {
+            key = formatFile.getAbsolutePath();
+        }
+        
+        Object lock = new Object();
+        Object existing = FORMAT_LOCKS.putIfAbsent(key, lock);
+        
+        return existing != null ? existing : lock;
+    }
+    
+    /**
+     * Stores a dumped format together with its recorded inputs.
+     */
+    private void publishFormat(FormatCache formatCache, String name) throws IOException {
+        Map<String,File> files = new TreeMap<>();
+        
+        for (File file : Arrays.asList(formatCache.getFormatFile(name), new File(formatCache.getDir(), name.concat(DEPENDENCY_EXTENSION)), new File(formatCache.getDir(), name.concat(MANIFEST_EXTENSION)))) {
+            files.put(String.format("%1$s/%2$s", ARTIFACT_FORMAT_ROOT, file.getName()), file);
+        }
+        
+        new ArtifactStore(this.artifactcache).publish(this.createFormatKey(name), files);
+    }
+    
+    /**
+     * Returns the engine starting the pdflatex processes of this task.
+     */
+    private synchronized ProcessEngine getProcessEngine() {
+        if (this.processEngine == null) {
+            File workingDir = this.getWorkingDirectory();
+            
+            this.processEngine = new ProcessEngine(workingDir, String.format("%1$s-%2$s", THREAD_NAMESPACE, this.getJobname()));
+        }
+        
+        return this.processEngine;
+    }
+    
+    /**
+     * Determines the name of the compiler without directory and extension,
+     * which is also the name of its default format.
+     */
+    private String getCompilerName() {
+        String name = new File(this.compiler).getName();
+        int extensionIndex = name.lastIndexOf('.');
+        
+        return extensionIndex > 0 ? name.substring(0, extensionIndex) : name;
+    }
+    
+    /**
+     * Pdflatex process whose output is parsed while it is running.
+     */
+    private final class CompilerProcess {
+        
+        private final String name;
+        
+        private final boolean failfast;
+        
+        private final List<AbstractMessage> messages;
+        
+        private final LogParser parser;
+        
+        private final OutputStream output;
+        
+        private final OutputStream error;
+        
+        private final AtomicBoolean errorReported;
+        
+        private volatile RunningProcess process;
+        
+        private ProcessResult result;
+        
+        CompilerProcess(String name, boolean failfast) {
+            this.name = name;
+            this.failfast = failfast;
+            this.messages = new ArrayList<>();
+            this.errorReported = new AtomicBoolean();
+            
+            // Collect errors and warnings as soon as they are reported
+            this.parser = new LogParser(new LogListener() {
+                @Override
+                public void messageParsed(AbstractMessage message) {
+                    messages.add(message);
+                    
+                    // Display errors and warnings, the verbose output already contains them
+                    if (!verbose) {
+                        log(message.toString());
+                    }
+                    
+                    if (message instanceof ErrorMessage && !errorReported.getAndSet(true)) {
+                        abortAtError();
+                    }
+                }
+            });
+            
+            // Parse the output line by line, in verbose mode it is displayed as well
+            this.output = new LineOrientedOutputStream() {
+                @Override
+                protected void processLine(String line) {
+                    if (verbose) {
+                        log(line);
+                    }
+                    
+                    parser.parseLine(line);
+                }
+            };
+            
+            this.error = new LineOrientedOutputStream() {
+                @Override
+                protected void processLine(String line) {
+                    log(line, verbose ? Project.MSG_WARN : Project.MSG_VERBOSE);
+                }
+            };
+        }
+        
+        private void abortAtError() {
+            RunningProcess _process = this.process;
+            
+            if (this.failfast && _process != null) {
+                log(String.format("Aborting %1$s at the first error", this.name), Project.MSG_VERBOSE);
+                _process.cancel();
+            }
+        }
+        
+        String getName() {
+            return name;
+        }
+        
+        OutputStream getOutput() {
+            return output;
+        }
+        
+        OutputStream getError() {
+            return error;
+        }
+        
+        RunningProcess getProcess() {
+            return process;
+        }
+        
+        ProcessResult getResult() {
+            return result;
+        }
+        
+        void setResult(ProcessResult result) {
+            this.result = result;
+        }
+        
+        void setProcess(RunningProcess process) {
+            this.process = process;
+            
+            // An error may have been reported before the process has been set
+            if (this.errorReported.get()) {
+                this.abortAtError();
+            }
+        }
+        
+        /**
+         * Passes input to the process unless it has been killed.
+         */
+        void write(String input) {
+            if (input == null) {
+                return;
+            }
+            
+            try {
+                this.process.write(input, DOCUMENT_CHARSET);
+            } catch (IOException e) {
+                if (!this.process.isCancelled()) {
+                    log(String.format("Input could not be passed to %1$s: %2$s", this.name, e.getMessage()), Project.MSG_WARN);
+                }
+            }
+        }
+        
+        /**
+         * Completes parsing after the process has exited.
+         * 
+         * @return Errors and warnings reported by pdflatex
+         */
+        List<AbstractMessage> finish() {
+            this.parser.finish();
+            
+            return this.messages;
+        }
+        
+    }
+    
+    /**
+     * Starts pdflatex. Its output is parsed while it is running, but its
+     * input stays open until the process is completed by completeCompiler.
+     * 
+     * @param command Command line created by the build plan
+     * @param environment Environment created by the build plan
+     * @param failfast If true, the process is killed at the first error
+     */
+    private CompilerProcess startCompiler(List<String> command, Map<String,String> environment, boolean failfast) throws BuildException {
+        CompilerProcess compiler = new CompilerProcess(command.get(0), failfast);
+        
+        this.log(String.format("Executing %1$s", command), Project.MSG_DEBUG);
+        
+        try {
+            compiler.setProcess(this.getProcessEngine().start(command, environment, compiler.getOutput(), compiler.getError()));
+        } catch (IOException e) {
+            throw new BuildException(String.format("%1$s could not be executed: %2$s", compiler.getName(), e.getMessage()), e);
+        }
+        
+        return compiler;
+    }
+    
+    /**
+     * Passes the remaining input to pdflatex and waits for the process. The
+     * process is killed if the build is cancelled meanwhile.
+     * 
+     * @param compiler Process started by startCompiler
+     * @param input Input passed to pdflatex on the standard input or null
+     * @return Errors and warnings reported by pdflatex
+     */
+    private List<AbstractMessage> completeCompiler(CompilerProcess compiler, String input) throws BuildException {
+        RunningProcess process = compiler.getProcess();
+        this.runningProcesses.add(process);
+        
+        try {
+            if (this.cancelled) {
+                process.cancel();
+            }
+            
+            // Pass the input and signal its end
+            compiler.write(input);
+            process.closeInput();
+            
+            ProcessResult result = process.waitFor();
+            compiler.setResult(result);
+            
+            this.log(String.format("%1$s exited with code %2$d after %3$d ms", compiler.getName(), result.getExitCode(), TimeUnit.NANOSECONDS.toMillis(result.getWallNanos())), Project.MSG_DEBUG);
+        } catch (InterruptedException e) {
+            process.cancel();
+            Thread.currentThread().interrupt();
+            
+            throw new BuildException(String.format("Interrupted while executing %1$s", compiler.getName()), e);
+        } finally {
+            this.runningProcesses.remove(process);
+        }
+        
+        return compiler.finish();
+    }
+    
+    /**
+     * Executes pdflatex.
+     * 
+     * @param command Command line created by the build plan
+     * @param environment Environment created by the build plan
+     * @param input Input passed to pdflatex on the standard input or null
+     * @param failfast If true, the process is killed at the first error
+     * @return Errors and warnings reported by pdflatex
+     */
+    private List<AbstractMessage> runProcess(List<String> command, Map<String,String> environment, String input, boolean failfast) throws BuildException {
+        return this.completeCompiler(this.startCompiler(command, environment, failfast), input);
+    }
+    
+    /**
+     * Takes the standby compiler if it has been started for the same
+     * invocation and is still waiting for input. A standby compiler started
+     * for another invocation is discarded.
+     * 
+     * @param key Key of the invocation
+     * @return Standby compiler or null if it cannot be used
+     */
+    private synchronized CompilerProcess takeStandbyCompiler(String key) {
+        CompilerProcess compiler = this.standbyCompiler;
+        String standbyKey = this.standbyKey;
+        
+        this.standbyCompiler = null;
+        this.standbyKey = null;
+        
+        if (compiler == null) {
+            return null;
+        }
+        
+        if (!key.equals(standbyKey) || !compiler.getProcess().isRunning()) {
+            this.log("Discarding the outdated warm compiler", Project.MSG_VERBOSE);
+            
+            // The next compiler writes into the same directory
+            this.stopCompiler(compiler);
+            
+            return null;
+        }
+        
+        return compiler;
+    }
+    
+    /**
+     * Takes the staging directory of the standby compiler, which contains the
+     * state of the last build and is deleted by the taking build.
+     * 
+     * @return Staging directory or null if no standby compiler is waiting
+     */
+    private synchronized File takeStandbyDirectory() {
+        File directory = this.standbyDirectory;
+        this.standbyDirectory = null;
+        
+        return directory;
+    }
+    
+    /**
+     * Starts a new standby compiler for the last invocation of a warm
+     * compiler. The standby compiler already opens the log and recorder file
+     * of the document, hence it writes into a staging directory of its own
+     * instead of the output directory of the completed build.
+     */
+    private void replenishStandbyCompiler() {
+        BuildPlan plan;
+        String format;
+        boolean draftmode;
+        String input;
+        
+        synchronized (this) {
+            // Keep the standby compiler of an up to date document
+            if (this.standbyCompiler != null && this.standbyDirectory != null) {
+                return;
+            }
+            
+            plan = this.warmPlan;
+            format = this.warmFormat;
+            draftmode = this.warmDraftmode;
+            input = this.warmInput;
+        }
+        
+        if (plan == null) {
+            return;
+        }
+        
+        File directory;
+        CompilerProcess compiler;
+        List<String> command;
+        Map<String,String> environment = plan.createEnvironment(format);
+        
+        try {
+            directory = this.createStagingDirectory();
+            command = plan.createCommand(format, directory, draftmode);
+        } catch (BuildException e) {
+            this.log(String.format("Warm compiler could not be started: %1$s", e.getMessage()), Project.MSG_WARN);
+            
+            return;
+        }
+        
+        try {
+            compiler = this.startWarmCompiler(command, environment, input);
+        } catch (BuildException e) {
+            this.log(String.format("Warm compiler could not be started: %1$s", e.getMessage()), Project.MSG_WARN);
+            this.deleteStagingDirectory(directory);
+            
+            return;
+        }
+        
+        synchronized (this) {
+            this.discardStandbyCompiler();
+            this.standbyCompiler = compiler;
+            this.standbyDirectory = directory;
+            this.standbyKey = getStandbyKey(command, environment, input);
+        }
+    }
+    
+    private static String getStandbyKey(List<String> command, Map<String,String> environment, String warmInput) {
+        return String.format("%1$s%n%2$s%n%3$s", command, new TreeMap<>(environment), warmInput);
+    }
+    
+    /**
+     * Discards the standby compiler and its staging directory.
+     */
+    private synchronized void discardStandbyCompiler() {
+        if (this.standbyCompiler != null) {
+            this.stopCompiler(this.standbyCompiler);
+            this.standbyCompiler = null;
+            this.standbyKey = null;
+        }
+        
+        if (this.standbyDirectory != null) {
+            this.deleteStagingDirectory(this.standbyDirectory);
+            this.standbyDirectory = null;
+        }
+    }
+    
+    /**
+     * Kills a compiler and waits until it has exited, so that it no longer
+     * writes into its output directory.
+     */
+    private void stopCompiler(CompilerProcess compiler) {
+        compiler.getProcess().cancel();
+        
+        try {
+            compiler.getProcess().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Starts a compiler which processes the given part of the preamble and
+     * then waits for the rest of the input. The warm input ends with
+     * switching to scroll mode, in which pdflatex reads the next line from
+     * the terminal instead of aborting at the end of its input.
+     * 
+     * @param command Command line created by the build plan
+     * @param environment Environment created by the build plan
+     * @param warmInput Part of the input processed in advance
+     */
+    private CompilerProcess startWarmCompiler(List<String> command, Map<String,String> environment, String warmInput) throws BuildException {
+        CompilerProcess compiler = this.startCompiler(command, environment, this.failfast);
+        compiler.write(String.format("%1$s%2$s%n", warmInput, SCROLL_MODE));
+        
+        return compiler;
+    }
+    
+    /**
+     * Invokes pdflatex once.
+     * 
+     * @param plan Plan of the build
+     * @param preamble Generated preamble
+     * @param format Name of the precompiled format or null
+     * @param draftmode If true, pdflatex does not write the PDF
+     * @param metrics Metrics to which the pass is added
+     * @return Errors and warnings reported by pdflatex
+     */
+    private List<AbstractMessage> runCompiler(BuildPlan plan, String preamble, String format, boolean draftmode, BuildMetrics metrics) throws BuildException {
+        String jobname = plan.getJobname();
+        File outputDirectory = this.stagedOutputDirectory != null ? this.stagedOutputDirectory : this.outputdir;
+        List<String> command = plan.createCommand(format, outputDirectory, draftmode);
+        Map<String,String> environment = plan.createEnvironment(format);
+        
+        long startTime = System.nanoTime();
+        
+        // The input document is the last part of the input
+        int documentIndex = this.warm ? preamble.lastIndexOf(plan.getInputCommand()) : -1;
+        CompilerProcess compiler = null;
+        String input = preamble;
+        boolean standby = false;
+        
+        if (documentIndex >= 0) {
+            // Use the warm compiler which has already processed the preamble
+            String warmInput = preamble.substring(0, documentIndex);
+            compiler = this.takeStandbyCompiler(getStandbyKey(command, environment, warmInput));
+            
+            if (compiler != null) {
+                this.log(String.format("Using warm compiler for %1$s", jobname), Project.MSG_VERBOSE);
+                standby = true;
+            }
+            else {
+                compiler = this.startWarmCompiler(command, environment, warmInput);
+            }
+            
+            input = String.format("%1$s%2$s", NONSTOP_MODE, preamble.substring(documentIndex));
+            
+            // Remember the invocation for the next standby compiler
+            synchronized (this) {
+                this.warmPlan = plan;
+                this.warmFormat = format;
+                this.warmDraftmode = draftmode;
+                this.warmInput = warmInput;
+            }
+        }
+        
+        if (compiler == null) {
+            compiler = this.startCompiler(command, environment, this.failfast);
+        }
+        
+        List<AbstractMessage> messages = this.completeCompiler(compiler, input);
+        
+        // The standby compiler has been spawned and has processed the preamble in advance
+        ProcessResult result = compiler.getResult();
+        metrics.addPass(System.nanoTime() - startTime, standby ? 0 : result.getSpawnNanos(), standby ? -1 : result.getCpuMillis());
+        
+        return messages;
+    }
+    
+    /**
+     * Determines the figures listed by the TikZ externalization in list and
+     * make mode which have to be compiled. Like the generated makefile, a
+     * figure is compiled if its PDF is missing or older than its checksum.
+     * 
+     * @param figures Figures listed by the main pass
+     */
+    private List<String> findOutdatedFigures(List<String> figures) {
+        File workingDir = this.getWorkingDirectory();
+        List<String> outdated = new ArrayList<>();
+        
+        for (String figure : figures) {
+            File figureFile = new File(workingDir, figure.concat(PDF_EXTENSION));
+            File checksumFile = new File(workingDir, figure.concat(CHECKSUM_EXTENSION));
+            
+            if (!figureFile.exists() || checksumFile.lastModified() > figureFile.lastModified()) {
+                outdated.add(figure);
+            }
+        }
+        
+        return outdated;
+    }
+    
+    /**
+     * Reads the figures listed by the TikZ externalization in list and make
+     * mode.
+     */
+    private List<String> readFigureList() {
+        List<String> figures = new ArrayList<>();
+        File figureList = this.getOutputFile(FIGURE_LIST_EXTENSION);
+        
+        if (!figureList.isFile()) {
+            return figures;
+        }
+        
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(figureList), LOG_CHARSET))) {
+            String line;
+            
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    figures.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            this.log(String.format("Figure list \"%1$s\" could not be read: %2$s", figureList.getAbsolutePath(), e.getMessage()), Project.MSG_WARN);
+        }
+        
+        return figures;
+    }
+    
+    /**
+     * Compiles the outdated figures listed by the last main pass concurrently.
+     * Every figure is compiled by its own pdflatex process using the same
+     * preamble as the document.
+     * 
+     * @param plan Plan of the build
+     * @param preamble Input passed to pdflatex for the main pass
+     * @param format Name of the precompiled format or null
+     * @param messages List to which errors of figures are appended
+     * @param metrics Metrics to which the figures are added
+     * @return Number of compiled figures
+     */
+    private int compileFigures(final BuildPlan plan, String preamble, final String format, final List<AbstractMessage> messages, BuildMetrics metrics) throws BuildException {
+        List<String> figures = this.readFigureList();
+        List<String> outdated = this.findOutdatedFigures(figures);
+        
+        metrics.setFigures(outdated.size(), figures.size() - outdated.size());
+        
+        if (outdated.isEmpty()) {
+            this.log(String.format("All %1$d figures are up to date", figures.size()), Project.MSG_VERBOSE);
+            
+            return 0;
+        }
+        
+        // Figure jobs detect that they have to typeset a single picture by the name of the real job
+        final String figureInput = String.format("\\def\\tikzexternalrealjob{%1$s}%2$s", plan.getJobname(), preamble);
+        final File workingDir = this.getWorkingDirectory();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.figurethreads, outdated.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        
+        try {
+            for (final String figure : outdated) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        List<String> command = plan.createCommand(format);
+                        command.add("-shell-escape");
+                        command.add("-halt-on-error");
+                        command.add("-interaction=batchmode");
+                        command.add("-recorder");
+                        command.add(String.format("-jobname=%1$s", figure));
+                        
+                        runProcess(command, plan.createEnvironment(format), figureInput, true);
+                        
+                        if (!cancelled && !new File(workingDir, figure.concat(PDF_EXTENSION)).exists()) {
+                            ErrorMessage message = new ErrorMessage(String.format("Figure %1$s could not be compiled, see %1$s%2$s", figure, LOG_EXTENSION));
+                            log(message.toString());
+                            
+                            synchronized (messages) {
+                                messages.add(message);
+                            }
+                        }
+                        
+                        return null;
+                    }
+                }));
+            }
+            
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            
+            throw new BuildException("Interrupted while compiling figures", e);
+        } catch (ExecutionException e) {
+            throw new BuildException(String.format("Figure could not be compiled: %1$s", e.getCause().getMessage()), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        this.log(String.format("Compiled %1$d of %2$d figures", outdated.size(), figures.size()));
+        
+        return outdated.size();
+    }
+    
+    /**
+     * Runs an auxiliary tool once.
+     * 
+     * @param tool Tool to run
+     * @param command Command line of the tool
+     * @param environment Environment variables of the tool
+     * @return True if the tool has written a usable output
+     */
+    private boolean runAuxiliaryTool(AuxiliaryTool tool, List<String> command, Map<String,String> environment) throws BuildException {
+        String executable = command.get(0);
+        ProcessEngine engine = tool.isRunInOutputDirectory() ? new ProcessEngine(this.getOutputDirectory(), String.format("%1$s-%2$s-%3$s", THREAD_NAMESPACE, this.getJobname(), tool.getName())) : this.getProcessEngine();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RunningProcess process;
+        
+        this.log(String.format("Executing %1$s", command), Project.MSG_DEBUG);
+        
+        try {
+            process = engine.start(command, environment, output, output);
+        } catch (IOException e) {
+            this.log(String.format("%1$s could not be executed: %2$s", executable, e.getMessage()), Project.MSG_WARN);
+            
+            return false;
+        }
+        
+        ProcessResult result;
+        this.runningProcesses.add(process);
+        
+        try {
+            if (this.cancelled) {
+                process.cancel();
+            }
+            
+            process.closeInput();
+            result = process.waitFor();
+        } catch (InterruptedException e) {
+            process.cancel();
+            Thread.currentThread().interrupt();
+            
+            throw new BuildException(String.format("Interrupted while executing %1$s", executable), e);
+        } finally {
+            this.runningProcesses.remove(process);
+        }
+        
+        if (this.verbose) {
+            this.log(new String(output.toByteArray(), LOG_CHARSET));
+        }
+        
+        if (result.isCancelled()) {
+            return false;
+        }
+        
+        if (!tool.isSuccessful(result.getExitCode())) {
+            this.log(String.format("%1$s failed with exit code %2$d, see %3$s", executable, result.getExitCode(), this.getOutputFile(tool.getLogExtension()).getAbsolutePath()), Project.MSG_WARN);
+            
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Runs the auxiliary tools requested by the last pass whose inputs have
+     * changed since their last run.
+     * 
+     * @param texInputs Value of the TEXINPUTS environment variable
+     * @param metrics Metrics to which the runs are added
+     * @return True if the output of a tool has been changed, hence pdflatex
+     *         has to run again
+     */
+    private boolean runAuxiliaryTools(String texInputs, BuildMetrics metrics) throws BuildException {
+        File stateFile = this.getOutputFile(TOOLS_EXTENSION);
+        Map<AuxiliaryTool,String> executables = new HashMap<>();
+        executables.put(AuxiliaryTool.BIBTEX, this.bibtex);
+        executables.put(AuxiliaryTool.BIBER, this.biber);
+        executables.put(AuxiliaryTool.MAKEINDEX, this.makeindex);
+        
+        // Databases and styles are searched relative to the document
+        String searchPath = String.format("%1$s%2$s%3$s", this.getWorkingDirectory().getAbsolutePath(), File.pathSeparator, texInputs != null ? texInputs : "");
+        AuxiliaryToolRunner runner = new AuxiliaryToolRunner(this.getOutputDirectory(), this.getJobname(), this.getInputRoots(), searchPath, executables);
+        runner.load(stateFile);
+        
+        boolean outputChanged = runner.run(new AuxiliaryToolRunner.Executor() {
+            @Override
+            public boolean execute(AuxiliaryTool tool, List<String> command, Map<String,String> environment) {
+                return runAuxiliaryTool(tool, command, environment);
+            }
+        }, metrics);
+        
+        for (AuxiliaryTool tool : runner.getSkipped()) {
+            this.log(String.format("Skipping %1$s, its inputs have not been changed", tool.getName()), Project.MSG_VERBOSE);
+        }
+        
+        if (runner.getRuns() > 0) {
+            try {
+                runner.store(stateFile);
+            } catch (IOException e) {
+                this.log(String.format("State of the auxiliary tools could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+            }
+        }
+        
+        return outputChanged;
+    }
+    
+    /**
+     * Creates the staging directory of a build and copies the files read
+     * back from the previous build into it.
+     * 
+     * @return Staging directory
+     */
+    private File createStagingDirectory() throws BuildException {
+        File stagingRoot = this.stagingdir != null ? this.stagingdir : StagingDirectory.getDefaultRoot();
+        Path target = this.getTargetDirectory().toPath().toAbsolutePath().normalize();
+        
+        // State of the previous build
+        List<String> names = new ArrayList<>();
+        
+        for (String extension : STAGED_EXTENSIONS) {
+            names.add(this.getJobname().concat(extension));
+        }
+        
+        for (String figure : this.readFigureList()) {
+            names.add(figure.concat(CHECKSUM_EXTENSION));
+        }
+        
+        BuildManifest manifest = BuildManifest.load(this.getOutputFile(MANIFEST_EXTENSION));
+        
+        if (manifest != null) {
+            for (File output : manifest.getOutputs().keySet()) {
+                Path file = output.toPath().toAbsolutePath().normalize();
+                
+                if (file.startsWith(target) && file.getFileName().toString().endsWith(".aux")) {
+                    names.add(target.relativize(file).toString());
+                }
+            }
+        }
+        
+        try {
+            File staged = StagingDirectory.create(stagingRoot, String.format("%1$s-%2$s-", THREAD_NAMESPACE, this.getJobname()), target.toFile(), this.getWorkingDirectory(), this.loadDependencyGraph().getInputs(), names);
+            
+            this.log(String.format("Staging %1$s in \"%2$s\"", this.getJobname(), staged), Project.MSG_VERBOSE);
+            
+            return staged;
+        } catch (IOException e) {
+            throw new BuildException(String.format("Staging directory could not be created in \"%1$s\": %2$s", stagingRoot.getAbsolutePath(), e.getMessage()), e);
+        }
+    }
+    
+    /**
+     * Moves the files written to the staging directory into the output
+     * directory.
+     * 
+     * @param succeeded If false, only the log is moved, which keeps the
+     *                  document and the state of the last successful build
+     */
+    private void publishStagedFiles(boolean succeeded) throws BuildException {
+        File staged = this.stagedOutputDirectory;
+        File target = this.getTargetDirectory();
+        
+        // Files written by pdflatex refer to the output directory from now on
+        this.stagedOutputDirectory = null;
+        
+        try {
+            StagingDirectory.publish(staged, target, this.getJobname().concat(PDF_EXTENSION), this.getJobname().concat(LOG_EXTENSION), succeeded);
+        } catch (IOException e) {
+            throw new BuildException(String.format("Staged files could not be moved to \"%1$s\": %2$s", target.getAbsolutePath(), e.getMessage()), e);
+        } finally {
+            this.stagedOutputDirectory = staged;
+        }
+    }
+    
+    /**
+     * Deletes the staging directory of the build, if any.
+     */
+    private void discardStagingDirectory() {
+        File stagedDirectory = this.stagedOutputDirectory;
+        this.stagedOutputDirectory = null;
+        
+        if (stagedDirectory != null) {
+            this.deleteStagingDirectory(stagedDirectory);
+        }
+    }
+    
+    /**
+     * Deletes a staging directory with its contents.
+     */
+    private void deleteStagingDirectory(File stagedDirectory) {
+        try {
+            StagingDirectory.delete(stagedDirectory);
+        } catch (IOException e) {
+            this.log(String.format("Staging directory \"%1$s\" could not be deleted: %2$s", stagedDirectory.getAbsolutePath(), e.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private void buildDocument() throws BuildException {
+        // Determine preamble, environment and job name
+        String jobname = this.getJobname();
+        BuildMetrics metrics = new BuildMetrics(this.document.getAbsolutePath(), jobname);
+        
+        // A preview is neither skipped nor recorded, as it only compiles some units
+        boolean preview = this.previewUnits != null;
+        metrics.setPreview(preview);
+        
+        // The plan is only created again if an attribute has been changed
+        long preambleStartTime = System.nanoTime();
+        BuildPlan plan = this.getBuildPlan();
+        metrics.setPreambleNanos(System.nanoTime() - preambleStartTime);
+        
+        String preamble = plan.getPreamble();
+        String texInputs = plan.getTexInputs();
+        
+        // Skip the build if no input has been changed since the last build, a preview has to be replaced anyway
+        BuildManifest manifest = this.createManifest(preamble, texInputs, this.loadDependencyGraph(), new BuildManifest());
+        
+        if (!this.force && !preview && !this.previewed) {
+            String change = this.findChange(manifest);
+            
+            if (change == null) {
+                this.log(String.format("%1$s is up to date (%2$d inputs unchanged)", jobname, manifest.getInputCount()));
+                
+                metrics.setUpToDate(true);
+                this.publishMetrics(metrics);
+                
+                return;
+            }
+            
+            this.log(String.format("Building %1$s because %2$s", jobname, change), Project.MSG_VERBOSE);
+        }
+        
+        // Restore the artifacts of an identical build
+        String artifactKey = null;
+        
+        if (this.artifactcache != null && !preview) {
+            artifactKey = this.createArtifactKey(preamble, texInputs, manifest);
+            List<File> restored = this.force ? null : this.restoreArtifacts(artifactKey);
+            
+            if (restored != null) {
+                this.log(String.format("Restored %1$d artifacts of %2$s from the artifact cache", restored.size(), jobname));
+                this.recordOutputs(manifest, null, null);
+                
+                try {
+                    manifest.store(this.getOutputFile(MANIFEST_EXTENSION));
+                } catch (IOException e) {
+                    this.log(String.format("Build manifest could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+                }
+                
+                this.publishMetrics(metrics);
+                
+                return;
+            }
+            
+            this.detachOutputs();
+        }
+        
+        // Compile the figures whose data has been changed again
+        if (this.cache) {
+            this.invalidateFigures();
+        }
+        
+        // Precompile the static part of the preamble
+        String compilerInput = preamble;
+        String format = null;
+        
+        if (this.precompile) {
+            String staticPreamble = plan.getStaticPreamble();
+            String dumpedDocument = this.readDumpedDocument();
+            
+            format = this.prepareFormat(dumpedDocument != null ? staticPreamble.concat(dumpedDocument) : staticPreamble, plan);
+            
+            if (format != null) {
+                // The format already contains the static preamble
+                compilerInput = preamble.substring(staticPreamble.length());
+                
+                if (dumpedDocument != null) {
+                    // Skip the precompiled part of the document
+                    compilerInput = SKIP_DUMPED_DOCUMENT.concat(compilerInput);
+                }
+            }
+        }
+        
+        // Remember the state of the generated output
+        File outputFile = this.getOutputFile(this.draft ? LOG_EXTENSION : PDF_EXTENSION);
+        long previousModification = outputFile.lastModified();
+        
+        // Figures written from now on have been compiled by this build
+        long figureStartTime = System.currentTimeMillis();
+        
+        // Let pdflatex write into a private directory, the standby compiler has already been started in one
+        if (this.staging || this.warm) {
+            this.stagedOutputDirectory = this.takeStandbyDirectory();
+            
+            if (this.stagedOutputDirectory == null) {
+                this.stagedOutputDirectory = this.createStagingDirectory();
+            }
+        }
+        
+        // Run pdflatex until the auxiliary files are stable
+        AuxiliaryState state = AuxiliaryState.capture(this.getOutputDirectory(), jobname);
+        List<AbstractMessage> messages = new ArrayList<>();
+        boolean failed = false;
+        boolean figuresCompiled = false;
+        int pass = 0;
+        
+        // Raised to include the output of the auxiliary tools
+        int passLimit = this.maxpasses;
+        int passCeiling = this.maxpasses + TOOL_PASSES;
+        
+        // A build without auxiliary files takes several passes, only the final one has to write the document,
+        // whereas a rerun of another build is usually final
+        boolean intermediate = this.draftpasses && !this.draft && !preview && state.isEmpty();
+        
+        try {
+            while (true) {
+                pass++;
+                
+                // The last possible pass always writes the document
+                boolean draftPass = this.draft || (intermediate && pass < passLimit);
+                
+                messages = this.runCompiler(plan, compilerInput, format, draftPass, metrics);
+                
+                if (draftPass && !this.draft) {
+                    metrics.addDraftPass();
+                }
+                
+                // Do not record anything for a cancelled build
+                if (this.cancelled) {
+                    this.log(String.format("Build of %1$s has been cancelled", jobname), Project.MSG_VERBOSE);
+                    
+                    return;
+                }
+                
+                failed = this.hasErrors(messages);
+                
+                // Compile the figures listed by the first pass and include them by another pass
+                if (this.parallelfigures && !figuresCompiled) {
+                    figuresCompiled = true;
+                    
+                    if (this.compileFigures(plan, compilerInput, format, messages, metrics) > 0) {
+                        if (this.cancelled) {
+                            this.log(String.format("Build of %1$s has been cancelled", jobname), Project.MSG_VERBOSE);
+                            
+                            return;
+                        }
+                        
+                        failed = failed || this.hasErrors(messages);
+                        
+                        if (!failed) {
+                            this.log(String.format("Rerunning %1$s to include the compiled figures", jobname), Project.MSG_VERBOSE);
+                            state = AuxiliaryState.capture(this.getOutputDirectory(), jobname);
+                            
+                            continue;
+                        }
+                    }
+                }
+                
+                // Process the citations and index entries written by the pass
+                if (!failed && this.auxiliarytools && !preview) {
+                    boolean toolOutputChanged = this.runAuxiliaryTools(texInputs, metrics);
+                    
+                    if (this.cancelled) {
+                        this.log(String.format("Build of %1$s has been cancelled", jobname), Project.MSG_VERBOSE);
+                        
+                        return;
+                    }
+                    
+                    // One pass includes the output, another one resolves the references to it
+                    if (toolOutputChanged && pass < passCeiling) {
+                        passLimit = Math.min(Math.max(passLimit, pass + 2), passCeiling);
+                        
+                        this.log(String.format("Rerunning %1$s to include the bibliography or index", jobname), Project.MSG_VERBOSE);
+                        state = AuxiliaryState.capture(this.getOutputDirectory(), jobname);
+                        
+                        continue;
+                    }
+                    
+                    if (toolOutputChanged) {
+                        this.log(String.format("Bibliography or index of %1$s still changes after %2$d passes", jobname, pass), Project.MSG_WARN);
+                    }
+                }
+                
+                // Another pass cannot fix errors, a preview is compiled once
+                if (failed || preview || pass >= passLimit) {
+                    break;
+                }
+                
+                // Determine whether another pass is required
+                AuxiliaryState previousState = state;
+                state = AuxiliaryState.capture(this.getOutputDirectory(), jobname);
+                String changedFile = state.findChange(previousState);
+                
+                if (changedFile != null) {
+                    this.log(String.format("Rerunning %1$s because %1$s%2$s has been changed", jobname, changedFile), Project.MSG_VERBOSE);
+                }
+                else if (this.isRerunRequested()) {
+                    this.log(String.format("Rerunning %1$s because the log requests another pass", jobname), Project.MSG_VERBOSE);
+                }
+                else if (intermediate) {
+                    this.log(String.format("Rerunning %1$s to write the document", jobname), Project.MSG_VERBOSE);
+                    intermediate = false;
+                }
+                else {
+                    break;
+                }
+            }
+            
+            // Move the generated files into the output directory
+            if (this.stagedOutputDirectory != null) {
+                this.publishStagedFiles(!failed);
+            }
+        } finally {
+            this.discardStagingDirectory();
+        }
+        
+        this.log(String.format("%1$s has been compiled in %2$d pass(es)", jobname, pass), Project.MSG_VERBOSE);
+        
+        boolean succeeded = !failed && outputFile.exists() && outputFile.lastModified() != previousModification;
+        
+        // Record the inputs of the successful build
+        if (succeeded && !preview) {
+            DependencyGraph graph = this.recordDependencyGraph();
+            
+            if (graph != null) {
+                // Inputs read for the first time are fingerprinted now
+                manifest = this.createManifest(preamble, texInputs, graph, manifest);
+            }
+            
+            if (this.preview) {
+                this.recordIncludeUnits();
+            }
+            
+            if (this.cache && this.cachedir != null && graph != null) {
+                this.updateFigureCache(graph, figureStartTime, metrics);
+            }
+            
+            this.recordOutputs(manifest, graph, format);
+            
+            try {
+                manifest.store(this.getOutputFile(MANIFEST_EXTENSION));
+            } catch (IOException e) {
+                this.log(String.format("Build manifest could not be written: %1$s", e.getMessage()), Project.MSG_WARN);
+            }
+            
+            if (artifactKey != null) {
+                this.publishArtifacts(artifactKey, manifest, format);
+            }
+        }
+        
+        this.publishMetrics(metrics);
+        
+        if (failed && (this.failonerror || this.failfast)) {
+            throw new BuildException(String.format("%1$s could not be compiled, see %1$s%2$s", jobname, LOG_EXTENSION));
+        }
+    }
+    
+    /**
+     * Publishes the metrics of a build as properties and appends them to the
+     * metrics file.
+     * 
+     * @param metrics Metrics of a completed build
+     */
+    private void publishMetrics(BuildMetrics metrics) {
+        metrics.finish();
+        this.log(String.format("Build of %1$s took %2$d ms", metrics.getJobname(), metrics.getWallMillis()), Project.MSG_VERBOSE);
+        
+        // Properties are overwritten by every build of a continuous session
+        if (this.metricsprefix != null) {
+            for (Map.Entry<String,String> entry : metrics.toMap().entrySet()) {
+                this.getProject().setProperty(String.format("%1$s.%2$s", this.metricsprefix, entry.getKey()), entry.getValue());
+            }
+        }
+        
+        if (this.metricsfile != null) {
+            try {
+                metrics.appendTo(this.metricsfile);
+            } catch (IOException e) {
+                this.log(String.format("Metrics could not be written to \"%1$s\": %2$s", this.metricsfile.getAbsolutePath(), e.getMessage()), Project.MSG_WARN);
+            }
+        }
+    }
+    
+    /**
+     * Determines whether a file name has one of the extensions of the files
+     * written by pdflatex or the TikZ externalization.
+     */
+    private static boolean hasGeneratedExtension(String fileName) {
+        for (String extension : GENERATED_EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        
+        return fileName.endsWith(FIGURE_LIST_EXTENSION);
+    }
+    
+    /**
+     * Determines whether a file is written by the build itself. Changes of
+     * such files must not trigger another build in continuous mode.
+     * 
+     * @param file Absolute path of the file
+     * @param graph Dependency graph of the last build
+     */
+    boolean isGeneratedFile(Path file, DependencyGraph graph) {
+        // Files recorded as outputs of the last build
+        if (graph.getOutputs().contains(file.toFile())) {
+            return true;
+        }
+        
+        String fileName = file.getFileName().toString();
+        
+        // Access index of the figure cache, which is updated after every build
+        if (fileName.startsWith(FigureCache.INDEX_NAME)) {
+            return true;
+        }
+        
+        if (!hasGeneratedExtension(fileName)) {
+            return false;
+        }
+        
+        // Files written to the output or cache directory
+        Path dir = file.getParent();
+        
+        if (dir.equals(this.getTargetDirectory().getAbsoluteFile().toPath()) || (this.cachedir != null && dir.startsWith(this.cachedir.getAbsoluteFile().toPath()))) {
+            return true;
+        }
+        
+        // Files which are never written by hand
+        return !fileName.endsWith(PDF_EXTENSION);
+    }
+    
+    /**
+     * Determines the directories which contain the inputs of the document and
+     * the related documents.
+     * 
+     * @param graph Dependency graph of the last build
+     */
+    Set<Path> getWatchedDirectories(DependencyGraph graph) {
+        Set<Path> dirs = new HashSet<>();
+        dirs.add(this.document.getAbsoluteFile().getParentFile().toPath());
+        
+        // Directories of the recorded inputs
+        for (File input : graph.getInputs()) {
+            dirs.add(input.getParentFile().toPath());
+        }
+        
+        // Directories of the related documents
+        for (FileSet fileSet : this.relatedDocuments) {
+            DirectoryScanner scanner = fileSet.getDirectoryScanner(this.getProject());
+            
+            for (String includedDir : scanner.getIncludedDirectories()) {
+                dirs.add(new File(scanner.getBasedir(), includedDir).getAbsoluteFile().toPath().normalize());
+            }
+            
+            for (String includedFile : scanner.getIncludedFiles()) {
+                dirs.add(new File(scanner.getBasedir(), includedFile).getAbsoluteFile().getParentFile().toPath().normalize());
+            }
+        }
+        
+        return dirs;
+    }
+    
+    /**
+     * Builds the document and logs instead of propagating build failures, so
+     * that continuous mode keeps watching.
+     */
+    void tryBuildDocument() {
+        try {
+            this.buildDocument();
+        } catch (BuildException e) {
+            this.log(e.getMessage(), Project.MSG_ERR);
+        }
+    }
+    
+    /**
+     * Determines the units of the document which are affected by changes and
+     * can be previewed against the .aux files of the last build. The units
+     * and their inputs are those recorded by the last complete build.
+     * 
+     * @param changes Changed files
+     * @return Names of the affected units or null if the whole document has
+     *         to be built
+     */
+    private Set<String> findPreviewUnits(Set<Path> changes) {
+        if (changes.isEmpty() || !this.getOutputFile(".aux").isFile()) {
+            return null;
+        }
+        
+        List<File> files = new ArrayList<>();
+        
+        for (Path change : changes) {
+            files.add(change.toFile());
+        }
+        
+        IncludeUnits recorded = IncludeUnits.load(this.getOutputFile(UNITS_EXTENSION));
+        Set<String> units = recorded != null ? recorded.findUnits(files) : null;
+        
+        if (units == null) {
+            return null;
+        }
+        
+        // Units which have never been compiled cannot be previewed
+        for (String unit : units) {
+            if (!new File(this.getTargetDirectory(), unit.concat(".aux")).isFile()) {
+                return null;
+            }
+        }
+        
+        return units;
+    }
+    
+    /**
+     * Compiles only the given units of the document and logs instead of
+     * propagating build failures.
+     * 
+     * @param units Names of the units passed to \includeonly
+     */
+    private void tryPreviewDocument(Set<String> units) {
+        this.log(String.format("Previewing %1$s of %2$s", units, this.getJobname()));
+        this.previewUnits = units;
+        
+        try {
+            this.tryBuildDocument();
+        } finally {
+            this.previewUnits = null;
+        }
+    }
+    
+    /**
+     * Aborts the running build by killing the pdflatex process.
+     */
+    private void cancelBuild() {
+        this.cancelled = true;
+        
+        for (RunningProcess process : this.runningProcesses) {
+            process.cancel();
+        }
+    }
+    
+    private void continuousExecute() throws BuildException {
+        // Ignore changes of files written by the build itself
+        this.watchedGraph = this.loadDependencyGraph();
+        
+        ChangeFilter filter = new ChangeFilter() {
+            @Override
+            public boolean accept(Path file) {
+                return !isGeneratedFile(file, watchedGraph);
+            }
+        };
+        
+        // Builds run in the background, a new change cancels the running build
+        CancellableBuild build = new CancellableBuild() {
+            @Override
+            public void build(Set<Path> changes) {
+                // Compile only the changed units unless the preview has to be completed
+                boolean complete = completePreview;
+                completePreview = false;
+                Set<String> units = preview && !complete ? findPreviewUnits(changes) : null;
+                
+                if (units != null) {
+                    previewed = true;
+                    tryPreviewDocument(units);
+                }
+                else {
+                    tryBuildDocument();
+                    
+                    if (!cancelled) {
+                        previewed = false;
+                    }
+                }
+                
+                // Process the preamble of the next build in advance
+                if (warm && !cancelled) {
+                    replenishStandbyCompiler();
+                }
+                
+                // Inputs may have been added or removed by the changes
+                watchedGraph = loadDependencyGraph();
+            }
+            
+            @Override
+            public void cancel() {
+                cancelBuild();
+            }
+            
+            @Override
+            public void reset() {
+                cancelled = false;
+            }
+        };
+        
+        BuildScheduler scheduler = new BuildScheduler(build, String.format("%1$s-%2$s", THREAD_NAMESPACE, this.getJobname()));
+        
+        try (ChangeWatcher watcher = new ChangeWatcher(filter)) {
+            // Build the document once before waiting for changes
+            scheduler.submit(Collections.<Path>emptySet());
+            
+            // Time at which a preview is replaced by the whole document, 0 if no change is pending
+            long completionTime = 0;
+            
+            // Event loop
+            while (true) {
+                // Watch the directories of all known inputs
+                watcher.register(this.getWatchedDirectories(this.watchedGraph));
+                this.log(String.format("Watching %1$d directories for changes", watcher.getDirectoryCount()), Project.MSG_VERBOSE);
+                
+                // Wait for a burst of changes to settle
+                Set<Path> changes;
+                
+                try {
+                    if (completionTime > 0) {
+                        changes = watcher.awaitChanges(this.quietperiod, Math.max(1, completionTime - System.currentTimeMillis()));
+                    }
+                    else {
+                        changes = watcher.awaitChanges(this.quietperiod);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                
+                // Editing has gone quiet, build the whole document
+                if (changes.isEmpty()) {
+                    completionTime = 0;
+                    
+                    if (this.previewed) {
+                        this.log(String.format("Building all of %1$s after the preview", this.getJobname()), Project.MSG_VERBOSE);
+                        this.completePreview = true;
+                        scheduler.submit(changes);
+                    }
+                    
+                    continue;
+                }
+                
+                for (Path change : changes) {
+                    this.log(String.format("%1$s has been changed", change));
+                }
+                
+                // Compile document, unchanged contents are detected by the manifest
+                scheduler.submit(changes);
+                
+                if (this.preview) {
+                    completionTime = System.currentTimeMillis() + this.previewdelay;
+                }
+            }
+        } catch (IOException e) {
+            throw new BuildException(String.format("Continuous mode could not watch for changes: %1$s", e.getMessage()), e);
+        } finally {
+            scheduler.close();
+            this.discardStandbyCompiler();
+        }
+    }
+    
+    /**
+     * Determines whether the task compiles a matrix of variants.
+     */
+    private boolean isMatrix() {
+        return this.versions != null || this.languages != null;
+    }
+    
+    /**
+     * Splits a comma separated list of values.
+     * 
+     * @param list List to split
+     * @param value Single value if the list is undefined
+     */
+    private static List<String> splitValues(String list, String value) {
+        List<String> values = new ArrayList<>();
+        
+        if (list == null) {
+            values.add(value);
             
-            // Insert placeholder for system call definition
-            preamble.append("\\tikzsetsystemcall");
+            return values;
         }
         
-        // Define tikz cache dir
-        if (this.cache && this.cachedir != null) {
-            preamble.append(String.format("\\tikzsetexternalprefix{%1$s}", externalPrefix));
+        for (String element : list.split(",")) {
+            element = element.trim();
+            
+            if (!element.isEmpty() && !values.contains(element)) {
+                values.add(element);
+            }
         }
         
-        // Language
-        if (this.language != null) {
-            preamble.append(String.format("\\newcommand\\locale{%1$s}", language));
-        }
-
-        // Set input document
-        preamble.append(String.format("\\input{%1$s}", inputDocument));
+        return values;
+    }
+    
+    /**
+     * Determines the output name of a variant.
+     */
+    private String getVariantName(String version, String language) {
+        String pattern = this.variantname;
         
-        // Set TikZ externalize system call
-        if (this.cache) {
-            String filteredPreamble = preamble.toString().replace("\\tikzsetsystemcall", "");
-            String tikzSetSystemCall = String.format("\\tikzset{external/system call={pdflatex \\tikzexternalcheckshellescape -halt-on-error -interaction=batchmode -jobname \"\\image\" \"\\string\\def\\string\\tikzexternalrealjob{%1$s}%2$s\"}}", inputDocument, filteredPreamble.replace("\\", "\\string\\"));
+        if (pattern == null) {
+            // Append the varied parts to the job name
+            pattern = VARIANT_JOBNAME;
             
-            preamble = new StringBuilder(preamble.toString().replace("\\tikzsetsystemcall", tikzSetSystemCall));
+            if (this.versions != null) {
+                pattern = pattern.concat("-").concat(VARIANT_VERSION);
+            }
+            
+            if (this.languages != null) {
+                pattern = pattern.concat("-").concat(VARIANT_LANGUAGE);
+            }
         }
-
-        // Job name
-        String jobname;
         
-        if (this.outputname != null) {
-            // Use the defined output name as job name
-            jobname = this.outputname;
-        }
-        else {
-            // Use the document name as job name
-            jobname = documentWithoutExt;
+        return pattern.replace(VARIANT_JOBNAME, this.getJobname()).replace(VARIANT_VERSION, version).replace(VARIANT_LANGUAGE, language != null ? language : "");
+    }
+    
+    /**
+     * Creates the task compiling a single variant into its own output
+     * directory.
+     */
+    private TypesetTask createVariant(String version, String language, String name, DependencyGraph graph, boolean languageIndependent) throws BuildException {
+        TypesetTask variant;
+        
+        try {
+            variant = (TypesetTask) this.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new BuildException(String.format("Variant %1$s could not be created", name), e);
         }
         
-        // Create execution task
-        ExecTask exec = (ExecTask) _project.createTask("exec");
-        // TODO allow configurable latex compiler (e.g. luatex)
-        exec.setExecutable("pdflatex");
+        variant.versions = null;
+        variant.languages = null;
+        variant.type = version;
+        variant.language = language;
+        variant.outputname = name;
+        variant.outputdir = new File(this.getTargetDirectory(), name);
         
-        if (!this.verbose) {
-            // Capture output and error stream of pdflatex
-
-            exec.setOutputproperty(String.format("%1$s.out", EXEC_PROPERTY_NAMESPACE));
-            exec.setErrorProperty(String.format("%1$s.err", EXEC_PROPERTY_NAMESPACE));
-        }
+        // Formats are shared by their preamble, figures by the preamble they are compiled with
+        variant.formatdir = this.getFormatDirectory();
+        variant.sharedfigures = true;
+        variant.languageIndependentFigures = languageIndependent;
+        variant.sharedGraph = graph;
         
-        exec.setInputString(preamble.toString());
-
-        // Set working directory
-        if (this.basedir != null) {
-            exec.setDir(this.basedir);
-        }
-
-        // Append arguments
-        exec.createArg().setValue("-shell-escape");
-        exec.createArg().setValue("-interaction=nonstopmode");
-        exec.createArg().setValue(String.format("-jobname=%1$s", jobname));
+        // Every variant runs its own processes
+        variant.processEngine = null;
+        variant.runningProcesses = Collections.newSetFromMap(new ConcurrentHashMap<RunningProcess,Boolean>());
+        variant.relatedDocuments = new ArrayList<>(this.relatedDocuments);
         
-        if (this.outputdir != null) {
-            exec.createArg().setValue(String.format("-output-directory=%1$s", this.outputdir));
-        }
-
-        if (this.draft) {
-            exec.createArg().setValue("-draftmode");
+        if (this.metricsprefix != null) {
+            variant.metricsprefix = String.format("%1$s.%2$s", this.metricsprefix, name);
         }
         
-        // Append environment variables
-        if (this.inputPath != null) {
-            // Determine complete input path path (prepend base path and append default texinputs)
-            String texInputs = String.format("%1$s%2$s", this.inputPath.toString(), File.pathSeparator);
-            
-            // Create environment variable
-            Variable texInputVar = new Variable();
-            texInputVar.setKey(ENV_VARIABLE_TEXINPUTS);
-            texInputVar.setValue(texInputs);
-            
-            exec.addEnv(texInputVar);
-        }
-
-        // Execute pdflatex
-        exec.perform();
-
-        // Get output and error stream
-        String out = _project.getProperty(String.format("%1$s.out", EXEC_PROPERTY_NAMESPACE));
-
-        if (!this.verbose) {
-            // Parse errors and warnings
-            List<AbstractMessage> messages = parseLog(out);
-
-            // Display errors and warnings
-            displayLog(messages);
+        variant.setTaskName(String.format("%1$s:%2$s", this.getTaskName(), name));
+        
+        if (!variant.outputdir.isDirectory() && !variant.outputdir.mkdirs()) {
+            throw new BuildException(String.format("Output directory \"%1$s\" could not be created", variant.outputdir.getAbsoluteFile()));
         }
+        
+        return variant;
     }
     
-    private void continuousExecute() throws BuildException {
-        try {
-            // Build list of distinct paths to watch
-            // TODO implement continuous feature
+    /**
+     * Determines whether a TikZ picture of the document refers to the
+     * language. Pictures are only found in the files known to the graph, and
+     * macros used by them are not expanded.
+     * 
+     * @param graph Dependency graph of the document
+     */
+    private static boolean isLanguageReferencedByPictures(DependencyGraph graph) {
+        for (File input : graph.getInputs()) {
+            if (!input.getName().endsWith(".tex")) {
+                continue;
+            }
             
-            // Create watch service
-            // (see http://docs.oracle.com/javase/tutorial/essential/io/notification.html#overview)
-            WatchService watcher = FileSystems.getDefault().newWatchService();
-
-            // Register event listening for document changes
-            WatchKey registeredKey = Paths.get(this.document.getParent()).register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
-
-            // Event loop
-            while (true) {
-                // Wait for key to be signaled
-                WatchKey key;
-
-                try {
-                    key = watcher.take();
-                } catch (InterruptedException e) {
-                    break;
-                }
+            try {
+                Matcher pictures = PICTURE_PATTERN.matcher(new String(Files.readAllBytes(input.toPath()), DOCUMENT_CHARSET));
                 
-                // TODO modified events are fired twice (content change and last modified timestamp changed!)
-                // TODO include related documents
-
-                boolean changed = false;
-
-                for (WatchEvent<?> event: key.pollEvents()) {
-                    WatchEvent.Kind<?> kind = event.kind();
-
-                    // Handle overflow event kind
-                    if (kind == StandardWatchEventKinds.OVERFLOW) {
-                        continue;
+                while (pictures.find()) {
+                    if (pictures.group().contains("\\locale")) {
+                        return true;
                     }
-
-                    // Determine the file name
-                    WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
-                    Path filename = pathEvent.context();
-
-                    this.log(String.format("%1$s has been changed", filename.toAbsolutePath()));
-                    changed = true;
                 }
-
-                // Reset the key and cancel if the watcher is no longer valid
-                if (!key.reset()) {
-                    break;
+            } catch (IOException e) {
+                // An unreadable file may refer to the language
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Compiles every combination of the versions and languages concurrently.
+     * The variants whose figures are named alike share their externalized
+     * figures, hence only the first of them is compiled together with the
+     * other groups, and the remaining ones include the figures compiled by
+     * it. The figures are named after the preamble, which differs between
+     * the versions by their document class, and between the languages only
+     * if a picture refers to \locale.
+     */
+    private void executeVariants() throws BuildException {
+        DependencyGraph graph = DependencyGraph.scan(this.document, this.getInputRoots());
+        boolean languageIndependent = this.cache && !isLanguageReferencedByPictures(graph);
+        Map<String,List<TypesetTask>> groups = new LinkedHashMap<>();
+        Set<String> names = new HashSet<>();
+        int count = 0;
+        
+        for (String version : splitValues(this.versions, this.type)) {
+            for (String language : splitValues(this.languages, this.language)) {
+                String name = this.getVariantName(version, language);
+                
+                // Concurrent variants must not share their files
+                if (!names.add(name)) {
+                    throw new BuildException(String.format("Variant name \"%1$s\" is used by several variants", name));
                 }
-
-                // Compile document if changes occurred
-                if (changed) {
-                    this.verbose = true;
-                    //this.buildDocument();
+                
+                TypesetTask variant = this.createVariant(version, language, name, graph, languageIndependent);
+                
+                // Variants without externalized figures share nothing
+                Matcher figureName = FIGURE_NAME_PATTERN.matcher(variant.getBuildPlan().getPreamble());
+                String group = this.cache && figureName.find() ? figureName.group(1) : name;
+                
+                if (!groups.containsKey(group)) {
+                    groups.put(group, new ArrayList<TypesetTask>());
                 }
+                
+                groups.get(group).add(variant);
+                count++;
             }
-
-        } catch (IOException e) {
-            // Do nothing
         }
+        
+        // Compile the first variant of every preamble, then the ones reusing its figures
+        List<TypesetTask> first = new ArrayList<>();
+        List<TypesetTask> remaining = new ArrayList<>();
+        
+        for (List<TypesetTask> group : groups.values()) {
+            first.add(group.get(0));
+            remaining.addAll(group.subList(1, group.size()));
+        }
+        
+        this.log(String.format("Compiling %1$d variants of %2$s with %3$d distinct sets of figures", count, this.document.getName(), first.size()), Project.MSG_VERBOSE);
+        
+        int failures = ParallelTypesetTask.typesetAll(this, first, this.variantthreads);
+        
+        if (!remaining.isEmpty()) {
+            failures += ParallelTypesetTask.typesetAll(this, remaining, this.variantthreads);
+        }
+        
+        if (failures > 0) {
+            throw new BuildException(String.format("%1$d of %2$d variants could not be compiled", failures, count));
+        }
+    }
+    
+    /**
+     * Validates the task before its document is built on behalf of another
+     * task.
+     * 
+     * @throws BuildException 
+     */
+    void validate() throws BuildException {
+        this.validateAttributes();
+        this.validateCompiler();
     }
     
     @Override
@@ -491,7 +3430,11 @@ public class TypesetTask extends Task {
         // Verify availability of LateX compiler
         this.validateCompiler();
         
-        if (!this.continuous) {
+        if (this.isMatrix()) {
+            // Compile every variant once
+            this.executeVariants();
+        }
+        else if (!this.continuous) {
             // One-shot mode
         
             // Build the document once
@@ -595,6 +3538,14 @@ public class TypesetTask extends Task {
         this.draft = draft;
     }
 
+    public boolean isDraftpasses() {
+        return draftpasses;
+    }
+
+    public void setDraftpasses(boolean draftpasses) {
+        this.draftpasses = draftpasses;
+    }
+
     public boolean isContinuous() {
         return continuous;
     }
@@ -643,6 +3594,198 @@ public class TypesetTask extends Task {
         this.verbose = verbose;
     }
     
+    public boolean isForce() {
+        return force;
+    }
+
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+    
+    public int getMaxpasses() {
+        return maxpasses;
+    }
+
+    public void setMaxpasses(int maxpasses) {
+        this.maxpasses = maxpasses;
+    }
+    
+    public boolean isPreview() {
+        return preview;
+    }
+
+    public void setPreview(boolean preview) {
+        this.preview = preview;
+    }
+
+    public long getPreviewdelay() {
+        return previewdelay;
+    }
+
+    public void setPreviewdelay(long previewdelay) {
+        this.previewdelay = previewdelay;
+    }
+    
+    public long getQuietperiod() {
+        return quietperiod;
+    }
+
+    public void setQuietperiod(long quietperiod) {
+        this.quietperiod = quietperiod;
+    }
+    
+    public boolean isFailfast() {
+        return failfast;
+    }
+
+    public void setFailfast(boolean failfast) {
+        this.failfast = failfast;
+    }
+
+    public boolean isFailonerror() {
+        return failonerror;
+    }
+
+    public void setFailonerror(boolean failonerror) {
+        this.failonerror = failonerror;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void setWarm(boolean warm) {
+        this.warm = warm;
+    }
+
+    public String getMetricsprefix() {
+        return metricsprefix;
+    }
+
+    public void setMetricsprefix(String metricsprefix) {
+        this.metricsprefix = metricsprefix;
+    }
+
+    public File getMetricsfile() {
+        return metricsfile;
+    }
+
+    public void setMetricsfile(File metricsfile) {
+        this.metricsfile = metricsfile;
+    }
+
+    public String getCompiler() {
+        return compiler;
+    }
+
+    public void setCompiler(String compiler) {
+        this.compiler = compiler;
+    }
+
+    public boolean isAuxiliarytools() {
+        return auxiliarytools;
+    }
+
+    public void setAuxiliarytools(boolean auxiliarytools) {
+        this.auxiliarytools = auxiliarytools;
+    }
+
+    public String getBibtex() {
+        return bibtex;
+    }
+
+    public void setBibtex(String bibtex) {
+        this.bibtex = bibtex;
+    }
+
+    public String getBiber() {
+        return biber;
+    }
+
+    public void setBiber(String biber) {
+        this.biber = biber;
+    }
+
+    public String getMakeindex() {
+        return makeindex;
+    }
+
+    public void setMakeindex(String makeindex) {
+        this.makeindex = makeindex;
+    }
+
+    public boolean isStaging() {
+        return staging;
+    }
+
+    public void setStaging(boolean staging) {
+        this.staging = staging;
+    }
+
+    public File getStagingdir() {
+        return stagingdir;
+    }
+
+    public void setStagingdir(File stagingdir) {
+        this.stagingdir = stagingdir;
+    }
+
+    public boolean isPrecompile() {
+        return precompile;
+    }
+
+    public void setPrecompile(boolean precompile) {
+        this.precompile = precompile;
+    }
+
+    public File getFormatdir() {
+        return formatdir;
+    }
+
+    public void setFormatdir(File formatdir) {
+        this.formatdir = formatdir;
+    }
+    
+    public long getCachemaxsize() {
+        return cachemaxsize;
+    }
+
+    public void setCachemaxsize(String cachemaxsize) {
+        this.cachemaxsize = parseSize(cachemaxsize);
+    }
+
+    public int getCachemaxage() {
+        return cachemaxage;
+    }
+
+    public void setCachemaxage(int cachemaxage) {
+        this.cachemaxage = cachemaxage;
+    }
+
+    public File getArtifactcache() {
+        return artifactcache;
+    }
+
+    public void setArtifactcache(File artifactcache) {
+        this.artifactcache = artifactcache;
+    }
+    
+    public boolean isParallelfigures() {
+        return parallelfigures;
+    }
+
+    public void setParallelfigures(boolean parallelfigures) {
+        this.parallelfigures = parallelfigures;
+    }
+
+    public int getFigurethreads() {
+        return figurethreads;
+    }
+
+    public void setFigurethreads(int figurethreads) {
+        this.figurethreads = figurethreads;
+    }
+    
     public void setInputPathRef(Reference r) {
         if (this.inputPath == null) {
             this.inputPath = new org.apache.tools.ant.types.Path(getProject());
@@ -651,4 +3794,35 @@ public class TypesetTask extends Task {
         this.inputPath.setRefid(r);
     }
     
+    public String getVersions() {
+        return versions;
+    }
+    
+    public void setVersions(String versions) {
+        this.versions = versions;
+    }
+    
+    public String getLanguages() {
+        return languages;
+    }
+    
+    public void setLanguages(String languages) {
+        this.languages = languages;
+    }
+    
+    public String getVariantname() {
+        return variantname;
+    }
+    
+    public void setVariantname(String variantname) {
+        this.variantname = variantname;
+    }
+    
+    public int getVariantthreads() {
+        return variantthreads;
+    }
+    
+    public void setVariantthreads(int variantthreads) {
+        this.variantthreads = variantthreads;
+    }
 }
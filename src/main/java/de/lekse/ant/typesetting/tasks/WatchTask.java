@@ -0,0 +1,476 @@
+package de.lekse.ant.typesetting.tasks;
+
+import de.lekse.ant.typesetting.build.DependencyGraph;
+import de.lekse.ant.typesetting.types.Document;
+import de.lekse.ant.typesetting.watch.ChangeFilter;
+import de.lekse.ant.typesetting.watch.ChangeWatcher;
+import de.lekse.ant.typesetting.watch.ReverseIndex;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Watches all documents defined by properties (see {@link BootstrapTask})
+ * with a single watcher. Every document is built once, afterwards a reverse
+ * index from input files to documents determines the documents affected by a
+ * change, and only those are rebuilt on a bounded pool of workers, documents
+ * with a higher priority first.
+ *
+ * @author Lekse
+ */
+public class WatchTask extends Task {
+
+    /**
+     * Namespace of the document properties. Defaults to the one of the
+     * bootstrap task.
+     */
+    private String namespace;
+
+    /**
+     * Defines the maximum number of documents compiled at the same time.
+     * Defaults to the number of available processors.
+     */
+    private int threads;
+
+    /**
+     * Time in milliseconds without further changes which has to be
+     * observed before the affected documents are rebuilt. Defaults to 300.
+     */
+    private long quietperiod;
+
+    /**
+     * Tasks compiling the documents by identifier.
+     */
+    private Map<String,TypesetTask> tasks;
+
+    private Map<String,Integer> priorities;
+
+    /**
+     * Dependency graphs of the last builds, which decide which changed files
+     * have been written by the builds themselves.
+     */
+    private Map<String,DependencyGraph> graphs;
+
+    private ReverseIndex<String> index;
+
+    /**
+     * Watcher of the directories of all documents, which is registered with
+     * the directories of new inputs as soon as a build has recorded them.
+     */
+    private volatile ChangeWatcher watcher;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Documents waiting for a worker.
+     */
+    private Set<String> queued;
+
+    private Set<String> running;
+
+    /**
+     * Running documents which have been changed during their build.
+     */
+    private Set<String> outdated;
+
+    private long sequence;
+
+    /**
+     * Default constructor
+     */
+    public WatchTask() {
+        // Call parent constructor
+        super();
+
+        // Set default parameters
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.quietperiod = 300;
+    }
+
+    /**
+     * Validates the parameters passed to the task.
+     *
+     * @throws BuildException
+     */
+    private void validateAttributes() throws BuildException {
+        // Require a positive number of threads
+        if (this.threads < 1) {
+            throw new BuildException(String.format("Number of threads has to be at least 1 but is %1$d", this.threads));
+        }
+
+        if (this.quietperiod < 0) {
+            throw new BuildException(String.format("Quiet period has to be non-negative but is %1$d", this.quietperiod));
+        }
+    }
+
+    /**
+     * Creates the tasks of all defined documents.
+     *
+     * @throws BuildException
+     */
+    private void createTasks() throws BuildException {
+        String prefix = this.namespace != null ? this.namespace : BootstrapTask.DEFAULT_PROPERTY_NAMESPACE;
+        Map<String,Document> documents = BootstrapTask.readDocuments(this, prefix);
+
+        if (documents.isEmpty()) {
+            throw new BuildException(String.format("No documents are defined by properties %1$s<id>.<attribute>", prefix));
+        }
+
+        this.tasks = new LinkedHashMap<>();
+        this.priorities = new HashMap<>();
+
+        // Require distinct outputs, as concurrent builds must not share their files
+        Map<File,String> outputs = new HashMap<>();
+
+        for (Map.Entry<String,Document> document : documents.entrySet()) {
+            TypesetTask task = BootstrapTask.createTypesetTask(this.getProject(), document.getKey(), document.getValue());
+            task.setOwningTarget(this.getOwningTarget());
+
+            // All documents are watched by this task
+            task.setContinuous(false);
+
+            if (task.getDocument() == null) {
+                throw new BuildException(String.format("Document attribute of %1$s has to be specified", document.getKey()));
+            }
+
+            task.validate();
+
+            File output = task.getOutputFile("").getAbsoluteFile();
+
+            if (outputs.put(output, document.getKey()) != null) {
+                throw new BuildException(String.format("Several documents are compiled to \"%1$s\", use distinct output directories or names", output));
+            }
+
+            this.tasks.put(document.getKey(), task);
+            this.priorities.put(document.getKey(), document.getValue().getPriority());
+        }
+    }
+
+    /**
+     * Records the inputs of a document in the index.
+     */
+    private void indexDocument(String identifier) {
+        TypesetTask task = this.tasks.get(identifier);
+        DependencyGraph graph = task.loadDependencyGraph();
+        List<Path> inputs = new ArrayList<>();
+        inputs.add(task.getDocument().getAbsoluteFile().toPath());
+
+        for (File input : graph.getInputs()) {
+            inputs.add(input.toPath());
+        }
+
+        this.graphs.put(identifier, graph);
+        this.index.update(identifier, inputs, task.getWatchedDirectories(graph));
+    }
+
+    /**
+     * Determines the documents affected by a changed file. A file written by
+     * the build of a document does not affect that document, but it affects
+     * the documents reading it.
+     *
+     * @param change Absolute path of the changed file
+     * @return Identifiers of the affected documents
+     */
+    private Set<String> findAffected(Path change) {
+        Set<String> affected = new HashSet<>();
+
+        for (String identifier : this.index.findAffected(Collections.singleton(change))) {
+            if (this.isAffected(identifier, change)) {
+                affected.add(identifier);
+            }
+        }
+
+        return affected;
+    }
+
+    private boolean isAffected(String identifier, Path change) {
+        DependencyGraph graph = this.graphs.get(identifier);
+
+        if (graph == null || !this.tasks.get(identifier).isGeneratedFile(change, graph)) {
+            return true;
+        }
+
+        // A file generated by another document is an input like any other
+        File file = change.toFile();
+
+        if (graph.getInputs().contains(file) && !graph.getOutputs().contains(file)) {
+            for (Map.Entry<String,DependencyGraph> other : this.graphs.entrySet()) {
+                if (!other.getKey().equals(identifier) && other.getValue().getOutputs().contains(file)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Watches the directories of the indexed inputs. Files may have been
+     * changed in a new directory before it has been registered, hence the
+     * new directories are scanned once for files changed since a time.
+     *
+     * @param since Time in milliseconds since which changes are of interest
+     */
+    private void registerDirectories(long since) {
+        ChangeWatcher changeWatcher = this.watcher;
+
+        if (changeWatcher == null) {
+            return;
+        }
+
+        Set<Path> added;
+
+        try {
+            added = changeWatcher.register(this.index.getDirectories());
+        } catch (IOException e) {
+            this.log(String.format("Directories could not be watched for changes: %1$s", e.getMessage()), Project.MSG_WARN);
+
+            return;
+        } catch (ClosedWatchServiceException e) {
+            // The task is shutting down
+            return;
+        }
+
+        if (added.isEmpty()) {
+            return;
+        }
+
+        this.log(String.format("Watching %1$d directories for changes of %2$d documents", changeWatcher.getDirectoryCount(), this.tasks.size()), Project.MSG_VERBOSE);
+
+        // Modification times may be truncated to seconds
+        long threshold = since - since % 1000;
+        Set<String> affected = new HashSet<>();
+
+        for (Path dir : added) {
+            File[] files = dir.toFile().listFiles();
+
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                if (file.isFile() && file.lastModified() >= threshold) {
+                    affected.addAll(this.findAffected(file.toPath().toAbsolutePath()));
+                }
+            }
+        }
+
+        if (!affected.isEmpty()) {
+            this.log(String.format("%1$d documents are affected by changes in %2$d new directories", affected.size(), added.size()), Project.MSG_VERBOSE);
+            this.scheduleAll(affected);
+        }
+    }
+
+    /**
+     * Queues the build of a document. A document which is already queued is
+     * built once, and a running document is built again after its build.
+     */
+    private synchronized void schedule(String identifier) {
+        if (this.executor.isShutdown() || this.queued.contains(identifier)) {
+            return;
+        }
+
+        if (this.running.contains(identifier)) {
+            this.outdated.add(identifier);
+
+            return;
+        }
+
+        this.queued.add(identifier);
+        this.executor.execute(new DocumentBuild(identifier, this.priorities.get(identifier), this.sequence++));
+    }
+
+    /**
+     * Queues the builds of documents in the order of their priority.
+     */
+    private void scheduleAll(Set<String> identifiers) {
+        List<String> ordered = new ArrayList<>(identifiers);
+
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                return Integer.compare(priorities.get(second), priorities.get(first));
+            }
+        });
+
+        for (String identifier : ordered) {
+            this.schedule(identifier);
+        }
+    }
+
+    private void build(String identifier) {
+        synchronized (this) {
+            this.queued.remove(identifier);
+            this.running.add(identifier);
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        try {
+            this.tasks.get(identifier).tryBuildDocument();
+
+            // Inputs may have been added or removed by the changes
+            this.indexDocument(identifier);
+
+            // Watch new directories right away instead of after the next change
+            this.registerDirectories(startTime);
+        } finally {
+            synchronized (this) {
+                this.running.remove(identifier);
+
+                if (this.outdated.remove(identifier)) {
+                    this.schedule(identifier);
+                }
+            }
+        }
+    }
+
+    private synchronized void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        // Validate attributes of the task
+        this.validateAttributes();
+        this.createTasks();
+
+        this.graphs = new ConcurrentHashMap<>();
+        this.index = new ReverseIndex<>();
+        this.queued = new HashSet<>();
+        this.running = new HashSet<>();
+        this.outdated = new HashSet<>();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+
+        // A pool below its core size hands builds to new workers directly, bypassing the priority queue
+        this.executor.prestartAllCoreThreads();
+
+        // Index the recorded inputs, so that changes during the first builds are not lost
+        for (String identifier : this.tasks.keySet()) {
+            this.indexDocument(identifier);
+        }
+
+        // Ignore changes of files which affect none of the documents
+        ChangeFilter filter = new ChangeFilter() {
+            @Override
+            public boolean accept(Path file) {
+                return !findAffected(file).isEmpty();
+            }
+        };
+
+        try (ChangeWatcher changeWatcher = new ChangeWatcher(filter)) {
+            // Watch the directories of all documents with a single watcher, the builds register the directories of new inputs
+            changeWatcher.register(this.index.getDirectories());
+            this.log(String.format("Watching %1$d directories for changes of %2$d documents", changeWatcher.getDirectoryCount(), this.tasks.size()), Project.MSG_VERBOSE);
+            this.watcher = changeWatcher;
+
+            // Build every document once before waiting for changes
+            this.scheduleAll(this.tasks.keySet());
+
+            // Event loop
+            while (true) {
+                // Wait for a burst of changes to settle
+                Set<Path> changes;
+
+                try {
+                    changes = changeWatcher.awaitChanges(this.quietperiod);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                // Rebuild the documents reading the changed files
+                Set<String> affected = new HashSet<>();
+
+                for (Path change : changes) {
+                    this.log(String.format("%1$s has been changed", change));
+                    affected.addAll(this.findAffected(change));
+                }
+
+                this.log(String.format("%1$d of %2$d documents are affected", affected.size(), this.tasks.size()), Project.MSG_VERBOSE);
+                this.scheduleAll(affected);
+            }
+        } catch (IOException e) {
+            throw new BuildException(String.format("Documents could not be watched for changes: %1$s", e.getMessage()), e);
+        } finally {
+            this.watcher = null;
+            this.shutdown();
+        }
+    }
+
+    /**
+     * Build of a document waiting in the queue of the pool. Documents with a
+     * higher priority are built first, documents of equal priority in the
+     * order of their changes.
+     */
+    private class DocumentBuild implements Runnable, Comparable<DocumentBuild> {
+
+        private final String identifier;
+
+        private final int priority;
+
+        private final long sequence;
+
+        DocumentBuild(String identifier, int priority, long sequence) {
+            this.identifier = identifier;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            build(this.identifier);
+        }
+
+        @Override
+        public int compareTo(DocumentBuild other) {
+            if (this.priority != other.priority) {
+                return Integer.compare(other.priority, this.priority);
+            }
+
+            return Long.compare(this.sequence, other.sequence);
+        }
+
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public long getQuietperiod() {
+        return quietperiod;
+    }
+
+    public void setQuietperiod(long quietperiod) {
+        this.quietperiod = quietperiod;
+    }
+
+}
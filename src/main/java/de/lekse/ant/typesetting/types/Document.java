@@ -24,6 +24,11 @@ public class Document {
     private boolean continuous;
     
     private boolean tikzcompatibility;
+    
+    /**
+     * Documents with a higher priority are rebuilt first by the watch task.
+     */
+    private int priority;
 
     public String getType() {
         return type;
@@ -96,5 +101,13 @@ public class Document {
     public void setTikzcompatibility(boolean tikzcompatibility) {
         this.tikzcompatibility = tikzcompatibility;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
     
 }
@@ -0,0 +1,18 @@
+package de.lekse.ant.typesetting.watch;
+
+import java.nio.file.Path;
+
+/**
+ * Decides whether a change of a file should trigger a build.
+ *
+ * @author Lekse
+ */
+public interface ChangeFilter {
+
+    /**
+     * @param file Absolute path of the changed file
+     * @return True if the change is relevant for the build
+     */
+    boolean accept(Path file);
+
+}
@@ -0,0 +1,222 @@
+package de.lekse.ant.typesetting.watch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a set of directories and reports changed files in batches. Bursts
+ * of events (e.g. the content and timestamp notifications fired for a single
+ * save) are coalesced until no further relevant event arrives within a quiet
+ * period. If the events of a directory have been lost, the directory itself
+ * is reported, as any of its files may have changed.
+ * (see http://docs.oracle.com/javase/tutorial/essential/io/notification.html#overview)
+ *
+ * @author Lekse
+ */
+public class ChangeWatcher implements Closeable {
+
+    private final WatchService service;
+
+    private final ChangeFilter filter;
+
+    /**
+     * Registered directories and their watch keys. Guarded by the watcher,
+     * as directories are registered while another thread awaits changes.
+     */
+    private final Map<Path,WatchKey> keys;
+
+    /**
+     * Creates a watcher.
+     *
+     * @param filter Filter deciding which changes are reported
+     * @throws IOException
+     */
+    public ChangeWatcher(ChangeFilter filter) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.filter = filter;
+        this.keys = new HashMap<>();
+    }
+
+    /**
+     * Watches exactly the given directories. Directories registered earlier
+     * which are not contained in the collection are no longer watched. May be
+     * called while another thread awaits changes.
+     *
+     * @param dirs Directories to watch
+     * @return Directories which have not been watched before, whose files may
+     *         have been changed before they were registered
+     * @throws IOException
+     */
+    public synchronized Set<Path> register(Collection<Path> dirs) throws IOException {
+        Set<Path> added = new LinkedHashSet<>();
+
+        // Cancel directories which are no longer of interest
+        Iterator<Map.Entry<Path,WatchKey>> iterator = this.keys.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Path,WatchKey> entry = iterator.next();
+
+            if (!dirs.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        // Register new directories
+        for (Path dir : dirs) {
+            if (!this.keys.containsKey(dir) && dir.toFile().isDirectory()) {
+                WatchKey key = dir.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                this.keys.put(dir, key);
+                added.add(dir);
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Determines the number of watched directories.
+     *
+     * @return Number of watched directories
+     */
+    public synchronized int getDirectoryCount() {
+        return this.keys.size();
+    }
+
+    /**
+     * Waits for relevant changes and returns them once no further relevant
+     * event has been received within the quiet period.
+     *
+     * @param quietPeriod Quiet period in milliseconds
+     * @return Absolute paths of the changed files and of the directories
+     *         whose events have been lost, never empty
+     * @throws InterruptedException If the thread has been interrupted while
+     *                              waiting
+     */
+    public Set<Path> awaitChanges(long quietPeriod) throws InterruptedException {
+        Set<Path> changes = new LinkedHashSet<>();
+
+        while (changes.isEmpty()) {
+            // Wait for the first relevant event
+            if (this.collect(this.service.take(), changes)) {
+                this.coalesce(quietPeriod, changes);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Waits for relevant changes like {@link #awaitChanges(long)}, but gives
+     * up if no relevant event has been received within a timeout.
+     *
+     * @param quietPeriod Quiet period in milliseconds
+     * @param timeout Maximum time to wait for the first relevant event in
+     *                milliseconds
+     * @return Absolute paths of the changed files and of the directories
+     *         whose events have been lost, empty if the timeout has elapsed
+     * @throws InterruptedException If the thread has been interrupted while
+     *                              waiting
+     */
+    public Set<Path> awaitChanges(long quietPeriod, long timeout) throws InterruptedException {
+        Set<Path> changes = new LinkedHashSet<>();
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (changes.isEmpty()) {
+            // Wait for the first event until the timeout elapses
+            long remaining = deadline - System.currentTimeMillis();
+            WatchKey key = remaining > 0 ? this.service.poll(remaining, TimeUnit.MILLISECONDS) : null;
+
+            if (key == null) {
+                break;
+            }
+
+            if (this.collect(key, changes)) {
+                this.coalesce(quietPeriod, changes);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Coalesces subsequent events until the quiet period has elapsed since
+     * the last relevant event. Rejected events (e.g. the files written by a
+     * running build) do not extend the quiet period.
+     */
+    private void coalesce(long quietPeriod, Set<Path> changes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + quietPeriod;
+        long remaining;
+
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            WatchKey key = this.service.poll(remaining, TimeUnit.MILLISECONDS);
+
+            if (key == null) {
+                break;
+            }
+
+            if (this.collect(key, changes)) {
+                deadline = System.currentTimeMillis() + quietPeriod;
+            }
+        }
+    }
+
+    /**
+     * Collects the relevant changes reported by a key.
+     *
+     * @return True if a relevant change has been reported
+     */
+    private boolean collect(WatchKey key, Set<Path> changes) {
+        Path dir = (Path) key.watchable();
+        boolean relevant = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Events have been lost, any file of the directory may have changed
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.add(dir.toAbsolutePath());
+                relevant = true;
+
+                continue;
+            }
+
+            // Determine the changed file
+            Path file = dir.resolve((Path) event.context()).toAbsolutePath();
+
+            if (this.filter.accept(file)) {
+                changes.add(file);
+                relevant = true;
+            }
+        }
+
+        // Reset the key and forget it if the directory is no longer valid
+        if (!key.reset()) {
+            synchronized (this) {
+                // The directory may have been registered again meanwhile
+                if (this.keys.get(dir) == key) {
+                    this.keys.remove(dir);
+                }
+            }
+        }
+
+        return relevant;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.service.close();
+    }
+
+}
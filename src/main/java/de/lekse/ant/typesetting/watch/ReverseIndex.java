@@ -0,0 +1,148 @@
+package de.lekse.ant.typesetting.watch;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps input files to the documents reading them, so that a change only
+ * affects the documents which depend on the changed file. Files which are no
+ * known input (e.g. a new chapter or style) affect every document watching
+ * their directory, as its next build may read them. A watched directory
+ * itself, reported if its events have been lost, affects every document
+ * watching it.
+ *
+ * @param <T> Type of the documents
+ * @author Lekse
+ */
+public class ReverseIndex<T> {
+
+    private final Map<Path,Set<T>> inputs;
+
+    private final Map<Path,Set<T>> dirs;
+
+    /**
+     * Inputs and directories by document, which are removed when the
+     * document is updated.
+     */
+    private final Map<T,Set<Path>> documentInputs;
+
+    private final Map<T,Set<Path>> documentDirs;
+
+    public ReverseIndex() {
+        this.inputs = new HashMap<>();
+        this.dirs = new HashMap<>();
+        this.documentInputs = new HashMap<>();
+        this.documentDirs = new HashMap<>();
+    }
+
+    private static <T> void add(Map<Path,Set<T>> index, Collection<Path> files, T document) {
+        for (Path file : files) {
+            Set<T> documents = index.get(file);
+
+            if (documents == null) {
+                documents = new LinkedHashSet<>();
+                index.put(file, documents);
+            }
+
+            documents.add(document);
+        }
+    }
+
+    private static <T> void remove(Map<Path,Set<T>> index, Collection<Path> files, T document) {
+        for (Path file : files) {
+            Set<T> documents = index.get(file);
+
+            if (documents != null && documents.remove(document) && documents.isEmpty()) {
+                index.remove(file);
+            }
+        }
+    }
+
+    private static Set<Path> normalize(Collection<Path> files) {
+        Set<Path> normalized = new LinkedHashSet<>();
+
+        for (Path file : files) {
+            normalized.add(file.toAbsolutePath().normalize());
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Replaces the inputs and watched directories of a document.
+     *
+     * @param document Document
+     * @param inputs Files read by the last build of the document
+     * @param dirs Directories in which new inputs of the document may appear
+     */
+    public synchronized void update(T document, Collection<Path> inputs, Collection<Path> dirs) {
+        this.remove(document);
+
+        Set<Path> normalizedInputs = normalize(inputs);
+        Set<Path> normalizedDirs = normalize(dirs);
+
+        add(this.inputs, normalizedInputs, document);
+        add(this.dirs, normalizedDirs, document);
+        this.documentInputs.put(document, normalizedInputs);
+        this.documentDirs.put(document, normalizedDirs);
+    }
+
+    /**
+     * Removes a document from the index.
+     *
+     * @param document Document
+     */
+    public synchronized void remove(T document) {
+        Set<Path> previousInputs = this.documentInputs.remove(document);
+        Set<Path> previousDirs = this.documentDirs.remove(document);
+
+        if (previousInputs != null) {
+            remove(this.inputs, previousInputs, document);
+        }
+
+        if (previousDirs != null) {
+            remove(this.dirs, previousDirs, document);
+        }
+    }
+
+    /**
+     * Determines the documents affected by changes.
+     *
+     * @param changes Changed files
+     * @return Affected documents
+     */
+    public synchronized Set<T> findAffected(Collection<Path> changes) {
+        Set<T> affected = new LinkedHashSet<>();
+
+        for (Path change : normalize(changes)) {
+            Set<T> documents = this.inputs.get(change);
+
+            if (documents == null) {
+                documents = this.dirs.get(change);
+            }
+
+            // Unknown files may become inputs of the documents watching their directory
+            if (documents == null && change.getParent() != null) {
+                documents = this.dirs.get(change.getParent());
+            }
+
+            if (documents != null) {
+                affected.addAll(documents);
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * @return Union of the directories watched by all documents
+     */
+    public synchronized Set<Path> getDirectories() {
+        return new LinkedHashSet<>(this.dirs.keySet());
+    }
+
+}
@@ -6,7 +6,19 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     TypesetTaskTests.class,
-    CleanTaskTests.class
+    BuildManifestTests.class,
+    DependencyGraphTests.class,
+    LogParserTests.class,
+    BuildMetricsTests.class,
+    StubTypesetTests.class,
+    CleanTaskTests.class,
+    ArtifactStoreTests.class,
+    FigureCacheTests.class,
+    ReverseIndexTests.class,
+    BootstrapTaskTests.class,
+    ChangeWatcherTests.class,
+    BuildSchedulerTests.class,
+    ProcessEngineTests.class
 })
 public class AllTests {
     
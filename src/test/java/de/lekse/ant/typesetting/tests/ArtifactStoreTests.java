@@ -0,0 +1,149 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.BuildArtifacts;
+import de.lekse.ant.typesetting.build.BuildManifest;
+import de.lekse.ant.typesetting.cache.ArtifactStore;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the artifact store.
+ */
+@RunWith(JUnit4.class)
+public class ArtifactStoreTests {
+
+    private static final String KEY = "0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private void write(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+    private ArtifactStore publishDocument() throws IOException {
+        File document = temporaryFolder.newFile("document.pdf");
+        write(document, "PDF");
+
+        ArtifactStore store = new ArtifactStore(temporaryFolder.newFolder("store"));
+        assertTrue(store.publish(KEY, Collections.singletonMap("output/document.pdf", document)));
+
+        return store;
+    }
+
+    /**
+     * Test for restoring a published file into another directory
+     */
+    @Test
+    public void publishAndRestore() throws IOException {
+        ArtifactStore store = publishDocument();
+        File checkout = temporaryFolder.newFolder("checkout");
+
+        List<File> restored = store.restore(KEY, Collections.singletonMap("output", checkout));
+
+        assertEquals(1, restored.size());
+        assertEquals("PDF", read(new File(checkout, "document.pdf")));
+        assertNull(store.restore("fedcba9876543210", Collections.singletonMap("output", checkout)));
+    }
+
+    /**
+     * Test for keeping the first entry published for a key
+     */
+    @Test
+    public void publishOnce() throws IOException {
+        ArtifactStore store = publishDocument();
+        File other = temporaryFolder.newFile("other.pdf");
+        write(other, "Other");
+
+        assertFalse(store.publish(KEY, Collections.singletonMap("output/document.pdf", other)));
+
+        File checkout = temporaryFolder.newFolder("checkout");
+        store.restore(KEY, Collections.singletonMap("output", checkout));
+
+        assertEquals("PDF", read(new File(checkout, "document.pdf")));
+    }
+
+    /**
+     * Test for detaching a restored file before it is written
+     */
+    @Test
+    public void detachRestored() throws IOException {
+        ArtifactStore store = publishDocument();
+        Map<String,File> roots = new HashMap<>();
+        roots.put("output", temporaryFolder.newFolder("first"));
+
+        store.restore(KEY, roots);
+        File restored = new File(roots.get("output"), "document.pdf");
+        ArtifactStore.detach(restored);
+
+        assertTrue(restored.canWrite());
+        write(restored, "Changed");
+
+        roots.put("output", temporaryFolder.newFolder("second"));
+        store.restore(KEY, roots);
+
+        assertEquals("PDF", read(new File(roots.get("output"), "document.pdf")));
+    }
+
+    private BuildArtifacts createCheckout(String name, Map<String,String> values, List<String> keys) throws IOException {
+        File checkout = temporaryFolder.newFolder(name);
+        File document = new File(checkout, "document.tex");
+        write(document, "Hello World");
+        write(new File(checkout, "document.pdf"), "PDF");
+        write(new File(checkout, "document.fls"), "PWD ".concat(checkout.getAbsolutePath()));
+
+        BuildManifest manifest = new BuildManifest();
+        manifest.putInput(document);
+
+        BuildArtifacts artifacts = new BuildArtifacts(checkout, checkout);
+        values.put("texinputs", checkout.getAbsolutePath());
+        keys.add(artifacts.createKey("pdfTeX", "document", values, manifest));
+
+        return artifacts;
+    }
+
+    /**
+     * Test for sharing the artifacts of identical checkouts in different
+     * locations
+     */
+    @Test
+    public void shareArtifactsAcrossCheckouts() throws IOException {
+        List<String> keys = new ArrayList<>();
+        createCheckout("first", new LinkedHashMap<String,String>(), keys);
+        BuildArtifacts artifacts = createCheckout("second", new LinkedHashMap<String,String>(), keys);
+
+        assertEquals(keys.get(0), keys.get(1));
+
+        BuildManifest manifest = new BuildManifest();
+        File checkout = new File(temporaryFolder.getRoot(), "second");
+        manifest.putOutput(new File(checkout, "document.pdf"), BuildManifest.OUTPUT_PRODUCT);
+        manifest.putOutput(new File(checkout, "document.fls"), BuildManifest.OUTPUT_AUXILIARY);
+
+        Map<String,File> files = artifacts.selectFiles(manifest, Collections.<File>emptySet(), Arrays.asList(".fls"));
+
+        assertEquals(Collections.singletonList(new File(checkout, "document.pdf")), new ArrayList<>(files.values()));
+    }
+
+}
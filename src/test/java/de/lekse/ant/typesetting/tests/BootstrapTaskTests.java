@@ -0,0 +1,60 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.tasks.BootstrapTask;
+import de.lekse.ant.typesetting.tasks.TypesetTask;
+import java.io.File;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bootstrap task.
+ */
+@RunWith(JUnit4.class)
+public class BootstrapTaskTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test for creating a target compiling each document defined by
+     * properties
+     */
+    @Test
+    public void createTargets() {
+        Project project = new Project();
+        project.init();
+        project.setBaseDir(temporaryFolder.getRoot());
+        project.setProperty("documents.thesis.dir", "thesis");
+        project.setProperty("documents.thesis.document", "thesis.tex");
+        project.setProperty("documents.thesis.language", "ngerman");
+        project.setProperty("documents.thesis.priority", "2");
+        project.setProperty("documents.slides.document", "slides/slides.tex");
+        project.setProperty("documents.slides.outputfile", "output/talk.pdf");
+        project.setProperty("documents.slides.unknown", "value");
+
+        BootstrapTask bootstrap = new BootstrapTask();
+        bootstrap.setProject(project);
+        bootstrap.execute();
+
+        Target thesis = project.getTargets().get("build-thesis");
+        Task[] thesisTasks = thesis.getTasks();
+        assertEquals(1, thesisTasks.length);
+
+        TypesetTask thesisTask = (TypesetTask) thesisTasks[0];
+        assertEquals(new File(new File(temporaryFolder.getRoot(), "thesis"), "thesis.tex").getAbsoluteFile(), thesisTask.getDocument().getAbsoluteFile());
+        assertEquals("ngerman", thesisTask.getLanguage());
+
+        TypesetTask slidesTask = (TypesetTask) project.getTargets().get("build-slides").getTasks()[0];
+        assertEquals(new File(temporaryFolder.getRoot(), "slides/slides.tex"), slidesTask.getDocument());
+        assertEquals("talk", slidesTask.getOutputname());
+        assertEquals(new File(temporaryFolder.getRoot(), "output"), slidesTask.getOutputdir());
+    }
+
+}
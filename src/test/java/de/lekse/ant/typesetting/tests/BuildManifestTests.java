@@ -0,0 +1,98 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.BuildManifest;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the build manifest.
+ */
+@RunWith(JUnit4.class)
+public class BuildManifestTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private void write(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private BuildManifest createManifest(File input) {
+        BuildManifest manifest = new BuildManifest();
+        manifest.putValue("preamble", "\\documentclass{article}");
+        manifest.putInput(input);
+
+        return manifest;
+    }
+
+    /**
+     * Test for detecting unchanged inputs after storing and loading a manifest
+     */
+    @Test
+    public void unchangedInputs() throws IOException {
+        File input = temporaryFolder.newFile("document.tex");
+        write(input, "Hello World");
+
+        File manifestFile = new File(temporaryFolder.getRoot(), "document.manifest");
+        createManifest(input).store(manifestFile);
+
+        assertNull(createManifest(input).findChange(BuildManifest.load(manifestFile)));
+    }
+
+    /**
+     * Test for detecting a changed input file
+     */
+    @Test
+    public void changedInput() throws IOException {
+        File input = temporaryFolder.newFile("document.tex");
+        write(input, "Hello World");
+
+        BuildManifest previous = createManifest(input);
+        write(input, "Hello Universe");
+
+        String change = createManifest(input).findChange(previous);
+
+        assertNotNull(change);
+        assertTrue(change.contains(input.getAbsolutePath()));
+    }
+
+    /**
+     * Test for requiring a build if no manifest has been recorded
+     */
+    @Test
+    public void missingManifest() throws IOException {
+        File input = temporaryFolder.newFile("document.tex");
+
+        assertNull(BuildManifest.load(new File(temporaryFolder.getRoot(), "missing.manifest")));
+        assertNotNull(createManifest(input).findChange(null));
+    }
+
+    /**
+     * Test for ignoring the recorded outputs when comparing manifests
+     */
+    @Test
+    public void outputsIgnored() throws IOException {
+        File input = temporaryFolder.newFile("document.tex");
+        File output = new File(temporaryFolder.getRoot(), "document.pdf");
+
+        BuildManifest previous = createManifest(input);
+        previous.putOutput(output, BuildManifest.OUTPUT_PRODUCT);
+
+        File manifestFile = new File(temporaryFolder.getRoot(), "document.manifest");
+        previous.store(manifestFile);
+        BuildManifest loaded = BuildManifest.load(manifestFile);
+
+        assertNull(createManifest(input).findChange(loaded));
+        assertEquals(BuildManifest.OUTPUT_PRODUCT, loaded.getOutputs().get(output.getAbsoluteFile()));
+    }
+
+}
@@ -0,0 +1,88 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.BuildMetrics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the build metrics.
+ */
+@RunWith(JUnit4.class)
+public class BuildMetricsTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private BuildMetrics createMetrics() {
+        BuildMetrics metrics = new BuildMetrics("/tmp/my \"document\".tex", "document");
+        metrics.addPass(TimeUnit.MILLISECONDS.toNanos(1200), TimeUnit.MILLISECONDS.toNanos(3), 1100);
+        metrics.addPass(TimeUnit.MILLISECONDS.toNanos(800), 0, 700);
+        metrics.setFigures(2, 5);
+        metrics.finish();
+
+        return metrics;
+    }
+
+    /**
+     * Test for the aggregated metrics
+     */
+    @Test
+    public void aggregate() {
+        BuildMetrics metrics = createMetrics();
+
+        assertEquals(2, metrics.getPasses());
+        assertEquals(1800, metrics.getCpuMillis());
+        assertEquals("2000", metrics.toMap().get("pass.time"));
+        assertEquals("3", metrics.toMap().get("spawn.time"));
+        assertEquals("5", metrics.toMap().get("figures.reused"));
+        assertEquals("false", metrics.toMap().get("uptodate"));
+    }
+
+    /**
+     * Test for a CPU time which is not available for every pass
+     */
+    @Test
+    public void unavailableCpuTime() {
+        BuildMetrics metrics = new BuildMetrics("document.tex", "document");
+        metrics.addPass(1, 1, 10);
+        metrics.addPass(1, 1, -1);
+
+        assertEquals(-1, metrics.getCpuMillis());
+    }
+
+    /**
+     * Test for appending the metrics to JSON and CSV reports
+     */
+    @Test
+    public void appendReports() throws IOException {
+        BuildMetrics metrics = createMetrics();
+        File json = new File(temporaryFolder.getRoot(), "metrics.json");
+        File csv = new File(temporaryFolder.getRoot(), "metrics.csv");
+
+        metrics.appendTo(json);
+        metrics.appendTo(json);
+        metrics.appendTo(csv);
+        metrics.appendTo(csv);
+
+        List<String> jsonLines = Files.readAllLines(json.toPath(), Charset.forName("UTF-8"));
+        assertEquals(2, jsonLines.size());
+        assertTrue(jsonLines.get(0).contains("\"document\":\"/tmp/my \\\"document\\\".tex\""));
+        assertTrue(jsonLines.get(0).endsWith("\"pass.times\":[{\"time\":1200,\"cpu.time\":1100},{\"time\":800,\"cpu.time\":700}]}"));
+
+        List<String> csvLines = Files.readAllLines(csv.toPath(), Charset.forName("UTF-8"));
+        assertEquals(3, csvLines.size());
+        assertTrue(csvLines.get(0).startsWith("timestamp,document,jobname,uptodate,time"));
+        assertTrue(csvLines.get(1).contains(",\"/tmp/my \"\"document\"\".tex\",document,false,"));
+    }
+
+}
@@ -0,0 +1,137 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.BuildScheduler;
+import de.lekse.ant.typesetting.build.CancellableBuild;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the scheduler running builds in the background.
+ */
+@RunWith(JUnit4.class)
+public class BuildSchedulerTests {
+
+    private static final Path CHAPTER1 = Paths.get("/project/chapter1.tex");
+
+    private static final Path CHAPTER2 = Paths.get("/project/chapter2.tex");
+
+    private static final Path CHAPTER3 = Paths.get("/project/chapter3.tex");
+
+    /**
+     * Build which records its changes and blocks the first build until it is
+     * released.
+     */
+    private static class RecordingBuild implements CancellableBuild {
+
+        private final List<Set<Path>> builds = Collections.synchronizedList(new ArrayList<Set<Path>>());
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private final AtomicInteger cancellations = new AtomicInteger();
+
+        private final AtomicInteger resets = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        /**
+         * Cancellation state seen by every build when it has been started.
+         */
+        private final List<Boolean> cancelledAtStart = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        @Override
+        public void build(Set<Path> changes) {
+            this.cancelledAtStart.add(this.cancelled);
+            this.builds.add(new LinkedHashSet<>(changes));
+
+            if (this.builds.size() == 1) {
+                this.started.countDown();
+
+                try {
+                    this.released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            this.cancellations.incrementAndGet();
+            this.cancelled = true;
+        }
+
+        @Override
+        public void reset() {
+            this.resets.incrementAndGet();
+            this.cancelled = false;
+        }
+
+    }
+
+    /**
+     * Test for cancelling the running build once and building all changes
+     * submitted meanwhile by a single build
+     */
+    @Test
+    public void latestSubmissionWins() throws InterruptedException {
+        RecordingBuild build = new RecordingBuild();
+
+        try (BuildScheduler scheduler = new BuildScheduler(build, "scheduler")) {
+            scheduler.submit(Collections.singleton(CHAPTER1));
+            assertTrue(build.started.await(10, TimeUnit.SECONDS));
+
+            scheduler.submit(Collections.singleton(CHAPTER2));
+            scheduler.submit(Collections.singleton(CHAPTER3));
+            build.released.countDown();
+            scheduler.awaitIdle();
+        }
+
+        assertEquals(1, build.cancellations.get());
+        assertEquals(2, build.builds.size());
+        assertEquals(Collections.singleton(CHAPTER1), build.builds.get(0));
+
+        // The changes of the cancelled build are built again
+        assertEquals(new HashSet<>(Arrays.asList(CHAPTER1, CHAPTER2, CHAPTER3)), build.builds.get(1));
+    }
+
+    /**
+     * Test for clearing the cancellation of the previous build before the
+     * next build is dispatched
+     */
+    @Test
+    public void resetBeforeDispatch() throws InterruptedException {
+        RecordingBuild build = new RecordingBuild();
+
+        try (BuildScheduler scheduler = new BuildScheduler(build, "scheduler")) {
+            scheduler.submit(Collections.singleton(CHAPTER1));
+            assertTrue(build.started.await(10, TimeUnit.SECONDS));
+
+            scheduler.submit(Collections.singleton(CHAPTER2));
+            build.released.countDown();
+            scheduler.awaitIdle();
+
+            scheduler.submit(Collections.singleton(CHAPTER3));
+            scheduler.awaitIdle();
+        }
+
+        assertEquals(3, build.resets.get());
+        assertEquals(Arrays.asList(false, false, false), build.cancelledAtStart);
+    }
+
+}
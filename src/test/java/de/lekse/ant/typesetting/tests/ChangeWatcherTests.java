@@ -0,0 +1,208 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.watch.ChangeFilter;
+import de.lekse.ant.typesetting.watch.ChangeWatcher;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the watcher reporting changed files in batches.
+ */
+@RunWith(JUnit4.class)
+public class ChangeWatcherTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Filter which ignores auxiliary files.
+     */
+    private static final ChangeFilter SOURCES = new ChangeFilter() {
+        @Override
+        public boolean accept(Path file) {
+            return !file.toString().endsWith(".aux");
+        }
+    };
+
+    private static void append(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(content);
+        }
+    }
+
+    /**
+     * Test for reporting several saves within the quiet period as a single
+     * batch
+     */
+    @Test
+    public void coalesceWithinQuietPeriod() throws IOException, InterruptedException {
+        final File chapter = temporaryFolder.newFile("chapter.tex");
+        final File figure = temporaryFolder.newFile("figure.tex");
+
+        try (ChangeWatcher watcher = new ChangeWatcher(SOURCES)) {
+            watcher.register(Collections.singleton(temporaryFolder.getRoot().toPath()));
+
+            assertEquals(1, watcher.getDirectoryCount());
+
+            // Save the files in short intervals
+            Thread editor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            append(chapter, "Changed.\n");
+                            append(figure, "Changed.\n");
+                            Thread.sleep(50);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, "editor");
+            editor.start();
+
+            Set<Path> changes = watcher.awaitChanges(500);
+            editor.join();
+
+            assertEquals(new HashSet<>(Arrays.asList(chapter.toPath().toAbsolutePath(), figure.toPath().toAbsolutePath())), changes);
+
+            // Every save has been part of the batch
+            assertTrue(watcher.awaitChanges(50, 200).isEmpty());
+        }
+    }
+
+    /**
+     * Test for ignoring changes rejected by the filter
+     */
+    @Test
+    public void ignoreFilteredChanges() throws IOException, InterruptedException {
+        File aux = temporaryFolder.newFile("document.aux");
+        File chapter = temporaryFolder.newFile("chapter.tex");
+
+        try (ChangeWatcher watcher = new ChangeWatcher(SOURCES)) {
+            watcher.register(Collections.singleton(temporaryFolder.getRoot().toPath()));
+
+            append(aux, "\\relax\n");
+
+            assertTrue(watcher.awaitChanges(50, 300).isEmpty());
+
+            append(aux, "\\relax\n");
+            append(chapter, "Changed.\n");
+
+            assertEquals(Collections.singleton(chapter.toPath().toAbsolutePath()), watcher.awaitChanges(50, 2000));
+        }
+    }
+
+    /**
+     * Test for reporting a change once the quiet period has elapsed, even if
+     * rejected files (e.g. the log of a running build) are still written
+     */
+    @Test
+    public void ignoreFilteredChangesInQuietPeriod() throws IOException, InterruptedException {
+        final File aux = temporaryFolder.newFile("document.aux");
+        File chapter = temporaryFolder.newFile("chapter.tex");
+
+        try (ChangeWatcher watcher = new ChangeWatcher(SOURCES)) {
+            watcher.register(Collections.singleton(temporaryFolder.getRoot().toPath()));
+
+            // Keep writing the auxiliary file during and after the save
+            Thread build = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 60; i++) {
+                            append(aux, "\\relax\n");
+                            Thread.sleep(50);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, "build");
+            build.start();
+
+            append(chapter, "Changed.\n");
+
+            long start = System.nanoTime();
+            Set<Path> changes = watcher.awaitChanges(300);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            build.join();
+
+            assertEquals(Collections.singleton(chapter.toPath().toAbsolutePath()), changes);
+            assertTrue(String.format("Changes have been reported after %1$d ms", elapsed), elapsed < 2000);
+        }
+    }
+
+    /**
+     * Test for no longer reporting changes in directories which are not
+     * registered again
+     */
+    @Test
+    public void replaceDirectories() throws IOException, InterruptedException {
+        File first = temporaryFolder.newFolder("first");
+        File second = temporaryFolder.newFolder("second");
+
+        try (ChangeWatcher watcher = new ChangeWatcher(SOURCES)) {
+            watcher.register(Arrays.asList(first.toPath(), second.toPath()));
+            watcher.register(Collections.singleton(second.toPath()));
+
+            assertEquals(1, watcher.getDirectoryCount());
+
+            append(new File(first, "chapter.tex"), "Changed.\n");
+            append(new File(second, "chapter.tex"), "Changed.\n");
+
+            assertEquals(Collections.singleton(new File(second, "chapter.tex").toPath().toAbsolutePath()), watcher.awaitChanges(50, 2000));
+        }
+    }
+
+    /**
+     * Test for registering a new directory while another thread awaits
+     * changes, as a build does once it has recorded a new input
+     */
+    @Test
+    public void registerWhileAwaiting() throws IOException, InterruptedException {
+        final File first = temporaryFolder.newFolder("first");
+        final File second = temporaryFolder.newFolder("second");
+
+        try (final ChangeWatcher watcher = new ChangeWatcher(SOURCES)) {
+            watcher.register(Collections.singleton(first.toPath()));
+
+            // Register the second directory and change a file in it while the watcher waits
+            final Set<Path> added = new HashSet<>();
+            Thread build = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                        added.addAll(watcher.register(Arrays.asList(first.toPath(), second.toPath())));
+                        append(new File(second, "chapter.tex"), "Changed.\n");
+                    } catch (IOException | InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, "build");
+            build.start();
+
+            Set<Path> changes = watcher.awaitChanges(50, 2000);
+            build.join();
+
+            assertEquals(Collections.singleton(second.toPath()), added);
+            assertEquals(2, watcher.getDirectoryCount());
+            assertEquals(Collections.singleton(new File(second, "chapter.tex").toPath().toAbsolutePath()), changes);
+        }
+    }
+
+}
@@ -1,18 +1,163 @@
 package de.lekse.ant.typesetting.tests;
 
+import de.lekse.ant.typesetting.tasks.CleanTask;
+import de.lekse.ant.typesetting.tasks.TypesetTask;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.apache.tools.ant.Project;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
 
 /**
  * Unit tests for the clean task.
  */
 @RunWith(JUnit4.class)
 public class CleanTaskTests {
-    
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File launcher;
+
+    private File stats;
+
+    private Project project;
+
+    private File document;
+
+    @Before
+    public void setUp() throws IOException {
+        this.stats = new File(temporaryFolder.getRoot(), "stubtex.stats");
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("bin"), 0, this.stats);
+
+        this.project = new Project();
+        this.project.init();
+        this.project.setBaseDir(temporaryFolder.getRoot());
+
+        this.document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+        this.typeset();
+    }
+
+    private void typeset() {
+        TypesetTask task = new TypesetTask();
+        task.setProject(project);
+        task.setTaskName("typeset");
+        task.setDocument(document);
+        task.setCompiler(launcher.getAbsolutePath());
+        task.setMaxpasses(3);
+        task.execute();
+    }
+
+    private void clean(String level, boolean dryrun) {
+        CleanTask task = new CleanTask();
+        task.setProject(project);
+        task.setTaskName("clean");
+        task.setDir(temporaryFolder.getRoot());
+        task.setLevel(level);
+        task.setDryrun(dryrun);
+        task.setThreads(2);
+        task.execute();
+    }
+
+    private File getFile(String name) {
+        return new File(temporaryFolder.getRoot(), name);
+    }
+
+    private int countProcesses() throws IOException {
+        return Files.readAllLines(stats.toPath(), Charset.forName("UTF-8")).size();
+    }
+
+    /**
+     * Test for cleaning the intermediate files, which keeps the document up
+     * to date
+     */
     @Test
-    public void cleanTest() {
-        
+    public void cleanAuxiliary() throws IOException {
+        int processes = countProcesses();
+
+        clean("aux", false);
+
+        assertFalse(getFile("document.aux").exists());
+        assertFalse(getFile("document.log").exists());
+        assertTrue(getFile("document.pdf").exists());
+        assertTrue(getFile("document.manifest").exists());
+        assertTrue(getFile("document.tex").exists());
+
+        typeset();
+
+        assertEquals(processes, countProcesses());
     }
-    
+
+    /**
+     * Test for cleaning the final document while keeping the cache
+     */
+    @Test
+    public void cleanKeepCache() throws IOException {
+        clean("keep-cache", false);
+
+        assertFalse(getFile("document.aux").exists());
+        assertFalse(getFile("document.pdf").exists());
+        assertTrue(getFile("document.deps").exists());
+        assertTrue(getFile("document/chapter0.tex").exists());
+    }
+
+    /**
+     * Test for cleaning all recorded files including the manifest
+     */
+    @Test
+    public void cleanAll() throws IOException {
+        clean("all", false);
+
+        assertFalse(getFile("document.pdf").exists());
+        assertFalse(getFile("document.deps").exists());
+        assertFalse(getFile("document.manifest").exists());
+        assertTrue(getFile("document.tex").exists());
+        assertTrue(getFile("document/chapter1.tex").exists());
+    }
+
+    /**
+     * Test for cleaning the files of jobs in directories without a manifest,
+     * e.g. left behind by a failed first build
+     */
+    @Test
+    public void cleanWithoutManifest() throws IOException {
+        File dir = temporaryFolder.newFolder("legacy");
+
+        for (String name : new String[] { "legacy.tex", "legacy.aux", "legacy.log", "legacy.fls", "legacy.pdf", "figure.pdf" }) {
+            Files.write(new File(dir, name).toPath(), new byte[0]);
+        }
+
+        clean("aux", false);
+
+        assertFalse(new File(dir, "legacy.aux").exists());
+        assertFalse(new File(dir, "legacy.log").exists());
+        assertFalse(new File(dir, "legacy.fls").exists());
+        assertTrue(new File(dir, "legacy.pdf").exists());
+        assertTrue(new File(dir, "legacy.tex").exists());
+
+        clean("keep-cache", false);
+
+        assertFalse(new File(dir, "legacy.pdf").exists());
+        assertTrue(new File(dir, "legacy.tex").exists());
+        assertTrue(new File(dir, "figure.pdf").exists());
+    }
+
+    /**
+     * Test for listing the files to clean without deleting them
+     */
+    @Test
+    public void dryRun() throws IOException {
+        clean("all", true);
+
+        assertTrue(getFile("document.pdf").exists());
+        assertTrue(getFile("document.manifest").exists());
+    }
+
 }
@@ -0,0 +1,142 @@
+package de.lekse.ant.typesetting.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Generates synthetic multi-file documents. A document includes a number of
+ * chapters, every chapter consists of sections with labels, references to
+ * the previous section and optionally TikZ pictures, which may read their
+ * data from separate files.
+ *
+ * @author Lekse
+ */
+public class CorpusGenerator {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final String PARAGRAPH = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat.\n\n";
+
+    private int chapters;
+
+    private int sections;
+
+    private int paragraphs;
+
+    private int figures;
+
+    private boolean figureData;
+
+    public CorpusGenerator() {
+        this.chapters = 10;
+        this.sections = 5;
+        this.paragraphs = 4;
+        this.figures = 0;
+        this.figureData = false;
+    }
+
+    public CorpusGenerator setChapters(int chapters) {
+        this.chapters = chapters;
+
+        return this;
+    }
+
+    public CorpusGenerator setSections(int sections) {
+        this.sections = sections;
+
+        return this;
+    }
+
+    public CorpusGenerator setParagraphs(int paragraphs) {
+        this.paragraphs = paragraphs;
+
+        return this;
+    }
+
+    /**
+     * @param figures Number of TikZ pictures per chapter
+     */
+    public CorpusGenerator setFigures(int figures) {
+        this.figures = figures;
+
+        return this;
+    }
+
+    /**
+     * @param figureData If true, every TikZ picture inputs its coordinates
+     *                   from a data file named after the chapter and picture
+     */
+    public CorpusGenerator setFigureData(boolean figureData) {
+        this.figureData = figureData;
+
+        return this;
+    }
+
+    /**
+     * Generates a document. The chapters are written to a directory named
+     * after the document.
+     *
+     * @param dir Directory of the document
+     * @param name Name of the document without extension
+     * @return Main file of the document
+     * @throws IOException
+     */
+    public File generate(File dir, String name) throws IOException {
+        File chapterDir = new File(dir, name);
+
+        if (!chapterDir.isDirectory() && !chapterDir.mkdirs()) {
+            throw new IOException(String.format("Directory \"%1$s\" could not be created", chapterDir));
+        }
+
+        StringBuilder main = new StringBuilder("\\begin{document}\n");
+
+        for (int chapter = 0; chapter < this.chapters; chapter++) {
+            String chapterName = String.format("chapter%1$d", chapter);
+            StringBuilder content = new StringBuilder(String.format("\\section*{Chapter %1$d}%n", chapter));
+
+            for (int section = 0; section < this.sections; section++) {
+                content.append(String.format("\\subsection{Section %1$d.%2$d}\\label{sec:%1$d-%2$d}%n", chapter, section));
+
+                if (section > 0) {
+                    content.append(String.format("See section \\ref{sec:%1$d-%2$d}.%n%n", chapter, section - 1));
+                }
+
+                for (int paragraph = 0; paragraph < this.paragraphs; paragraph++) {
+                    content.append(PARAGRAPH);
+                }
+            }
+
+            for (int figure = 0; figure < this.figures; figure++) {
+                if (this.figureData) {
+                    String dataName = String.format("%1$s-figure%2$d.dat", chapterName, figure);
+                    write(new File(chapterDir, dataName), String.format("(0,0) -- (%1$d,%2$d)%n", chapter, figure));
+                    content.append(String.format("\\begin{tikzpicture}\\draw \\input{%1$s/%2$s};\\end{tikzpicture}%n", name, dataName));
+                }
+                else {
+                    content.append(String.format("\\begin{tikzpicture}\\draw (0,0) -- (%1$d,%2$d);\\end{tikzpicture}%n", chapter, figure));
+                }
+            }
+
+            write(new File(chapterDir, chapterName.concat(".tex")), content.toString());
+            main.append(String.format("\\include{%1$s/%2$s}%n", name, chapterName));
+        }
+
+        main.append("\\end{document}\n");
+
+        File document = new File(dir, name.concat(".tex"));
+        write(document, main.toString());
+
+        return document;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET)) {
+            writer.write(content);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.DependencyGraph;
+import de.lekse.ant.typesetting.build.IncludeUnits;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the dependency graph.
+ */
+@RunWith(JUnit4.class)
+public class DependencyGraphTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        file.getParentFile().mkdirs();
+
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+
+        return file;
+    }
+
+    /**
+     * Test for parsing a recorder file written by pdflatex -recorder
+     */
+    @Test
+    public void parseRecorder() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File recorder = write("document.fls", String.format("PWD %1$s\nINPUT /usr/share/texmf/tex/latex/base/article.cls\nINPUT document.tex\nINPUT chapters/intro.tex\nINPUT document.aux\nOUTPUT document.aux\nOUTPUT document.pdf\n", root.getAbsolutePath()));
+
+        DependencyGraph graph = DependencyGraph.parseRecorder(recorder, root).restrictTo(Collections.singletonList(root));
+
+        assertEquals(2, graph.getInputs().size());
+        assertTrue(graph.getInputs().contains(new File(root, "chapters/intro.tex")));
+        assertFalse(graph.getInputs().contains(new File(root, "document.aux")));
+        assertTrue(graph.getOutputs().contains(new File(root, "document.pdf")));
+    }
+
+    /**
+     * Test for scanning inclusion commands if no recorder file is available
+     */
+    @Test
+    public void scanInclusions() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File document = write("document.tex", "\\input{chapters/intro}\n% \\input{commented}\n\\includegraphics[width=2cm]{figure}\n");
+        write("chapters/intro.tex", "\\include{chapters/details}\n");
+        write("chapters/details.tex", "Details");
+        write("commented.tex", "Commented");
+        write("figure.png", "");
+
+        DependencyGraph graph = DependencyGraph.scan(document, Arrays.asList(root));
+
+        assertEquals(4, graph.getInputs().size());
+        assertTrue(graph.getInputs().contains(new File(root, "chapters/details.tex")));
+        assertTrue(graph.getInputs().contains(new File(root, "figure.png")));
+        assertFalse(graph.getInputs().contains(new File(root, "commented.tex")));
+    }
+
+    /**
+     * Test for mapping changed files to the units of a document which read
+     * them according to a recorder file
+     */
+    @Test
+    public void findIncludeUnits() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File document = write("book.tex", "\\input{macros}\n\\include{chapters/one}\n\\include{chapters/two}\n");
+        File macros = write("macros.tex", "\\newcommand\\book{Book}\n");
+        File one = write("chapters/one.tex", "\\input{chapters/table}\n\\includegraphics{plot}\n");
+        File two = write("chapters/two.tex", "\\includegraphics{plot}\n");
+        File table = write("chapters/table.tex", "Table");
+        File plot = write("plot.pdf", "");
+        File recorder = write("book.fls", String.format("PWD %1$s\nINPUT /usr/share/texmf/tex/latex/base/book.cls\nINPUT book.tex\nINPUT macros.tex\nINPUT book.aux\nINPUT chapters/one.aux\nOUTPUT book.aux\n"
+                + "OUTPUT chapters/one.aux\nINPUT chapters/one.tex\nINPUT chapters/table.tex\nINPUT plot.pdf\nOUTPUT chapters/two.aux\nINPUT chapters/two.tex\nINPUT plot.pdf\n"
+                + "INPUT book.aux\nINPUT chapters/one.aux\nINPUT chapters/two.aux\nOUTPUT book.log\nOUTPUT book.pdf\n", root.getAbsolutePath()));
+
+        IncludeUnits units = IncludeUnits.parseRecorder(recorder, root, "book");
+
+        assertEquals(Arrays.asList("chapters/one", "chapters/two"), new ArrayList<>(units.getNames()));
+        assertEquals(Collections.singleton("chapters/one"), units.findUnits(Arrays.asList(one, table)));
+        assertEquals(2, units.findUnits(Collections.singleton(plot)).size());
+        assertEquals(Collections.singleton("chapters/two"), units.findUnits(Collections.singleton(two)));
+
+        // Files read outside of the units and unknown files affect the whole document
+        assertNull(units.findUnits(Arrays.asList(one, macros)));
+        assertNull(units.findUnits(Collections.singleton(document)));
+        assertNull(units.findUnits(Collections.singleton(write("notes.tex", "Notes"))));
+
+        // The units survive persisting them
+        File unitsFile = new File(root, "book.units");
+        units.store(unitsFile);
+        IncludeUnits loaded = IncludeUnits.load(unitsFile);
+
+        assertEquals(units.getNames(), loaded.getNames());
+        assertEquals(Collections.singleton("chapters/one"), loaded.findUnits(Collections.singleton(table)));
+        assertNull(loaded.findUnits(Collections.singleton(macros)));
+    }
+
+    /**
+     * Test for naming the units relative to the .aux file of the document if
+     * pdflatex writes into another directory
+     */
+    @Test
+    public void findIncludeUnitsInOutputDirectory() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File one = write("one.tex", "One");
+        File recorder = write("out/book.fls", String.format("PWD %1$s\nINPUT book.tex\nOUTPUT out/book.aux\nOUTPUT out/one.aux\nINPUT one.tex\nINPUT out/book.aux\n", root.getAbsolutePath()));
+
+        IncludeUnits units = IncludeUnits.parseRecorder(recorder, root, "book");
+
+        assertEquals(Collections.singleton("one"), units.findUnits(Collections.singleton(one)));
+        assertNull(IncludeUnits.parseRecorder(new File(root, "missing.fls"), root, "book"));
+    }
+
+    /**
+     * Test for persisting and loading a dependency graph
+     */
+    @Test
+    public void storeAndLoad() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File document = write("document.tex", "\\input{intro}");
+        write("intro.tex", "Intro");
+
+        File dependencies = new File(root, "document.deps");
+        DependencyGraph.scan(document, Arrays.asList(root)).store(dependencies);
+
+        assertEquals(2, DependencyGraph.load(dependencies).getInputs().size());
+    }
+
+}
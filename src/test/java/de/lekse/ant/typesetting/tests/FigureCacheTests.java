@@ -0,0 +1,104 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.cache.FigureCache;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the figure cache.
+ */
+@RunWith(JUnit4.class)
+public class FigureCacheTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Writes the files of a figure with the given age.
+     */
+    private File createFigure(String name, long ageMillis) throws IOException {
+        File pdf = null;
+
+        for (String extension : Arrays.asList(".pdf", ".md5", ".log")) {
+            File file = new File(temporaryFolder.getRoot(), name.concat(extension));
+
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write("0123456789");
+            }
+
+            file.setLastModified(System.currentTimeMillis() - ageMillis);
+
+            if (extension.equals(".pdf")) {
+                pdf = file;
+            }
+        }
+
+        return pdf;
+    }
+
+    /**
+     * Test for counting figures compiled before the build as hits and
+     * figures compiled by the build as misses
+     */
+    @Test
+    public void hitsAndMisses() throws IOException {
+        File cached = createFigure("document-figure0", TimeUnit.HOURS.toMillis(1));
+        long buildStart = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+        File compiled = createFigure("document-figure1", 0);
+
+        FigureCache.Report report = new FigureCache(temporaryFolder.getRoot()).update(Arrays.asList(cached, compiled), buildStart, 0, 0);
+
+        assertEquals(1, report.getHits());
+        assertEquals(1, report.getMisses());
+        assertEquals(0, report.getEvictions());
+        assertTrue(new File(temporaryFolder.getRoot(), FigureCache.INDEX_NAME).isFile());
+    }
+
+    /**
+     * Test for evicting the least recently used figures which exceed the
+     * size of the cache, but never the figures of the build
+     */
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        createFigure("document-figure0", TimeUnit.HOURS.toMillis(3));
+        createFigure("document-figure1", TimeUnit.HOURS.toMillis(2));
+        File used = createFigure("document-figure2", TimeUnit.HOURS.toMillis(4));
+
+        // Every figure has 30 bytes, hence two figures fit
+        FigureCache.Report report = new FigureCache(temporaryFolder.getRoot()).update(Collections.singletonList(used), System.currentTimeMillis(), 60, 0);
+
+        assertEquals(1, report.getEvictions());
+        assertEquals(30, report.getEvictedBytes());
+        assertEquals(60, report.getSize());
+        assertFalse(new File(temporaryFolder.getRoot(), "document-figure0.pdf").exists());
+        assertFalse(new File(temporaryFolder.getRoot(), "document-figure0.md5").exists());
+        assertTrue(new File(temporaryFolder.getRoot(), "document-figure1.pdf").exists());
+        assertTrue(used.exists());
+    }
+
+    /**
+     * Test for evicting figures which have not been used for too long
+     */
+    @Test
+    public void evictExpired() throws IOException {
+        createFigure("document-figure0", TimeUnit.DAYS.toMillis(10));
+        createFigure("document-figure1", TimeUnit.DAYS.toMillis(1));
+
+        FigureCache.Report report = new FigureCache(temporaryFolder.getRoot()).update(Collections.<File>emptyList(), System.currentTimeMillis(), 0, TimeUnit.DAYS.toMillis(7));
+
+        assertEquals(1, report.getEvictions());
+        assertFalse(new File(temporaryFolder.getRoot(), "document-figure0.pdf").exists());
+        assertTrue(new File(temporaryFolder.getRoot(), "document-figure1.pdf").exists());
+    }
+
+}
@@ -0,0 +1,72 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.messages.AbstractMessage;
+import de.lekse.ant.typesetting.messages.ErrorMessage;
+import de.lekse.ant.typesetting.messages.LogListener;
+import de.lekse.ant.typesetting.messages.LogParser;
+import de.lekse.ant.typesetting.messages.WarningMessage;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the log parser.
+ */
+@RunWith(JUnit4.class)
+public class LogParserTests {
+
+    private List<AbstractMessage> messages;
+
+    private LogParser parser;
+
+    @Before
+    public void setUp() {
+        this.messages = new ArrayList<>();
+        this.parser = new LogParser(new LogListener() {
+            @Override
+            public void messageParsed(AbstractMessage message) {
+                messages.add(message);
+            }
+        });
+    }
+
+    /**
+     * Test for parsing errors continued by the next line and warnings
+     */
+    @Test
+    public void parseMessages() {
+        parser.parseLine("This is pdfTeX");
+        parser.parseLine("LaTeX Warning: Reference `fig' undefined.");
+        parser.parseLine("! Undefined control sequence.");
+        assertEquals(1, messages.size());
+
+        parser.parseLine("l.12 \\foo");
+        parser.finish();
+
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0) instanceof WarningMessage);
+        assertEquals("Reference `fig' undefined.", messages.get(0).getMessage());
+        assertTrue(messages.get(1) instanceof ErrorMessage);
+        assertEquals("Undefined control sequence. l.12 \\foo", messages.get(1).getMessage());
+    }
+
+    /**
+     * Test for an error on the last line of the output
+     */
+    @Test
+    public void parseErrorOnLastLine() {
+        parser.parseLine("! Emergency stop.");
+        parser.parseLine("<*> \\input{document}");
+        parser.parseLine("!");
+        parser.finish();
+
+        assertEquals(2, messages.size());
+        assertEquals("Emergency stop. <*> \\input{document}", messages.get(0).getMessage());
+        assertEquals("", messages.get(1).getMessage());
+    }
+
+}
@@ -0,0 +1,216 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.Fingerprint;
+import de.lekse.ant.typesetting.tasks.ParallelTypesetTask;
+import de.lekse.ant.typesetting.tasks.TypesetTask;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.Project;
+
+/**
+ * End-to-end benchmark of the typeset tasks with the stub engine, hence it
+ * measures the orchestration without a TeX installation. A synthetic corpus
+ * is built one document after another, again while it is up to date, in
+ * parallel, and continuously while chapters are edited. For every scenario
+ * the wall time, the number of compiler processes and the bytes read and
+ * written by them are reported.
+ * <p>
+ * Usage: MacroBenchmark [documents] [chapters] [delay in ms] [edits]
+ *
+ * @author Lekse
+ */
+public class MacroBenchmark {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final long EDIT_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    private final File dir;
+
+    private final File launcher;
+
+    private final File stats;
+
+    private final List<File> documents;
+
+    private int statsOffset;
+
+    public MacroBenchmark(File dir, int documentCount, int chapters, long delay) throws IOException {
+        this.dir = dir;
+        this.stats = new File(dir, "stubtex.stats");
+        this.launcher = StubTexEngine.createLauncher(dir, delay, this.stats);
+        this.documents = new ArrayList<>();
+
+        CorpusGenerator generator = new CorpusGenerator().setChapters(chapters);
+
+        for (int i = 0; i < documentCount; i++) {
+            this.documents.add(generator.generate(dir, String.format("document%1$d", i)));
+        }
+
+        Files.write(this.stats.toPath(), new byte[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int documentCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int chapters = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        int edits = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        MacroBenchmark benchmark = new MacroBenchmark(Files.createTempDirectory("macrobenchmark").toFile(), documentCount, chapters, delay);
+
+        System.out.println(String.format("%1$-12s %2$10s %3$10s %4$12s %5$12s", "scenario", "wall [ms]", "processes", "read [B]", "written [B]"));
+
+        benchmark.report("one-shot", benchmark.oneShot(true));
+        benchmark.report("up-to-date", benchmark.oneShot(false));
+        benchmark.report("parallel", benchmark.parallel());
+        benchmark.report("continuous", benchmark.continuous(edits));
+    }
+
+    private Project createProject() {
+        Project project = new Project();
+        project.init();
+        project.setBaseDir(this.dir);
+
+        return project;
+    }
+
+    private TypesetTask createTask(Project project, File document, boolean force) {
+        TypesetTask task = new TypesetTask();
+        task.setProject(project);
+        task.setTaskName("typeset");
+        task.setDocument(document);
+        task.setCompiler(this.launcher.getAbsolutePath());
+        task.setMaxpasses(3);
+        task.setForce(force);
+
+        return task;
+    }
+
+    /**
+     * Builds all documents one after another.
+     *
+     * @return Wall time in nanoseconds
+     */
+    public long oneShot(boolean force) {
+        Project project = this.createProject();
+        long startTime = System.nanoTime();
+
+        for (File document : this.documents) {
+            this.createTask(project, document, force).execute();
+        }
+
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Builds all documents concurrently.
+     *
+     * @return Wall time in nanoseconds
+     */
+    public long parallel() {
+        Project project = this.createProject();
+        ParallelTypesetTask task = new ParallelTypesetTask();
+        task.setProject(project);
+
+        for (File document : this.documents) {
+            task.addTypeset(this.createTask(project, document, true));
+        }
+
+        long startTime = System.nanoTime();
+        task.execute();
+
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Edits a chapter of the first document repeatedly while it is built in
+     * continuous mode and waits for the updated PDF after every edit.
+     *
+     * @return Wall time in nanoseconds from the first edit to the last
+     *         updated PDF
+     */
+    public long continuous(int edits) throws IOException, InterruptedException {
+        File document = this.documents.get(0);
+        File pdf = new File(this.dir, document.getName().replaceFirst("\\.tex$", ".pdf"));
+        File chapter = new File(new File(this.dir, document.getName().replaceFirst("\\.tex$", "")), "chapter0.tex");
+
+        final TypesetTask task = this.createTask(this.createProject(), document, false);
+        task.setContinuous(true);
+        task.setQuietperiod(50);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.execute();
+            }
+        }, "continuous");
+        thread.start();
+
+        // Wait for the initial up to date check and the directory registration
+        Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+        this.statsOffset = this.countProcesses();
+
+        long startTime = System.nanoTime();
+
+        try {
+            for (int i = 0; i < edits; i++) {
+                String fingerprint = Fingerprint.of(pdf);
+
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(chapter, true), CHARSET)) {
+                    writer.write(String.format("Edit %1$d.%n", i));
+                }
+
+                long deadline = System.currentTimeMillis() + EDIT_TIMEOUT;
+
+                while (fingerprint.equals(Fingerprint.of(pdf))) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("The document has not been rebuilt after an edit");
+                    }
+
+                    Thread.sleep(5);
+                }
+            }
+
+            return System.nanoTime() - startTime;
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private List<String> readStats() throws IOException {
+        return Files.readAllLines(this.stats.toPath(), CHARSET);
+    }
+
+    private int countProcesses() throws IOException {
+        return this.readStats().size();
+    }
+
+    /**
+     * Prints the wall time and the compiler statistics since the last report.
+     */
+    private void report(String scenario, long wallNanos) throws IOException {
+        List<String> lines = this.readStats();
+        long read = 0;
+        long written = 0;
+
+        for (String line : lines.subList(this.statsOffset, lines.size())) {
+            String[] fields = line.split(" ");
+            read += Long.parseLong(fields[1]);
+            written += Long.parseLong(fields[2]);
+        }
+
+        System.out.println(String.format("%1$-12s %2$10d %3$10d %4$12d %5$12d", scenario, TimeUnit.NANOSECONDS.toMillis(wallNanos), lines.size() - this.statsOffset, read, written));
+
+        this.statsOffset = lines.size();
+    }
+
+}
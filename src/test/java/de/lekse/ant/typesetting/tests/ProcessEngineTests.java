@@ -0,0 +1,161 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.process.ProcessEngine;
+import de.lekse.ant.typesetting.process.ProcessResult;
+import de.lekse.ant.typesetting.process.RunningProcess;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the engine executing processes directly, run through the shell.
+ */
+@RunWith(JUnit4.class)
+public class ProcessEngineTests {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test for reporting exit code, output and errors of every execution of
+     * the same engine separately
+     */
+    @Test
+    public void reuseEngine() throws IOException, InterruptedException {
+        ProcessEngine engine = new ProcessEngine(temporaryFolder.getRoot(), "test");
+
+        for (String greeting : new String[] { "first", "second" }) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteArrayOutputStream error = new ByteArrayOutputStream();
+
+            RunningProcess process = engine.start(Arrays.asList("sh", "-c", "echo $GREETING; echo failed >&2; exit 3"), Collections.singletonMap("GREETING", greeting), output, error);
+            ProcessResult result = process.waitFor();
+
+            assertEquals(3, result.getExitCode());
+            assertFalse(result.isCancelled());
+            assertEquals(greeting.concat("\n"), new String(output.toByteArray(), CHARSET));
+            assertEquals("failed\n", new String(error.toByteArray(), CHARSET));
+        }
+    }
+
+    /**
+     * Test for passing input to a running process
+     */
+    @Test
+    public void writeInput() throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        RunningProcess process = new ProcessEngine(temporaryFolder.getRoot(), "test").start(Arrays.asList("cat"), new HashMap<String,String>(), output, null);
+        process.write("\\begin{document}\n", CHARSET);
+        process.write("\\end{document}\n", CHARSET);
+        process.closeInput();
+
+        assertEquals(0, process.waitFor().getExitCode());
+        assertEquals("\\begin{document}\n\\end{document}\n", new String(output.toByteArray(), CHARSET));
+    }
+
+    /**
+     * Test for pumping a large output without buffering it
+     */
+    @Test
+    public void pumpLargeOutput() throws IOException, InterruptedException {
+        final long[] count = new long[1];
+
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                count[0] += len;
+            }
+        };
+
+        RunningProcess process = new ProcessEngine(temporaryFolder.getRoot(), "test").start(Arrays.asList("sh", "-c", "head -c 20000000 /dev/zero"), new HashMap<String,String>(), output, null);
+
+        assertEquals(0, process.waitFor().getExitCode());
+        assertEquals(20000000L, count[0]);
+    }
+
+    /**
+     * Test for measuring the CPU time of a process running alone, but not of
+     * processes running at the same time
+     */
+    @Test
+    public void measureCpuTime() throws IOException, InterruptedException {
+        Assume.assumeTrue(new File("/proc/self/stat").isFile());
+
+        ProcessEngine engine = new ProcessEngine(temporaryFolder.getRoot(), "test");
+        String busy = "i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done";
+
+        ProcessResult result = engine.start(Arrays.asList("sh", "-c", busy), new HashMap<String,String>(), null, null).waitFor();
+
+        assertTrue(result.getCpuMillis() > 0);
+        assertTrue(result.getCpuMillis() <= TimeUnit.NANOSECONDS.toMillis(result.getWallNanos()) + 100);
+
+        RunningProcess first = engine.start(Arrays.asList("sh", "-c", busy), new HashMap<String,String>(), null, null);
+        RunningProcess second = engine.start(Arrays.asList("sh", "-c", busy), new HashMap<String,String>(), null, null);
+
+        assertEquals(-1, first.waitFor().getCpuMillis());
+        assertEquals(-1, second.waitFor().getCpuMillis());
+
+        // Processes running alone are measured again afterwards
+        assertTrue(engine.start(Arrays.asList("sh", "-c", busy), new HashMap<String,String>(), null, null).waitFor().getCpuMillis() >= 0);
+    }
+
+    /**
+     * Test for killing a running process
+     */
+    @Test
+    public void cancelProcess() throws IOException, InterruptedException {
+        RunningProcess process = new ProcessEngine(temporaryFolder.getRoot(), "test").start(Arrays.asList("sleep", "30"), new HashMap<String,String>(), null, null);
+
+        assertTrue(process.isRunning());
+
+        process.cancel();
+        ProcessResult result = process.waitFor();
+
+        assertTrue(result.isCancelled());
+        assertFalse(process.isRunning());
+        assertTrue(result.getWallNanos() < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    /**
+     * Test for not waiting for children of a killed process which keep its
+     * output open
+     */
+    @Test
+    public void cancelProcessWithChildren() throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RunningProcess process = new ProcessEngine(temporaryFolder.getRoot(), "test").start(Arrays.asList("sh", "-c", "sleep 30 & echo started; wait"), new HashMap<String,String>(), output, null);
+
+        // Wait until the child has been started
+        while (output.size() == 0) {
+            Thread.sleep(10);
+        }
+
+        process.cancel();
+        ProcessResult result = process.waitFor();
+
+        assertTrue(result.isCancelled());
+        assertTrue(result.getWallNanos() < TimeUnit.SECONDS.toNanos(10));
+    }
+
+}
@@ -0,0 +1,74 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.watch.ReverseIndex;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the reverse index from input files to documents.
+ */
+@RunWith(JUnit4.class)
+public class ReverseIndexTests {
+
+    private static final Path STYLES = Paths.get("/project/styles");
+
+    private static final Path FIGURES = Paths.get("/project/figures");
+
+    private ReverseIndex<String> createIndex() {
+        ReverseIndex<String> index = new ReverseIndex<>();
+        index.update("thesis", Arrays.asList(Paths.get("/project/thesis/thesis.tex"), STYLES.resolve("common.sty"), FIGURES.resolve("plot.pdf")), Arrays.asList(Paths.get("/project/thesis"), STYLES, FIGURES));
+        index.update("slides", Arrays.asList(Paths.get("/project/slides/slides.tex"), STYLES.resolve("common.sty"), STYLES.resolve("beamer.sty")), Arrays.asList(Paths.get("/project/slides"), STYLES));
+
+        return index;
+    }
+
+    /**
+     * Test for affecting only the documents which read a changed input
+     */
+    @Test
+    public void findReadingDocuments() {
+        ReverseIndex<String> index = createIndex();
+
+        assertEquals(new HashSet<>(Arrays.asList("thesis", "slides")), index.findAffected(Collections.singleton(STYLES.resolve("common.sty"))));
+        assertEquals(Collections.singleton("slides"), index.findAffected(Collections.singleton(STYLES.resolve("beamer.sty"))));
+        assertEquals(Collections.singleton("thesis"), index.findAffected(Collections.singleton(FIGURES.resolve("plot.pdf"))));
+        assertTrue(index.findAffected(Collections.singleton(Paths.get("/project/other/notes.tex"))).isEmpty());
+    }
+
+    /**
+     * Test for affecting every document watching the directory of a file
+     * which is no known input
+     */
+    @Test
+    public void findWatchingDocuments() {
+        ReverseIndex<String> index = createIndex();
+
+        assertEquals(new HashSet<>(Arrays.asList("thesis", "slides")), index.findAffected(Collections.singleton(STYLES.resolve("new.sty"))));
+        assertEquals(Collections.singleton("thesis"), index.findAffected(Collections.singleton(FIGURES.resolve("new.pdf"))));
+
+        // A directory whose events have been lost affects every document watching it
+        assertEquals(new HashSet<>(Arrays.asList("thesis", "slides")), index.findAffected(Collections.singleton(STYLES)));
+        assertEquals(new HashSet<>(Arrays.asList(Paths.get("/project/thesis"), Paths.get("/project/slides"), STYLES, FIGURES)), index.getDirectories());
+    }
+
+    /**
+     * Test for replacing the inputs of a document after a build
+     */
+    @Test
+    public void updateInputs() {
+        ReverseIndex<String> index = createIndex();
+        index.update("thesis", Collections.singleton(Paths.get("/project/thesis/thesis.tex")), Collections.singleton(Paths.get("/project/thesis")));
+
+        assertEquals(Collections.singleton("slides"), index.findAffected(Collections.singleton(STYLES.resolve("common.sty"))));
+        assertTrue(index.findAffected(Collections.singleton(FIGURES.resolve("plot.pdf"))).isEmpty());
+        assertFalse(index.getDirectories().contains(FIGURES));
+    }
+
+}
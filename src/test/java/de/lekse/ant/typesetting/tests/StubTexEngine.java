@@ -0,0 +1,676 @@
+package de.lekse.ant.typesetting.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for pdflatex which allows running the typeset task without a TeX
+ * installation. The engine accepts the command line of pdflatex, reads its
+ * input from the standard input or the given file, follows \input and
+ * \include (restricted by \includeonly), and writes a log, the auxiliary
+ * files, the recorder file and a PDF. Labels are resolved through the auxiliary file, hence documents with
+ * references need two passes like with pdflatex, and the control sequence
+ * undefined is reported as an error. Citations are requested from bibtex
+ * through the auxiliary file, and the stub also stands in for bibtex if it
+ * is invoked with --bibtex and the job name.
+ * <p>
+ * The environment variable STUB_TEX_DELAY defines a delay in milliseconds of
+ * every invocation. If STUB_TEX_STATS names a file, every invocation appends
+ * a line with the number of bytes read and written.
+ *
+ * @author Lekse
+ */
+public class StubTexEngine {
+
+    public static final String ENV_DELAY = "STUB_TEX_DELAY";
+
+    public static final String ENV_STATS = "STUB_TEX_STATS";
+
+    public static final String VERSION = "StubTeX 3.141592653";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final Pattern INPUT_PATTERN = Pattern.compile("\\\\(input|include)\\{([^}]+)\\}");
+
+    private static final Pattern INCLUDE_ONLY_PATTERN = Pattern.compile("\\\\includeonly\\{([^}]*)\\}");
+
+    private static final Pattern LABEL_PATTERN = Pattern.compile("\\\\label\\{([^}]+)\\}");
+
+    private static final Pattern REF_PATTERN = Pattern.compile("\\\\ref\\{([^}]+)\\}");
+
+    private static final Pattern CITE_PATTERN = Pattern.compile("\\\\cite\\{([^}]+)\\}");
+
+    private static final Pattern BIBLIOGRAPHY_PATTERN = Pattern.compile("\\\\bibliography\\{([^}]+)\\}");
+
+    private static final Pattern CITATION_PATTERN = Pattern.compile("\\\\citation\\{([^}]+)\\}");
+
+    private static final Pattern BIBDATA_PATTERN = Pattern.compile("\\\\bibdata\\{([^}]+)\\}");
+
+    private static final Pattern BIBITEM_PATTERN = Pattern.compile("\\\\bibitem\\{([^}]+)\\}");
+
+    private static final Pattern ENTRY_PATTERN = Pattern.compile("(?s)@\\w+\\{([^,]+),(.*?)\\n\\}");
+
+    private static final Pattern EXTERNAL_PREFIX_PATTERN = Pattern.compile("\\\\tikzsetexternalprefix\\{([^}]*)\\}");
+
+    private static final Pattern FIGURE_NAME_PATTERN = Pattern.compile("\\\\tikzsetfigurename\\{([^}]*)\\}");
+
+    private static final String REAL_JOB_PREFIX = "\\def\\tikzexternalrealjob{";
+
+    private static final String UNDEFINED = "\\undefined";
+
+    private static final String FIGURE = "\\begin{tikzpicture}";
+
+    private static final Pattern FIGURE_BODY_PATTERN = Pattern.compile("(?s)\\\\begin\\{tikzpicture\\}.*?\\\\end\\{tikzpicture\\}");
+
+    private static final String EXTERNALIZATION = "\\tikzset{external";
+
+    private final File workingDir;
+
+    private String jobname;
+
+    private File outputDir;
+
+    private boolean draft;
+
+    private boolean ini;
+
+    private boolean recorder;
+
+    private boolean haltOnError;
+
+    /**
+     * If true, the main pass includes the figures instead of reading their
+     * bodies.
+     */
+    private boolean externalized;
+
+    private boolean figureJob;
+
+    /**
+     * Number of pictures read so far, a figure job only reads its own.
+     */
+    private int figureCount;
+
+    private File sourceFile;
+
+    private final Set<File> inputs;
+
+    /**
+     * Files read and written in the order of their access, recorded like by
+     * pdflatex -recorder.
+     */
+    private final List<String> recorded;
+
+    /**
+     * Units passed to \includeonly or null if every unit is included.
+     */
+    private Set<String> includeOnly;
+
+    /**
+     * Auxiliary files written for the included units.
+     */
+    private final List<File> unitAuxFiles;
+
+    private final List<String> log;
+
+    private long bytesRead;
+
+    private long bytesWritten;
+
+    private boolean failed;
+
+    private StubTexEngine(File workingDir) {
+        this.workingDir = workingDir;
+        this.inputs = new LinkedHashSet<>();
+        this.recorded = new ArrayList<>();
+        this.unitAuxFiles = new ArrayList<>();
+        this.log = new ArrayList<>();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--version")) {
+            System.out.println(VERSION);
+
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--bibtex")) {
+            StubTexEngine engine = new StubTexEngine(new File(System.getProperty("user.dir")));
+            engine.jobname = args[1];
+            engine.outputDir = engine.workingDir;
+
+            int exitCode = engine.runBibtex();
+            engine.appendStats(System.getenv(ENV_STATS));
+            System.exit(exitCode);
+        }
+
+        StubTexEngine engine = new StubTexEngine(new File(System.getProperty("user.dir")));
+        engine.parseArguments(args);
+
+        int exitCode = engine.run();
+
+        String delay = System.getenv(ENV_DELAY);
+
+        if (delay != null && !delay.isEmpty()) {
+            Thread.sleep(Long.parseLong(delay));
+        }
+
+        engine.appendStats(System.getenv(ENV_STATS));
+        System.exit(exitCode);
+    }
+
+    /**
+     * Writes a launcher script which executes the stub engine in a new JVM
+     * with the class path of the current JVM.
+     *
+     * @param dir Directory of the launcher
+     * @param delay Delay of every invocation in milliseconds
+     * @param stats File receiving the statistics of the invocations or null
+     * @return Executable launcher
+     * @throws IOException
+     */
+    public static File createLauncher(File dir, long delay, File stats) throws IOException {
+        return createLauncher(new File(dir, "stubtex"), delay, stats, "");
+    }
+
+    /**
+     * Writes a launcher script which executes the stub engine as bibtex.
+     *
+     * @param dir Directory of the launcher
+     * @param stats File receiving the statistics of the invocations or null
+     * @return Executable launcher
+     * @throws IOException
+     */
+    public static File createBibtexLauncher(File dir, File stats) throws IOException {
+        return createLauncher(new File(dir, "stubbibtex"), 0, stats, "--bibtex ");
+    }
+
+    private static File createLauncher(File launcher, long delay, File stats, String arguments) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        StringBuilder classPath = new StringBuilder();
+
+        // The compiler runs in the directory of the document, hence the class path has to be absolute
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(launcher), CHARSET)) {
+            writer.write("#!/bin/sh\n");
+            writer.write(String.format("%1$s=%2$d; export %1$s\n", ENV_DELAY, delay));
+
+            if (stats != null) {
+                writer.write(String.format("%1$s='%2$s'; export %1$s\n", ENV_STATS, stats.getAbsolutePath()));
+            }
+
+            writer.write(String.format("exec '%1$s' -XX:TieredStopAtLevel=1 -cp '%2$s' %3$s %4$s\"$@\"\n", java, classPath, StubTexEngine.class.getName(), arguments));
+        }
+
+        if (!launcher.setExecutable(true)) {
+            throw new IOException(String.format("Launcher \"%1$s\" could not be made executable", launcher));
+        }
+
+        return launcher;
+    }
+
+    private void parseArguments(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("-jobname=")) {
+                this.jobname = arg.substring("-jobname=".length());
+            }
+            else if (arg.startsWith("-output-directory=")) {
+                this.outputDir = this.resolve(arg.substring("-output-directory=".length()));
+            }
+            else if (arg.equals("-draftmode")) {
+                this.draft = true;
+            }
+            else if (arg.equals("-ini")) {
+                this.ini = true;
+            }
+            else if (arg.equals("-recorder")) {
+                this.recorder = true;
+            }
+            else if (arg.equals("-halt-on-error")) {
+                this.haltOnError = true;
+            }
+            else if (!arg.startsWith("-") && !arg.startsWith("&")) {
+                this.sourceFile = this.resolve(arg);
+            }
+        }
+
+        if (this.outputDir == null) {
+            this.outputDir = this.workingDir;
+        }
+
+        if (this.jobname == null) {
+            this.jobname = this.sourceFile != null ? this.sourceFile.getName().replaceFirst("\\.tex$", "") : "texput";
+        }
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+
+        return file.isAbsolute() ? file : new File(this.workingDir, path);
+    }
+
+    private File getOutputFile(String extension) {
+        return new File(this.outputDir, this.jobname.concat(extension));
+    }
+
+    private int run() throws IOException {
+        this.log.add(String.format("This is %1$s (pdflatex compatible)", VERSION));
+
+        String input = this.sourceFile != null ? this.read(this.sourceFile) : this.readStandardInput();
+
+        // Figure job of the TikZ externalization
+        this.externalized = input.contains(EXTERNALIZATION);
+        this.figureJob = input.startsWith(REAL_JOB_PREFIX);
+
+        StringBuilder document = new StringBuilder(input);
+        Matcher includeOnly = INCLUDE_ONLY_PATTERN.matcher(input);
+
+        if (includeOnly.find()) {
+            this.includeOnly = new LinkedHashSet<>(Arrays.asList(includeOnly.group(1).split(",")));
+        }
+
+        // Figure job of the TikZ externalization, which reads the bodies of the pictures
+        if (this.figureJob) {
+            this.expand(input, document);
+            this.writeOutput(this.getOutputFile(".pdf"), String.format("%%PDF-1.5 figure %1$s%n", this.jobname));
+            this.log.add(String.format("Figure %1$s", this.jobname));
+            this.finish(null);
+
+            return 0;
+        }
+
+        this.expand(input, document);
+
+        if (this.ini) {
+            this.writeOutput(this.getOutputFile(".fmt"), String.format("format %1$08x%n", input.hashCode()));
+            this.log.add(String.format("Beginning to dump on file %1$s.fmt", this.jobname));
+            this.finish(null);
+
+            return 0;
+        }
+
+        // Resolve references through the labels of the previous pass
+        File auxFile = this.getOutputFile(".aux");
+        String previousAux = auxFile.isFile() ? this.read(auxFile) : "";
+        StringBuilder aux = new StringBuilder("\\relax\n");
+        Matcher labels = LABEL_PATTERN.matcher(document);
+        int labelCount = 0;
+
+        while (labels.find()) {
+            aux.append(String.format("\\newlabel{%1$s}{{%2$d}{1}}%n", labels.group(1), ++labelCount));
+        }
+
+        // Request the bibliography and read the one written by bibtex
+        Matcher citations = CITE_PATTERN.matcher(document);
+
+        while (citations.find()) {
+            aux.append(String.format("\\citation{%1$s}%n", citations.group(1)));
+        }
+
+        Matcher bibliography = BIBLIOGRAPHY_PATTERN.matcher(document);
+
+        if (bibliography.find()) {
+            aux.append(String.format("\\bibdata{%1$s}%n", bibliography.group(1)));
+            File bblFile = this.getOutputFile(".bbl");
+
+            if (bblFile.isFile()) {
+                this.addInput(bblFile.getAbsoluteFile());
+                Matcher items = BIBITEM_PATTERN.matcher(this.read(bblFile));
+                int itemCount = 0;
+
+                while (items.find()) {
+                    aux.append(String.format("\\bibcite{%1$s}{%2$d}%n", items.group(1), ++itemCount));
+                }
+            }
+        }
+
+        Matcher refs = REF_PATTERN.matcher(document);
+        boolean undefinedReferences = false;
+
+        while (refs.find()) {
+            if (!previousAux.contains(String.format("\\newlabel{%1$s}", refs.group(1)))) {
+                this.log.add(String.format("LaTeX Warning: Reference `%1$s' on page 1 undefined on input line %2$d.", refs.group(1), lineOf(document, refs.start())));
+                undefinedReferences = true;
+            }
+        }
+
+        // Report errors
+        int undefinedIndex = document.indexOf(UNDEFINED);
+
+        while (undefinedIndex >= 0 && !(this.failed && this.haltOnError)) {
+            this.log.add("! Undefined control sequence.");
+            this.log.add(String.format("l.%1$d %2$s", lineOf(document, undefinedIndex), UNDEFINED));
+            this.failed = true;
+
+            undefinedIndex = document.indexOf(UNDEFINED, undefinedIndex + 1);
+        }
+
+        // List the figures of the TikZ externalization
+        if (input.contains("list and make")) {
+            Matcher prefix = EXTERNAL_PREFIX_PATTERN.matcher(input);
+            String externalPrefix = prefix.find() ? prefix.group(1) : "";
+            Matcher name = FIGURE_NAME_PATTERN.matcher(input);
+            String figureName = name.find() ? name.group(1) : this.jobname.concat("-figure");
+            StringBuilder figures = new StringBuilder();
+
+            for (int i = 0, index = document.indexOf(FIGURE); index >= 0; i++, index = document.indexOf(FIGURE, index + 1)) {
+                String figure = String.format("%1$s%2$s%3$d", externalPrefix, figureName, i);
+                figures.append(figure).append('\n');
+
+                // Compiled figures are included like with \includegraphics
+                File figureFile = this.resolve(figure.concat(".pdf"));
+
+                if (figureFile.isFile()) {
+                    this.addInput(figureFile.getAbsoluteFile());
+                }
+            }
+
+            this.writeOutput(this.getOutputFile(".figlist"), figures.toString());
+        }
+
+        if (undefinedReferences) {
+            this.log.add("LaTeX Warning: There were undefined references.");
+        }
+
+        if (!aux.toString().equals(previousAux)) {
+            this.log.add("LaTeX Warning: Label(s) may have changed. Rerun to get cross-references right.");
+        }
+
+        this.writeOutput(auxFile, aux.toString());
+
+        for (File unitAuxFile : this.unitAuxFiles) {
+            unitAuxFile.getParentFile().mkdirs();
+            this.writeOutput(unitAuxFile, "\\relax\n");
+        }
+
+        if (!this.draft) {
+            // The size of the PDF grows with the document
+            this.writeOutput(this.getOutputFile(".pdf"), String.format("%%PDF-1.5%n%%%1$08x%n%2$s", document.toString().hashCode(), document.toString().replaceAll("[^\\n]", "x")));
+            this.log.add(String.format("Output written on %1$s.pdf (1 page).", this.jobname));
+        }
+        else {
+            this.log.add("No pages of output.");
+        }
+
+        this.finish(auxFile);
+
+        return this.failed ? 1 : 0;
+    }
+
+    /**
+     * Writes the bibliography of the cited entries found in the databases of
+     * the auxiliary file.
+     */
+    private int runBibtex() throws IOException {
+        String aux = this.read(this.getOutputFile(".aux"));
+        StringBuilder bbl = new StringBuilder("\\begin{thebibliography}{9}\n");
+        Matcher databases = BIBDATA_PATTERN.matcher(aux);
+        Set<String> cited = new LinkedHashSet<>();
+        Matcher citations = CITATION_PATTERN.matcher(aux);
+
+        while (citations.find()) {
+            cited.add(citations.group(1));
+        }
+
+        StringBuilder entries = new StringBuilder();
+
+        while (databases.find()) {
+            for (String database : databases.group(1).split(",")) {
+                File file = this.findBibliography(database.trim().concat(".bib"));
+
+                if (file != null) {
+                    entries.append(this.read(file)).append('\n');
+                }
+            }
+        }
+
+        Matcher matcher = ENTRY_PATTERN.matcher(entries);
+        int found = 0;
+
+        while (matcher.find()) {
+            if (cited.contains(matcher.group(1).trim())) {
+                bbl.append(String.format("\\bibitem{%1$s}%2$s%n", matcher.group(1).trim(), matcher.group(2).trim().replaceAll("\\s+", " ")));
+                found++;
+            }
+        }
+
+        this.writeOutput(this.getOutputFile(".bbl"), bbl.append("\\end{thebibliography}\n").toString());
+        this.writeOutput(this.getOutputFile(".blg"), String.format("Found %1$d of %2$d citations%n", found, cited.size()));
+        this.jobname = "bibtex:".concat(this.jobname);
+
+        return found < cited.size() ? 1 : 0;
+    }
+
+    private File findBibliography(String name) {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(this.workingDir);
+
+        String bibInputs = System.getenv("BIBINPUTS");
+
+        if (bibInputs != null) {
+            for (String dir : bibInputs.split(File.pathSeparator)) {
+                if (!dir.isEmpty()) {
+                    dirs.add(this.resolve(dir));
+                }
+            }
+        }
+
+        for (File dir : dirs) {
+            File file = new File(dir, name);
+
+            if (file.isFile()) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends the files included by a text to the document.
+     */
+    private void expand(String text, StringBuilder document) throws IOException {
+        // The main pass of an externalized document does not read the pictures, a figure job reads its own
+        String readText = text;
+
+        if (this.externalized) {
+            Matcher figures = FIGURE_BODY_PATTERN.matcher(text);
+            StringBuffer stripped = new StringBuffer();
+
+            while (figures.find()) {
+                boolean read = this.figureJob && this.jobname.endsWith(String.format("-figure%1$d", this.figureCount++));
+                figures.appendReplacement(stripped, Matcher.quoteReplacement(read ? figures.group() : FIGURE));
+            }
+
+            readText = figures.appendTail(stripped).toString();
+        }
+
+        Matcher matcher = INPUT_PATTERN.matcher(readText);
+
+        while (matcher.find()) {
+            boolean unit = matcher.group(1).equals("include");
+
+            // Units excluded by \includeonly are represented by their auxiliary files
+            if (unit && this.includeOnly != null && !this.includeOnly.contains(matcher.group(2))) {
+                continue;
+            }
+
+            File file = this.find(matcher.group(2));
+
+            if (file == null) {
+                this.log.add(String.format("! LaTeX Error: File `%1$s.tex' not found.", matcher.group(2)));
+                this.log.add("l.1 \\input");
+                this.failed = true;
+
+                continue;
+            }
+
+            // \include opens the auxiliary file of the unit before reading it
+            if (unit && !this.figureJob && !this.ini) {
+                File unitAuxFile = new File(this.outputDir, matcher.group(2).concat(".aux"));
+                this.unitAuxFiles.add(unitAuxFile);
+                this.recorded.add(String.format("OUTPUT %1$s", unitAuxFile.getAbsolutePath()));
+            }
+
+            if (this.addInput(file)) {
+                this.log.add(String.format("(%1$s)", file.getPath()));
+
+                String content = this.read(file);
+                document.append(content);
+                this.expand(content, document);
+            }
+        }
+    }
+
+    private boolean addInput(File file) {
+        if (!this.inputs.add(file)) {
+            return false;
+        }
+
+        this.recorded.add(String.format("INPUT %1$s", file.getAbsolutePath()));
+
+        return true;
+    }
+
+    private File find(String name) {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(this.workingDir);
+
+        String texInputs = System.getenv("TEXINPUTS");
+
+        if (texInputs != null) {
+            for (String dir : texInputs.split(File.pathSeparator)) {
+                if (!dir.isEmpty()) {
+                    dirs.add(this.resolve(dir));
+                }
+            }
+        }
+
+        for (File dir : dirs) {
+            File file = new File(dir, name);
+
+            if (file.isFile()) {
+                return file.getAbsoluteFile();
+            }
+
+            file = new File(dir, name.concat(".tex"));
+
+            if (file.isFile()) {
+                return file.getAbsoluteFile();
+            }
+        }
+
+        return null;
+    }
+
+    private static int lineOf(CharSequence text, int index) {
+        int line = 1;
+
+        for (int i = 0; i < index; i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+            }
+        }
+
+        return line;
+    }
+
+    private String readStandardInput() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] block = new byte[8192];
+        InputStream in = System.in;
+        int read;
+
+        while ((read = in.read(block)) != -1) {
+            buffer.write(block, 0, read);
+        }
+
+        this.bytesRead += buffer.size();
+
+        return new String(buffer.toByteArray(), CHARSET);
+    }
+
+    private String read(File file) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        this.bytesRead += content.length;
+
+        return new String(content, CHARSET);
+    }
+
+    private void writeOutput(File file, String content) throws IOException {
+        byte[] bytes = content.getBytes(CHARSET);
+        Files.write(file.toPath(), bytes);
+        this.bytesWritten += bytes.length;
+    }
+
+    /**
+     * Writes the log to the standard output and the log file and records the
+     * files read and written.
+     */
+    private void finish(File auxFile) throws IOException {
+        StringBuilder logText = new StringBuilder();
+
+        for (String line : this.log) {
+            System.out.println(line);
+            logText.append(line).append('\n');
+        }
+
+        System.out.flush();
+        this.writeOutput(this.getOutputFile(".log"), logText.toString());
+
+        if (this.recorder) {
+            StringBuilder fls = new StringBuilder(String.format("PWD %1$s%n", this.workingDir.getAbsolutePath()));
+
+            // The auxiliary file is read and opened at the beginning of the document and read again at its end
+            if (auxFile != null) {
+                fls.append(String.format("INPUT %1$s%n", auxFile.getAbsolutePath()));
+                fls.append(String.format("OUTPUT %1$s%n", auxFile.getAbsolutePath()));
+            }
+
+            for (String record : this.recorded) {
+                fls.append(record).append(String.format("%n"));
+            }
+
+            if (auxFile != null) {
+                fls.append(String.format("INPUT %1$s%n", auxFile.getAbsolutePath()));
+            }
+
+            fls.append(String.format("OUTPUT %1$s%n", this.getOutputFile(".log").getAbsolutePath()));
+            fls.append(String.format("OUTPUT %1$s%n", this.getOutputFile(this.ini ? ".fmt" : ".pdf").getAbsolutePath()));
+
+            this.writeOutput(this.getOutputFile(".fls"), fls.toString());
+        }
+    }
+
+    private void appendStats(String stats) throws IOException {
+        if (stats == null || stats.isEmpty()) {
+            return;
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(stats, true), CHARSET)) {
+            writer.write(String.format("%1$s %2$d %3$d%n", this.jobname, this.bytesRead, this.bytesWritten));
+        }
+    }
+
+}
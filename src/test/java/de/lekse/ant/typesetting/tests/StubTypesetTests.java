@@ -0,0 +1,962 @@
+package de.lekse.ant.typesetting.tests;
+
+import de.lekse.ant.typesetting.build.BuildPlan;
+import de.lekse.ant.typesetting.tasks.ParallelTypesetTask;
+import de.lekse.ant.typesetting.tasks.TypesetTask;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DefaultLogger;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.Reference;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the typeset task with the stub engine instead of pdflatex.
+ */
+@RunWith(JUnit4.class)
+public class StubTypesetTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File launcher;
+
+    private File stats;
+
+    private Project project;
+
+    @Before
+    public void setUp() throws IOException {
+        this.stats = new File(temporaryFolder.getRoot(), "stubtex.stats");
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("bin"), 0, this.stats);
+
+        this.project = new Project();
+        this.project.init();
+        this.project.setBaseDir(temporaryFolder.getRoot());
+    }
+
+    private TypesetTask createTask(File document) {
+        TypesetTask task = new TypesetTask();
+        task.setProject(project);
+        task.setTaskName("typeset");
+        task.setDocument(document);
+        task.setCompiler(launcher.getAbsolutePath());
+        task.setMaxpasses(3);
+
+        return task;
+    }
+
+    private int countProcesses() throws IOException {
+        return stats.exists() ? Files.readAllLines(stats.toPath(), Charset.forName("UTF-8")).size() : 0;
+    }
+
+    /**
+     * Test for building a document with references and skipping it while it
+     * is up to date
+     */
+    @Test
+    public void buildAndSkipUpToDate() throws IOException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+
+        createTask(document).execute();
+
+        assertTrue(new File(temporaryFolder.getRoot(), "document.pdf").isFile());
+        assertEquals(2, countProcesses());
+
+        createTask(document).execute();
+
+        assertEquals(2, countProcesses());
+    }
+
+    /**
+     * Test for rebuilding a document after one of its included files has
+     * been changed
+     */
+    @Test
+    public void rebuildAfterChange() throws IOException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+
+        createTask(document).execute();
+        int processes = countProcesses();
+
+        try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+            writer.write("Changed.\n");
+        }
+
+        createTask(document).execute();
+
+        assertEquals(processes + 1, countProcesses());
+    }
+
+    /**
+     * Test for rerunning pdflatex only while the auxiliary files change and
+     * at most maxpasses times
+     */
+    @Test
+    public void rerunUntilStable() throws IOException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+
+        // The references are resolved by the second pass
+        TypesetTask task = createTask(document);
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertEquals("2", project.getProperty("metrics.passes"));
+
+        // The auxiliary files of the previous build are stable at once
+        task.setForce(true);
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+
+        // The number of passes is limited by maxpasses
+        document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "limited");
+
+        task = createTask(document);
+        task.setMaxpasses(1);
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+        assertTrue(new File(temporaryFolder.getRoot(), "limited.pdf").isFile());
+    }
+
+    /**
+     * Test for running the intermediate passes of a new document in draft
+     * mode and writing the document by a single final pass
+     */
+    @Test
+    public void draftIntermediatePasses() throws IOException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+
+        TypesetTask task = createTask(document);
+        task.setDraftpasses(true);
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertTrue(new File(temporaryFolder.getRoot(), "document.pdf").isFile());
+        assertEquals("3", project.getProperty("metrics.passes"));
+        assertEquals("2", project.getProperty("metrics.passes.draft"));
+
+        // The auxiliary files of the previous build are usually stable at once
+        task.setForce(true);
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+        assertEquals("0", project.getProperty("metrics.passes.draft"));
+    }
+
+    /**
+     * Test for a document with errors, which is not recorded as up to date
+     */
+    @Test
+    public void rebuildAfterError() throws IOException {
+        File document = temporaryFolder.newFile("broken.tex");
+
+        try (FileWriter writer = new FileWriter(document)) {
+            writer.write("\\begin{document}\n\\undefined\n\\end{document}\n");
+        }
+
+        createTask(document).execute();
+
+        assertEquals(1, countProcesses());
+
+        createTask(document).execute();
+
+        assertEquals(2, countProcesses());
+    }
+
+    /**
+     * Test for reporting the errors of a document while pdflatex is running
+     * and failing the task if requested
+     */
+    @Test
+    public void failOnError() throws IOException {
+        File document = temporaryFolder.newFile("broken.tex");
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        write(document, "\\begin{document}\n\\undefined\n\\end{document}\n");
+
+        project.addBuildListener(new DefaultLogger() {
+            @Override
+            public void messageLogged(BuildEvent event) {
+                if (event.getPriority() == Project.MSG_INFO && event.getMessage().contains("Undefined control sequence")) {
+                    errors.add(event.getMessage());
+                }
+            }
+        });
+
+        // The error is displayed once, but does not fail the task by default
+        TypesetTask task = createTask(document);
+        task.execute();
+
+        assertEquals(1, errors.size());
+
+        task.setFailonerror(true);
+
+        try {
+            task.execute();
+            fail("Broken document has been accepted");
+        } catch (BuildException e) {
+            assertTrue(e.getMessage().startsWith("broken could not be compiled"));
+        }
+
+        task.setFailonerror(false);
+        task.setFailfast(true);
+
+        try {
+            task.execute();
+            fail("Broken document has been accepted");
+        } catch (BuildException e) {
+            assertTrue(e.getMessage().startsWith("broken could not be compiled"));
+        }
+    }
+
+    /**
+     * Test for restoring a document from the artifact cache in another
+     * checkout instead of compiling it
+     */
+    @Test
+    public void restoreFromArtifactCache() throws IOException {
+        File store = temporaryFolder.newFolder("store");
+        File first = temporaryFolder.newFolder("first");
+        File second = temporaryFolder.newFolder("second");
+
+        TypesetTask task = createTask(new CorpusGenerator().setChapters(2).generate(first, "document"));
+        task.setBasedir(first);
+        task.setArtifactcache(store);
+        task.execute();
+
+        int processes = countProcesses();
+
+        task = createTask(new CorpusGenerator().setChapters(2).generate(second, "document"));
+        task.setBasedir(second);
+        task.setArtifactcache(store);
+        task.execute();
+
+        assertEquals(processes, countProcesses());
+        assertTrue(new File(second, "document.pdf").isFile());
+        assertTrue(new File(second, "document.aux").isFile());
+
+        // Rebuilding the restored document must not modify the stored artifacts
+        File stored = findStored(store, "document.pdf");
+
+        try (FileWriter writer = new FileWriter(new File(second, "document/chapter1.tex"), true)) {
+            writer.write("Changed.\n");
+        }
+
+        task.execute();
+
+        assertEquals(processes + 1, countProcesses());
+        assertArrayEquals(Files.readAllBytes(new File(first, "document.pdf").toPath()), Files.readAllBytes(stored.toPath()));
+    }
+
+    /**
+     * Test for compiling the listed figures at the same time and reusing
+     * them by the next build
+     */
+    @Test
+    public void compileFiguresConcurrently() throws IOException {
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("slow"), 1000, this.stats);
+        File document = new CorpusGenerator().setChapters(2).setFigures(3).generate(temporaryFolder.getRoot(), "document");
+
+        TypesetTask task = createTask(document);
+        task.setCache(true);
+        task.setParallelfigures(true);
+        task.setFigurethreads(6);
+        task.setCachedir(temporaryFolder.newFolder("cache"));
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertEquals(6, countFigureProcesses());
+        assertEquals("6", project.getProperty("metrics.figures.compiled"));
+        assertEquals("0", project.getProperty("metrics.figures.reused"));
+
+        for (int figure = 0; figure < 6; figure++) {
+            assertTrue(new File(temporaryFolder.getRoot(), String.format("cache/document-figure%1$d.pdf", figure)).isFile());
+        }
+
+        // Compiled one after another, every process would take at least the delay
+        assertTrue(Long.parseLong(project.getProperty("metrics.time")) < countProcesses() * 1000L);
+
+        task.setForce(true);
+        task.execute();
+
+        assertEquals(6, countFigureProcesses());
+        assertEquals("0", project.getProperty("metrics.figures.compiled"));
+        assertEquals("6", project.getProperty("metrics.figures.reused"));
+    }
+
+    /**
+     * Test for compiling only the figure whose data file has been changed
+     */
+    @Test
+    public void rebuildFigureAfterDataChange() throws IOException {
+        File document = new CorpusGenerator().setChapters(1).setFigures(3).setFigureData(true).generate(temporaryFolder.getRoot(), "document");
+
+        TypesetTask task = createTask(document);
+        task.setCache(true);
+        task.setParallelfigures(true);
+        task.setCachedir(temporaryFolder.newFolder("cache"));
+        task.execute();
+
+        assertEquals(3, countFigureProcesses());
+        assertTrue(new File(temporaryFolder.getRoot(), "cache/document-figure1.figdeps").isFile());
+
+        // Unchanged data
+        task.execute();
+
+        assertEquals(3, countFigureProcesses());
+
+        try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter0-figure1.dat"), true)) {
+            writer.write("-- (1,1)\n");
+        }
+
+        task.execute();
+
+        assertEquals(4, countFigureProcesses());
+        assertTrue(new File(temporaryFolder.getRoot(), "cache/document-figure1.pdf").isFile());
+    }
+
+    /**
+     * Test for compiling every combination of versions and languages into
+     * its own directory, where variants with the same preamble share their
+     * figures
+     */
+    @Test
+    public void buildVariantMatrix() throws IOException {
+        File document = new CorpusGenerator().setChapters(1).setFigures(2).generate(temporaryFolder.getRoot(), "document");
+
+        TypesetTask task = createTask(document);
+        task.setCache(true);
+        task.setParallelfigures(true);
+        task.setCachedir(temporaryFolder.newFolder("cache"));
+        task.setVersions("default, article");
+        task.setLanguages("en,de");
+        task.execute();
+
+        for (String name : new String[] { "document-default-en", "document-default-de", "document-article-en", "document-article-de" }) {
+            assertTrue(name, new File(temporaryFolder.getRoot(), String.format("%1$s/%1$s.pdf", name)).isFile());
+        }
+
+        // Both versions use the same document class and no picture refers to the language
+        assertEquals(2, countFigureProcesses());
+    }
+
+    /**
+     * Test for compiling the figures of every language if a picture refers
+     * to the language
+     */
+    @Test
+    public void buildLanguageDependentFigures() throws IOException {
+        File document = new File(temporaryFolder.getRoot(), "document.tex");
+        write(document, "\\begin{document}\n\\begin{tikzpicture}\\node{\\locale};\\end{tikzpicture}\n\\end{document}\n");
+
+        TypesetTask task = createTask(document);
+        task.setCache(true);
+        task.setParallelfigures(true);
+        task.setCachedir(temporaryFolder.newFolder("cache"));
+        task.setLanguages("en,de");
+        task.execute();
+
+        assertEquals(2, countFigureProcesses());
+    }
+
+    /**
+     * Test for building in a staging directory, which carries the auxiliary
+     * files to the next build and keeps the last document if a build fails
+     */
+    @Test
+    public void buildInStagingDirectory() throws IOException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+        File stagingDir = temporaryFolder.newFolder("staging");
+        File pdf = new File(temporaryFolder.getRoot(), "document.pdf");
+
+        TypesetTask task = createTask(document);
+        task.setStaging(true);
+        task.setStagingdir(stagingDir);
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertTrue(pdf.isFile());
+        assertTrue(new File(temporaryFolder.getRoot(), "document.aux").isFile());
+        assertEquals(0, stagingDir.list().length);
+        assertEquals("2", project.getProperty("metrics.passes"));
+        assertFalse(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "document.deps").toPath()), Charset.forName("UTF-8")).contains(stagingDir.getAbsolutePath()));
+
+        // The references of the previous build are resolved at once
+        try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+            writer.write("Changed.\n");
+        }
+
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+
+        // A failed build only replaces the log
+        String content = new String(Files.readAllBytes(pdf.toPath()), Charset.forName("UTF-8"));
+
+        try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+            writer.write("\\undefined\n");
+        }
+
+        task.execute();
+
+        assertEquals(content, new String(Files.readAllBytes(pdf.toPath()), Charset.forName("UTF-8")));
+        assertTrue(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "document.log").toPath()), Charset.forName("UTF-8")).contains("Undefined control sequence"));
+        assertEquals(0, stagingDir.list().length);
+    }
+
+    private void write(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
+    private int countFormatProcesses() throws IOException {
+        int processes = 0;
+
+        if (stats.exists()) {
+            for (String line : Files.readAllLines(stats.toPath(), Charset.forName("UTF-8"))) {
+                if (line.startsWith("typeset-")) {
+                    processes++;
+                }
+            }
+        }
+
+        return processes;
+    }
+
+    /**
+     * Test for reusing a precompiled format until the preamble or a file
+     * read by the preamble changes
+     */
+    @Test
+    public void reusePrecompiledFormat() throws IOException {
+        File document = temporaryFolder.newFile("slides.tex");
+        File macros = temporaryFolder.newFile("macros.tex");
+
+        write(macros, "\\def\\lecture{Typesetting}\n");
+        write(document, "\\input{macros}\n\\endofdump\n\\begin{document}\nText.\n\\end{document}\n");
+
+        TypesetTask task = createTask(document);
+        task.setPrecompile(true);
+        task.setForce(true);
+        task.execute();
+
+        assertEquals(1, countFormatProcesses());
+        assertTrue(new File(temporaryFolder.getRoot(), "slides.pdf").isFile());
+
+        // The format is reused by the next build
+        task.execute();
+
+        assertEquals(1, countFormatProcesses());
+
+        // A changed preamble gets a format of its own
+        write(document, "\\input{macros}\n\\def\\course{TeX}\n\\endofdump\n\\begin{document}\nText.\n\\end{document}\n");
+        task.execute();
+
+        assertEquals(2, countFormatProcesses());
+
+        // A changed file read while dumping invalidates the format
+        write(macros, "\\def\\lecture{Typesetting with TeX}\n");
+        task.execute();
+
+        assertEquals(3, countFormatProcesses());
+
+        task.execute();
+
+        assertEquals(3, countFormatProcesses());
+    }
+
+    /**
+     * Test for running bibtex only if the citations or the databases have
+     * been changed
+     */
+    @Test
+    public void runBibtexOnChangedCitations() throws IOException {
+        File document = temporaryFolder.newFile("thesis.tex");
+        File database = temporaryFolder.newFile("references.bib");
+
+        write(document, "\\begin{document}\nSee \\cite{knuth}.\n\\bibliography{references}\n\\end{document}\n");
+        write(database, "@book{knuth,\n  title = {The TeXbook}\n}\n@book{lamport,\n  title = {LaTeX}\n}\n");
+
+        TypesetTask task = createTask(document);
+        task.setMaxpasses(5);
+        task.setBibtex(StubTexEngine.createBibtexLauncher(temporaryFolder.getRoot(), stats).getAbsolutePath());
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        // The bibliography is included by the second pass and its labels are resolved by the third
+        assertEquals("3", project.getProperty("metrics.passes"));
+        assertEquals("1", project.getProperty("metrics.tools"));
+        assertTrue(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "thesis.bbl").toPath()), Charset.forName("UTF-8")).contains("\\bibitem{knuth}"));
+
+        // A change of the text does not need bibtex
+        try (FileWriter writer = new FileWriter(document, true)) {
+            writer.write("% Changed\n");
+        }
+
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+        assertEquals("0", project.getProperty("metrics.tools"));
+
+        // A change of the database does
+        write(database, "@book{knuth,\n  title = {The TeXbook, Volume A}\n}\n");
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.tools"));
+        assertEquals("2", project.getProperty("metrics.passes"));
+    }
+
+    /**
+     * Test for including the bibliography even if a single pass is allowed
+     */
+    @Test
+    public void includeBibliographyBeyondMaxpasses() throws IOException {
+        File document = temporaryFolder.newFile("thesis.tex");
+        File database = temporaryFolder.newFile("references.bib");
+
+        write(document, "\\begin{document}\nSee \\cite{knuth}.\n\\bibliography{references}\n\\end{document}\n");
+        write(database, "@book{knuth,\n  title = {The TeXbook}\n}\n");
+
+        TypesetTask task = createTask(document);
+        task.setMaxpasses(1);
+        task.setBibtex(StubTexEngine.createBibtexLauncher(temporaryFolder.getRoot(), stats).getAbsolutePath());
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertEquals("3", project.getProperty("metrics.passes"));
+        assertEquals("1", project.getProperty("metrics.tools"));
+        assertTrue(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "thesis.bbl").toPath()), Charset.forName("UTF-8")).contains("\\bibitem{knuth}"));
+
+        // Without a change of the citations a single pass suffices
+        task.setForce(true);
+        task.execute();
+
+        assertEquals("1", project.getProperty("metrics.passes"));
+    }
+
+    /**
+     * Test for limiting the passes added for a bibliography which changes on
+     * every run of bibtex
+     */
+    @Test
+    public void limitUnsettledBibliographyPasses() throws IOException {
+        File document = temporaryFolder.newFile("thesis.tex");
+        File database = temporaryFolder.newFile("references.bib");
+        File bibtex = new File(temporaryFolder.getRoot(), "unsettledbibtex");
+        final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+
+        write(document, "\\begin{document}\nSee \\cite{knuth}.\n\\bibliography{references}\n\\end{document}\n");
+        write(database, "@book{knuth,\n  title = {The TeXbook}\n}\n");
+
+        // Every run changes the database and writes another bibliography
+        write(bibtex, String.format("#!/bin/sh\necho \"%% $$ $(date +%%N)\" >> '%1$s'\necho \"\\\\bibitem{knuth}$$\" > \"$1.bbl\"\n", database.getAbsolutePath()));
+        bibtex.setExecutable(true);
+
+        project.addBuildListener(new DefaultLogger() {
+            @Override
+            public void messageLogged(BuildEvent event) {
+                if (event.getPriority() == Project.MSG_WARN && event.getMessage().contains("still changes")) {
+                    warnings.add(event.getMessage());
+                }
+            }
+        });
+
+        TypesetTask task = createTask(document);
+        task.setMaxpasses(1);
+        task.setBibtex(bibtex.getAbsolutePath());
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        assertEquals("3", project.getProperty("metrics.passes"));
+        assertEquals(1, warnings.size());
+    }
+
+    /**
+     * Test for drafting the passes of a new document which are rerun for the
+     * bibliography
+     */
+    @Test
+    public void draftBibliographyPasses() throws IOException {
+        File document = temporaryFolder.newFile("thesis.tex");
+        File database = temporaryFolder.newFile("references.bib");
+
+        write(document, "\\begin{document}\nSee \\cite{knuth}.\n\\bibliography{references}\n\\end{document}\n");
+        write(database, "@book{knuth,\n  title = {The TeXbook}\n}\n");
+
+        TypesetTask task = createTask(document);
+        task.setDraftpasses(true);
+        task.setBibtex(StubTexEngine.createBibtexLauncher(temporaryFolder.getRoot(), stats).getAbsolutePath());
+        task.setMetricsprefix("metrics");
+        task.execute();
+
+        // Only the last pass writes the document
+        assertEquals("3", project.getProperty("metrics.passes"));
+        assertEquals("2", project.getProperty("metrics.passes.draft"));
+        assertTrue(new File(temporaryFolder.getRoot(), "thesis.pdf").isFile());
+        assertTrue(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "thesis.bbl").toPath()), Charset.forName("UTF-8")).contains("\\bibitem{knuth}"));
+
+        // A changed database is included by a pass rerun after the first one, which is not drafted
+        write(database, "@book{knuth,\n  title = {The TeXbook, Volume A}\n}\n");
+        task.execute();
+
+        assertEquals("2", project.getProperty("metrics.passes"));
+        assertEquals("0", project.getProperty("metrics.passes.draft"));
+    }
+
+    /**
+     * Waits until a metric of the build running in the background has the
+     * expected value.
+     */
+    private void awaitMetric(String name, String value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+
+        while (!value.equals(project.getProperty(name))) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(String.format("Metric %1$s has not become %2$s", name, value));
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Test for previewing the changed chapter of a document in continuous
+     * mode and building the whole document once editing has gone quiet
+     */
+    @Test
+    public void previewChangedChapter() throws IOException, InterruptedException {
+        File document = new CorpusGenerator().setChapters(4).generate(temporaryFolder.getRoot(), "document");
+        File pdf = new File(temporaryFolder.getRoot(), "document.pdf");
+
+        final TypesetTask task = createTask(document);
+        task.setMetricsprefix("metrics");
+        task.setContinuous(true);
+        task.setPreview(true);
+        task.setQuietperiod(50);
+        task.setPreviewdelay(1000);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.execute();
+            }
+        }, "continuous");
+        thread.start();
+
+        try {
+            // Wait for the first build and the directory registration
+            awaitMetric("metrics.preview", "false");
+            Thread.sleep(500);
+            long fullSize = pdf.length();
+            project.setProperty("metrics.preview", "");
+
+            try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+                writer.write("Changed.\n");
+            }
+
+            // Only the changed chapter is compiled by a single pass
+            awaitMetric("metrics.preview", "true");
+            assertEquals("1", project.getProperty("metrics.passes"));
+            assertTrue(pdf.length() < fullSize);
+
+            // The whole document follows after the preview delay
+            awaitMetric("metrics.preview", "false");
+            assertTrue(pdf.length() > fullSize);
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Test for cancelling a running build in continuous mode as soon as the
+     * document is changed again
+     */
+    @Test
+    public void cancelRunningBuild() throws IOException, InterruptedException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+        final List<String> cancellations = Collections.synchronizedList(new ArrayList<String>());
+
+        project.addBuildListener(new DefaultLogger() {
+            @Override
+            public void messageLogged(BuildEvent event) {
+                if (event.getMessage().endsWith("has been cancelled")) {
+                    cancellations.add(event.getMessage());
+                }
+            }
+        });
+
+        // Every pass takes long enough to be cancelled, the statistics are not written into a watched directory
+        this.stats = new File(temporaryFolder.newFolder("stats"), "stubtex.stats");
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("slow"), 2000, this.stats);
+
+        final TypesetTask task = createTask(document);
+        task.setMetricsprefix("metrics");
+        task.setContinuous(true);
+        task.setQuietperiod(50);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.execute();
+            }
+        }, "continuous");
+        thread.start();
+
+        try {
+            // Wait for the first build and the directory registration
+            awaitMetric("metrics.passes", "2");
+            Thread.sleep(500);
+
+            try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+                writer.write("Changed.\n");
+            }
+
+            // Change the document again while pdflatex is running
+            Thread.sleep(1000);
+
+            try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+                writer.write("Changed again.\n");
+            }
+
+            // Only the last build completes, the killed process does not write its statistics
+            awaitMetric("metrics.passes", "1");
+            assertEquals(1, cancellations.size());
+            assertEquals(3, countProcesses());
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Test for compiling two documents at the same time
+     */
+    @Test
+    public void typesetConcurrently() throws IOException {
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("slow"), 1000, this.stats);
+
+        ParallelTypesetTask parallel = new ParallelTypesetTask();
+        parallel.setProject(project);
+        parallel.setThreads(2);
+
+        for (String name : new String[] { "thesis", "slides" }) {
+            TypesetTask task = createTask(new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), name));
+            task.setMetricsprefix(name);
+            parallel.addTypeset(task);
+        }
+
+        long start = System.currentTimeMillis();
+        parallel.execute();
+        long time = System.currentTimeMillis() - start;
+
+        assertTrue(new File(temporaryFolder.getRoot(), "thesis.pdf").isFile());
+        assertTrue(new File(temporaryFolder.getRoot(), "slides.pdf").isFile());
+        assertEquals(4, countProcesses());
+
+        // The builds overlap
+        assertTrue(time < Long.parseLong(project.getProperty("thesis.time")) + Long.parseLong(project.getProperty("slides.time")));
+    }
+
+    /**
+     * Test for rejecting a compiler which cannot be found before anything is
+     * compiled
+     */
+    @Test
+    public void rejectMissingCompiler() throws IOException {
+        File document = new CorpusGenerator().setChapters(1).generate(temporaryFolder.getRoot(), "document");
+        TypesetTask task = createTask(document);
+
+        task.setCompiler("pdflatex-misspelled");
+
+        try {
+            task.execute();
+            fail("Missing compiler has been accepted");
+        } catch (BuildException e) {
+            assertTrue(e.getMessage().startsWith("Compiler \"pdflatex-misspelled\" could not be found"));
+        }
+
+        task.setCompiler(new File(launcher.getParentFile(), "missing").getAbsolutePath());
+
+        try {
+            task.execute();
+            fail("Missing compiler has been accepted");
+        } catch (BuildException e) {
+            assertTrue(e.getMessage().contains("does not exist or is not executable"));
+        }
+
+        assertEquals(0, countProcesses());
+    }
+
+    /**
+     * Test for rejecting documents which are compiled to the same output
+     */
+    @Test
+    public void rejectDuplicateOutput() throws IOException {
+        File document = new CorpusGenerator().setChapters(1).generate(temporaryFolder.getRoot(), "document");
+
+        ParallelTypesetTask parallel = new ParallelTypesetTask();
+        parallel.setProject(project);
+        parallel.addTypeset(createTask(document));
+        parallel.addTypeset(createTask(document));
+
+        try {
+            parallel.execute();
+            fail("Documents with the same output have been accepted");
+        } catch (BuildException e) {
+            assertTrue(e.getMessage().startsWith("Several documents are compiled to"));
+        }
+
+        assertEquals(0, countProcesses());
+    }
+
+    /**
+     * Test for compiling a change with a warm compiler, which has processed
+     * the preamble in a staging directory of its own
+     */
+    @Test
+    public void compileWithWarmCompiler() throws IOException, InterruptedException {
+        File document = new CorpusGenerator().setChapters(2).generate(temporaryFolder.getRoot(), "document");
+        File stagingDir = temporaryFolder.newFolder("staging");
+        File log = new File(temporaryFolder.getRoot(), "document.log");
+        final List<String> warmBuilds = Collections.synchronizedList(new ArrayList<String>());
+
+        project.addBuildListener(new DefaultLogger() {
+            @Override
+            public void messageLogged(BuildEvent event) {
+                if (event.getMessage().startsWith("Using warm compiler")) {
+                    warmBuilds.add(event.getMessage());
+                }
+            }
+        });
+
+        // The statistics are not written into a watched directory
+        this.stats = new File(temporaryFolder.newFolder("stats"), "stubtex.stats");
+        this.launcher = StubTexEngine.createLauncher(temporaryFolder.newFolder("warm"), 0, this.stats);
+
+        final TypesetTask task = createTask(document);
+        task.setMetricsprefix("metrics");
+        task.setContinuous(true);
+        task.setWarm(true);
+        task.setStagingdir(stagingDir);
+        task.setQuietperiod(50);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.execute();
+            }
+        }, "continuous");
+        thread.start();
+
+        try {
+            // Wait for the first build and the standby compiler
+            awaitMetric("metrics.passes", "2");
+            Thread.sleep(500);
+
+            // The standby compiler does not touch the files of the last build
+            assertEquals(1, stagingDir.list().length);
+            assertTrue(log.length() > 0);
+
+            try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), "document/chapter1.tex"), true)) {
+                writer.write("Changed.\n");
+            }
+
+            awaitMetric("metrics.passes", "1");
+            assertEquals(1, warmBuilds.size());
+            assertTrue(new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), "document.fls").toPath()), Charset.forName("UTF-8")).contains(temporaryFolder.getRoot().getAbsolutePath()));
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+
+        // The staging directory of the standby compiler is deleted with it
+        assertEquals(0, stagingDir.list().length);
+    }
+
+    /**
+     * Test for reusing the build plan until an attribute or the elements of
+     * the referenced input path change
+     */
+    @Test
+    public void reuseBuildPlan() throws IOException {
+        File document = new File(temporaryFolder.getRoot(), "document.tex");
+        write(document, "Text.\n");
+
+        Path inputPath = new Path(project, temporaryFolder.newFolder("styles").getAbsolutePath());
+        project.addReference("texinputs", inputPath);
+
+        TypesetTask task = createTask(document);
+        task.setInputPathRef(new Reference(project, "texinputs"));
+        BuildPlan plan = task.getBuildPlan();
+
+        assertSame(plan, task.getBuildPlan());
+
+        task.setLanguage("german");
+        BuildPlan languagePlan = task.getBuildPlan();
+
+        assertNotSame(plan, languagePlan);
+        assertTrue(languagePlan.getPreamble().contains("\\newcommand\\locale{german}"));
+        assertSame(languagePlan, task.getBuildPlan());
+
+        // The reference stays the same while the referenced path grows
+        File macros = temporaryFolder.newFolder("macros");
+        inputPath.setPath(macros.getAbsolutePath());
+        BuildPlan pathPlan = task.getBuildPlan();
+
+        assertNotSame(languagePlan, pathPlan);
+        assertTrue(pathPlan.getTexInputs().contains(macros.getAbsolutePath()));
+    }
+
+    private int countFigureProcesses() throws IOException {
+        int processes = 0;
+
+        if (stats.exists()) {
+            for (String line : Files.readAllLines(stats.toPath(), Charset.forName("UTF-8"))) {
+                if (line.split(" ")[0].contains("-figure")) {
+                    processes++;
+                }
+            }
+        }
+
+        return processes;
+    }
+
+    private static File findStored(File dir, String name) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                File found = findStored(file, name);
+
+                if (found != null) {
+                    return found;
+                }
+            }
+            else if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+
+        return null;
+    }
+
+}